@@ -0,0 +1,178 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Bloom filter type behind BF.RESERVE/BF.ADD/BF.EXISTS, sized from a capacity and a false positive rate.
+ * Each layer is a bitmap packed into a long[] probed at k positions derived from one 64-bit hash by double
+ * hashing. A full layer gets a successor EXPANSION times larger with half the error rate, so the compound rate
+ * stays near the requested one (as RedisBloom scales); a NONSCALING filter refuses new items instead and
+ * never grows past its reserved memory. Methods are synchronized so snapshots can read a value in use.
+ */
+public class BloomFilter {
+    static final double DEFAULT_ERROR_RATE = 0.01;
+    static final long DEFAULT_CAPACITY = 100;
+    static final int DEFAULT_EXPANSION = 2;
+    private static final long SEED = 0x5bd1e995L;
+    private static final int MAX_WORDS = Integer.MAX_VALUE - 8;
+    private static final int READ_CHUNK_WORDS = 8 * 1024;
+    private static final double LN2_SQUARED = Math.log(2) * Math.log(2);
+
+    private static class Layer {
+        final long[] words;
+        final long bits;
+        final int hashes;
+        final long capacity;
+        final double errorRate;
+        long items;
+
+        Layer(long capacity, double errorRate) {
+            this(capacity, errorRate, new long[wordsFor(capacity, errorRate)]);
+        }
+
+        Layer(long capacity, double errorRate, long[] words) {
+            this.capacity = capacity;
+            this.errorRate = errorRate;
+            this.words = words;
+            this.bits = words.length * 64L;
+            this.hashes = (int) Math.max(1, Math.ceil(-Math.log(errorRate) / Math.log(2)));
+        }
+
+        static int wordsFor(long capacity, double errorRate) {
+            long wanted = (long) Math.ceil(-capacity * Math.log(errorRate) / LN2_SQUARED);
+            return (int) Math.max(1, (wanted + 63) / 64);
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+                if ((words[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        void add(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = Long.remainderUnsigned(h1 + i * h2, bits);
+                words[(int) (bit >>> 6)] |= 1L << bit;
+            }
+            items++;
+        }
+    }
+
+    private final List<Layer> layers = new ArrayList<>();
+    private final int expansion;
+
+    // expansion 0 makes the filter non-scaling
+    public BloomFilter(long capacity, double errorRate, int expansion) {
+        this.expansion = expansion;
+        layers.add(new Layer(capacity, errorRate));
+    }
+
+    private BloomFilter(int expansion) {
+        this.expansion = expansion;
+    }
+
+    // Whether a layer of this capacity and error rate fits in one long[], checked before allocating it
+    static boolean isValid(long capacity, double errorRate) {
+        if (capacity < 1 || !(errorRate > 0 && errorRate < 1)) return false;
+        return Math.ceil(-capacity * Math.log(errorRate) / LN2_SQUARED / 64) <= MAX_WORDS;
+    }
+
+    // Returns false if the item may already be present; throws IllegalStateException when a non-scaling filter is full
+    public synchronized boolean add(String item) {
+        long h1 = MurmurHash.hash64(item.getBytes(StandardCharsets.UTF_8), SEED);
+        long h2 = secondHash(h1);
+        for (Layer layer : layers) {
+            if (layer.mightContain(h1, h2)) return false;
+        }
+        Layer top = layers.get(layers.size() - 1);
+        if (top.items >= top.capacity) {
+            if (expansion == 0) throw new IllegalStateException("ERR non scaling filter is full");
+            if (!isValid(top.capacity * expansion, top.errorRate / 2)) throw new IllegalStateException("ERR filter is full");
+            top = new Layer(top.capacity * expansion, top.errorRate / 2);
+            layers.add(top);
+        }
+        top.add(h1, h2);
+        return true;
+    }
+
+    public synchronized boolean mightContain(String item) {
+        long h1 = MurmurHash.hash64(item.getBytes(StandardCharsets.UTF_8), SEED);
+        long h2 = secondHash(h1);
+        for (Layer layer : layers) {
+            if (layer.mightContain(h1, h2)) return true;
+        }
+        return false;
+    }
+
+    public synchronized long itemCount() {
+        long items = 0;
+        for (Layer layer : layers) items += layer.items;
+        return items;
+    }
+
+    public synchronized long sizeInBytes() {
+        long bytes = 0;
+        for (Layer layer : layers) bytes += layer.words.length * 8L;
+        return bytes;
+    }
+
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(expansion);
+        out.writeInt(layers.size());
+        for (Layer layer : layers) {
+            out.writeLong(layer.capacity);
+            out.writeDouble(layer.errorRate);
+            out.writeLong(layer.items);
+            out.writeInt(layer.words.length);
+            for (long word : layer.words) out.writeLong(word);
+        }
+    }
+
+    public static BloomFilter readFrom(DataInput in) throws IOException {
+        int expansion = in.readInt();
+        int layerCount = in.readInt();
+        if (expansion < 0) throw new IOException("Invalid Bloom filter expansion");
+        if (layerCount < 1) throw new IOException("Bloom filter without layers");
+        BloomFilter filter = new BloomFilter(expansion);
+        for (int i = 0; i < layerCount; i++) {
+            long capacity = in.readLong();
+            double errorRate = in.readDouble();
+            if (!isValid(capacity, errorRate)) throw new IOException("Invalid Bloom filter layer");
+            long items = in.readLong();
+            int wordCount = in.readInt();
+            if (items < 0 || wordCount != Layer.wordsFor(capacity, errorRate)) throw new IOException("Bloom filter layer size mismatch");
+            Layer layer = new Layer(capacity, errorRate, readWords(in, wordCount));
+            layer.items = items;
+            filter.layers.add(layer);
+        }
+        return filter;
+    }
+
+    // A chunk at a time, as KeyPersistenceService.readBytes does, so a corrupt capacity runs into the end
+    // of the input before the whole layer is allocated
+    private static long[] readWords(DataInput in, int count) throws IOException {
+        long[] words = new long[Math.min(count, READ_CHUNK_WORDS)];
+        int read = 0;
+        while (true) {
+            for (; read < words.length; read++) words[read] = in.readLong();
+            if (read == count) return words;
+            words = Arrays.copyOf(words, (int) Math.min(count, read * 2L));
+        }
+    }
+
+    // An odd step derived from the first hash, so the k probes of double hashing never repeat a stride of 0
+    private static long secondHash(long h1) {
+        long h = h1 ^ (h1 >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h | 1;
+    }
+}
@@ -3,6 +3,7 @@ import java.net.Socket;
 
 public class ClientHandler {
     private static final ServerRESPResponse serverRESPResponse = new ServerRESPResponse();
+    private static final String[] PROTOCOL_ERROR = new String[0];
     private final CommandExecutor commandExecutor;
 
     public ClientHandler(CommandExecutor commandExecutor) {
@@ -11,56 +12,30 @@ public class ClientHandler {
     }
 
     public void handleClient(Socket clientSocket) {
+        ServerStats.totalConnectionsReceived.increment();
+        ServerStats.connectedClients.incrementAndGet();
+        ClientSession session = new ClientSession();
+        session.connection = clientSocket;
+        commandExecutor.openSession(session);
         try (
                 InputStream inputStream = clientSocket.getInputStream();
-                OutputStream outputStream = clientSocket.getOutputStream();
+                OutputStream outputStream = new BufferedOutputStream(clientSocket.getOutputStream(), 16 * 1024);
                 BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))
         ) {
             while (!clientSocket.isClosed()) {
-                String arrayHeader = reader.readLine();
-                if (arrayHeader == null) break;
+                // Replies to a pipelined batch (e.g. MULTI ... EXEC) leave in one write once the input is drained
+                if (!reader.ready()) outputStream.flush();
+                String[] command = readCommand(reader, outputStream);
+                if (command == null) break;
+                if (command == PROTOCOL_ERROR) continue;
 
-
-                if (!arrayHeader.startsWith("*")) {
-                    serverRESPResponse.sendError(outputStream, "Protocol error: expected '*'");
-                    continue;
-                }
-
-                int numArgs;
-                try {
-                    numArgs = Integer.parseInt(arrayHeader.substring(1));
-                } catch (NumberFormatException e) {
-                    serverRESPResponse.sendError(outputStream, "Protocol error: invalid array size");
-                    continue;
-                }
-
-                String[] command = new String[numArgs];
-                for (int i = 0; i < numArgs; i++) {
-                    String bulkHeader = reader.readLine();
-                    if (bulkHeader == null || !bulkHeader.startsWith("$")) {
-                        serverRESPResponse.sendError(outputStream, "Protocol error: expected '$'");
-                        continue;
-                    }
-
-                    int strLen;
-                    try {
-                        strLen = Integer.parseInt(bulkHeader.substring(1));
-                    } catch (NumberFormatException e) {
-                        serverRESPResponse.sendError(outputStream, "Protocol error: invalid string length");
-                        continue;
-                    }
-
-                    char[] buffer = new char[strLen];
-                    reader.read(buffer, 0, strLen);
-                    command[i] = new String(buffer);
-                    reader.readLine(); // Consume CRLF
-                }
-
-                commandExecutor.executeCommand(command, outputStream);
+                commandExecutor.executeCommand(session, command, outputStream);
             }
         } catch (IOException e) {
             System.err.println("Error handling client: " + e.getMessage());
         } finally {
+            ServerStats.connectedClients.decrementAndGet();
+            commandExecutor.closeSession(session);
             try {
                 clientSocket.close();
             } catch (IOException e) {
@@ -68,4 +43,46 @@ public class ClientHandler {
             }
         }
     }
+
+    // Reads one RESP array request; returns null at end of stream and PROTOCOL_ERROR once an error reply was sent
+    String[] readCommand(BufferedReader reader, OutputStream outputStream) throws IOException {
+        String arrayHeader = reader.readLine();
+        if (arrayHeader == null) return null;
+
+        if (!arrayHeader.startsWith("*")) {
+            serverRESPResponse.sendError(outputStream, "Protocol error: expected '*'");
+            return PROTOCOL_ERROR;
+        }
+
+        int numArgs;
+        try {
+            numArgs = Integer.parseInt(arrayHeader.substring(1));
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "Protocol error: invalid array size");
+            return PROTOCOL_ERROR;
+        }
+
+        String[] command = new String[numArgs];
+        for (int i = 0; i < numArgs; i++) {
+            String bulkHeader = reader.readLine();
+            if (bulkHeader == null || !bulkHeader.startsWith("$")) {
+                serverRESPResponse.sendError(outputStream, "Protocol error: expected '$'");
+                continue;
+            }
+
+            int strLen;
+            try {
+                strLen = Integer.parseInt(bulkHeader.substring(1));
+            } catch (NumberFormatException e) {
+                serverRESPResponse.sendError(outputStream, "Protocol error: invalid string length");
+                continue;
+            }
+
+            char[] buffer = new char[strLen];
+            reader.read(buffer, 0, strLen);
+            command[i] = new String(buffer);
+            reader.readLine(); // Consume CRLF
+        }
+        return command;
+    }
 }
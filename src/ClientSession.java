@@ -0,0 +1,36 @@
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-connection state for commands whose behaviour depends on what the same client sent earlier.
+ */
+public class ClientSession {
+    private static final AtomicLong nextId = new AtomicLong();
+
+    // CLIENT ID, the target of another client's tracking REDIRECT
+    final long id = nextId.incrementAndGet();
+    // The client's socket, null for internal sessions (replication stream, benchmarks)
+    Closeable connection = null;
+    // Set by ASKING, consumed by the next command
+    boolean asking = false;
+    // Non-null between MULTI and EXEC/DISCARD
+    List<String[]> queuedCommands = null;
+    // A command was rejected while queuing, so EXEC must abort
+    boolean transactionFailed = false;
+    // Set while EXEC runs: its writes, replicated together once the batch is done
+    List<String[]> transactionWrites = null;
+    // Set by the write being run when it changed its keys; only then are events raised and readers invalidated
+    boolean keysModified = false;
+    // WATCHed keys and the version each had when it was watched
+    Map<String, Long> watchedKeys = null;
+    // Created by the first (P)SUBSCRIBE; from then on every reply goes through its queue
+    volatile PubSubSubscriber subscriber = null;
+    // CLIENT TRACKING; read by the threads of clients whose writes invalidate our keys
+    volatile boolean tracking = false;
+    volatile long trackingRedirect = 0;
+    volatile boolean trackingBroadcast = false;
+    volatile boolean trackingNoLoop = false;
+    List<String> trackingPrefixes = List.of();
+}
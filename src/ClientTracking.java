@@ -0,0 +1,153 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Server-assisted client-side caching (CLIENT TRACKING). In the default mode the server remembers which
+ * clients read which keys and sends each of them one invalidation the first time such a key changes, then
+ * forgets the key until it is read again. In broadcast mode clients register key prefixes instead and are
+ * told about every change under them. Invalidations go as __redis__:invalidate messages to the
+ * client's REDIRECT connection, which must be subscribed. The table of remembered keys is capped at
+ * tracking-table-max-keys; evicted keys are invalidated too, so a client cache never outlives its entry.
+ */
+public class ClientTracking {
+    static final String INVALIDATE_CHANNEL = "__redis__:invalidate";
+
+    private final Map<Long, ClientSession> clients = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> trackedKeys = new ConcurrentHashMap<>();
+    private final Map<String, Set<Long>> prefixes = new ConcurrentHashMap<>();
+
+    public void register(ClientSession session) {
+        clients.put(session.id, session);
+    }
+
+    public void unregister(ClientSession session) {
+        disable(session);
+        clients.remove(session.id);
+    }
+
+    // Returns an error message, or null once tracking is on
+    public String enable(ClientSession session, long redirect, boolean broadcast, List<String> keyPrefixes, boolean noLoop) {
+        if (redirect == 0 || !clients.containsKey(redirect)) {
+            return redirect == 0
+                    ? "ERR Tracking needs REDIRECT to a client subscribed to " + INVALIDATE_CHANNEL + " (RESP3 push replies are not supported)"
+                    : "ERR The client ID you want redirect to does not exist";
+        }
+        if (!broadcast && !keyPrefixes.isEmpty()) {
+            return "ERR PREFIX option requires BCAST mode to be enabled";
+        }
+        disable(session);
+        session.trackingRedirect = redirect;
+        session.trackingBroadcast = broadcast;
+        session.trackingNoLoop = noLoop;
+        session.trackingPrefixes = broadcast ? (keyPrefixes.isEmpty() ? List.of("") : keyPrefixes) : List.of();
+        for (String prefix : session.trackingPrefixes) {
+            prefixes.computeIfAbsent(prefix, k -> ConcurrentHashMap.newKeySet()).add(session.id);
+        }
+        session.tracking = true;
+        return null;
+    }
+
+    // Keys this client read stay in the table; invalidating them later skips clients that stopped tracking
+    public void disable(ClientSession session) {
+        if (!session.tracking) return;
+        session.tracking = false;
+        for (String prefix : session.trackingPrefixes) {
+            prefixes.computeIfPresent(prefix, (k, ids) -> {
+                ids.remove(session.id);
+                return ids.isEmpty() ? null : ids;
+            });
+        }
+        session.trackingPrefixes = List.of();
+    }
+
+    public void keyRead(ClientSession session, String key) {
+        if (!session.tracking || session.trackingBroadcast) return;
+        trackedKeys.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(session.id);
+        long maxKeys = ServerConfig.trackingTableMaxKeys;
+        if (maxKeys > 0 && trackedKeys.size() > maxKeys) {
+            evict(maxKeys);
+        }
+    }
+
+    public void keyModified(String key, ClientSession origin) {
+        if (!trackedKeys.isEmpty()) {
+            invalidateReaders(key, origin);
+        }
+        if (!prefixes.isEmpty()) {
+            byte[] message = null;
+            for (Map.Entry<String, Set<Long>> entry : prefixes.entrySet()) {
+                if (!key.startsWith(entry.getKey())) continue;
+                if (message == null) message = encodeInvalidation(key);
+                for (long id : entry.getValue()) send(id, message, origin);
+            }
+        }
+    }
+
+    // FLUSHALL, full resync: every tracking client drops its whole cache
+    public void allKeysModified() {
+        trackedKeys.clear();
+        byte[] message = encodeInvalidation(null);
+        for (ClientSession session : clients.values()) {
+            if (session.tracking) send(session.id, message, null);
+        }
+    }
+
+    public int trackedKeyCount() {
+        return trackedKeys.size();
+    }
+
+    public int prefixCount() {
+        return prefixes.size();
+    }
+
+    public int trackingClientCount() {
+        int count = 0;
+        for (ClientSession session : clients.values()) {
+            if (session.tracking) count++;
+        }
+        return count;
+    }
+
+    private void evict(long maxKeys) {
+        Iterator<String> keys = trackedKeys.keySet().iterator();
+        while (trackedKeys.size() > maxKeys && keys.hasNext()) {
+            invalidateReaders(keys.next(), null);
+        }
+    }
+
+    private void invalidateReaders(String key, ClientSession origin) {
+        Set<Long> readers = trackedKeys.remove(key);
+        if (readers != null) {
+            byte[] message = encodeInvalidation(key);
+            for (long id : readers) send(id, message, origin);
+        }
+    }
+
+    private void send(long id, byte[] message, ClientSession origin) {
+        ClientSession session = clients.get(id);
+        if (session == null || !session.tracking) return;
+        if (origin != null && origin.id == id && session.trackingNoLoop) return;
+        ClientSession target = clients.get(session.trackingRedirect);
+        PubSubSubscriber subscriber = target == null ? null : target.subscriber;
+        if (subscriber != null) subscriber.send(message);
+    }
+
+    // ["message", "__redis__:invalidate", [key]], a null array meaning "everything"
+    private static byte[] encodeInvalidation(String key) {
+        byte[] header = PubSub.encode("message", INVALIDATE_CHANNEL);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(header.length + 32);
+        out.writeBytes("*3".getBytes(StandardCharsets.US_ASCII));
+        out.write(header, 2, header.length - 2);
+        if (key == null) {
+            out.writeBytes("*-1\r\n".getBytes(StandardCharsets.US_ASCII));
+        } else {
+            out.writeBytes(PubSub.encode(key));
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes each command straight to the node owning its key's hash slot, using a slot map
+ * loaded with CLUSTER SLOTS and corrected on MOVED/ASK redirections.
+ */
+class ClusterRedisConnection implements RedisCommandConnection {
+    private static final int MAX_REDIRECTS = 5;
+    // Argument position of the key that picks the node. The client keeps its own table rather than the server's
+    // CommandTable; FCALL and XREAD, whose keys move, are handled in routingKey
+    private static final Map<String, Integer> KEY_POSITIONS = new HashMap<>();
+
+    static {
+        for (String command : List.of("SET", "GET", "DEL", "EXISTS", "INCR", "DECR", "LPUSH", "RPUSH", "DUMP",
+                "RESTORE", "UNLINK", "WATCH", "XADD", "XTRIM", "XLEN", "XRANGE", "XREVRANGE", "PFADD", "PFCOUNT",
+                "PFMERGE", "BF.RESERVE", "BF.ADD", "BF.EXISTS", "SETBIT", "GETBIT", "BITCOUNT", "BITPOS")) {
+            KEY_POSITIONS.put(command, 1);
+        }
+        KEY_POSITIONS.put("BITOP", 2);
+        KEY_POSITIONS.put("MIGRATE", 3);
+    }
+
+    // Replaced as a whole on each refresh so slots the cluster no longer serves don't keep their old owner
+    private String[] slotMap = new String[HashSlot.SLOT_COUNT];
+    private final Map<String, RedisConnection> connections = new HashMap<>();
+    private final String seedNode;
+
+    public ClusterRedisConnection(String host, int port) throws IOException {
+        this.seedNode = host + ":" + port;
+        refreshSlotMap();
+    }
+
+    @Override
+    public Object executeCommand(List<String> commandArgs) throws IOException {
+        String node = nodeFor(commandArgs);
+        boolean asking = false;
+        for (int redirects = 0; ; redirects++) {
+            RedisConnection connection = connectionTo(node);
+            if (asking) {
+                connection.executeCommand(List.of("ASKING"));
+            }
+            Object reply = connection.executeCommand(commandArgs);
+            if (!(reply instanceof String error) || redirects >= MAX_REDIRECTS) {
+                return reply;
+            }
+
+            if (error.startsWith("Error: MOVED ")) {
+                // The slot has a new permanent owner, which usually means the whole map is stale
+                String[] parts = error.split(" ");
+                slotMap[Integer.parseInt(parts[2])] = parts[3];
+                node = parts[3];
+                asking = false;
+                refreshSlotMap();
+            } else if (error.startsWith("Error: ASK ")) {
+                // Only this key has moved while the slot migrates; the map stays as it is
+                node = error.split(" ")[3];
+                asking = true;
+            } else {
+                return reply;
+            }
+        }
+    }
+
+    // Keyless and unknown commands go to the seed node
+    private String nodeFor(List<String> commandArgs) {
+        String key = routingKey(commandArgs);
+        if (key == null) {
+            return seedNode;
+        }
+        String owner = slotMap[HashSlot.keySlot(key)];
+        return owner != null ? owner : seedNode;
+    }
+
+    private static String routingKey(List<String> commandArgs) {
+        if (commandArgs.isEmpty()) {
+            return null;
+        }
+        String name = commandArgs.get(0).toUpperCase();
+        switch (name) {
+            case "FCALL", "FCALL_RO" -> {
+                // FCALL function numkeys key... arg...
+                try {
+                    return commandArgs.size() > 3 && Integer.parseInt(commandArgs.get(2)) > 0 ? commandArgs.get(3) : null;
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            case "XREAD" -> {
+                int streams = 1;
+                while (streams < commandArgs.size() && !commandArgs.get(streams).equalsIgnoreCase("STREAMS")) {
+                    streams++;
+                }
+                return streams + 1 < commandArgs.size() ? commandArgs.get(streams + 1) : null;
+            }
+            default -> {
+                Integer position = KEY_POSITIONS.get(name);
+                return position != null && position < commandArgs.size() ? commandArgs.get(position) : null;
+            }
+        }
+    }
+
+    private void refreshSlotMap() throws IOException {
+        Object reply = connectionTo(seedNode).executeCommand(List.of("CLUSTER", "SLOTS"));
+        if (!(reply instanceof Object[] ranges)) {
+            throw new IOException("Could not load the cluster slot map: " + reply);
+        }
+        String[] slots = new String[HashSlot.SLOT_COUNT];
+        for (Object item : ranges) {
+            Object[] range = (Object[]) item;
+            Object[] master = (Object[]) range[2];
+            String node = master[0] + ":" + master[1];
+            for (int slot = ((Long) range[0]).intValue(); slot <= ((Long) range[1]).intValue(); slot++) {
+                slots[slot] = node;
+            }
+        }
+        slotMap = slots;
+    }
+
+    private RedisConnection connectionTo(String node) throws IOException {
+        RedisConnection connection = connections.get(node);
+        if (connection == null) {
+            int separator = node.lastIndexOf(':');
+            connection = new RedisConnection(node.substring(0, separator), Integer.parseInt(node.substring(separator + 1)));
+            connections.put(node, connection);
+        }
+        return connection;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (RedisConnection connection : connections.values()) {
+            connection.close();
+        }
+        connections.clear();
+    }
+}
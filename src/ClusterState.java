@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Slot ownership for cluster mode. Nodes are identified by their announced "host:port";
+ * there is no gossip, so an operator (or script) applies the same CLUSTER SETSLOT to every node.
+ */
+public class ClusterState {
+    private final AtomicReferenceArray<String> slotOwners = new AtomicReferenceArray<>(HashSlot.SLOT_COUNT);
+    private final AtomicReferenceArray<String> migratingTo = new AtomicReferenceArray<>(HashSlot.SLOT_COUNT);
+    private final AtomicReferenceArray<String> importingFrom = new AtomicReferenceArray<>(HashSlot.SLOT_COUNT);
+
+    private volatile String myself;
+
+    // Resolved on first use because the port is only known once the startup arguments are applied
+    public String getMyself() {
+        if (myself == null) {
+            myself = ServerConfig.clusterAnnounceIp + ":" + ServerConfig.port;
+        }
+        return myself;
+    }
+
+    // Returns the error to send instead of executing, or null when this node should serve the keys.
+    // Lock-free so it can sit on the hot path; slot changes are rare admin operations.
+    public String checkRouting(List<String> keys, ClientSession session) {
+        if (keys.isEmpty()) {
+            return null;
+        }
+        int slot = HashSlot.keySlot(keys.get(0));
+        for (int i = 1; i < keys.size(); i++) {
+            if (HashSlot.keySlot(keys.get(i)) != slot) {
+                return "CROSSSLOT Keys in request don't hash to the same slot";
+            }
+        }
+
+        String owner = slotOwners.get(slot);
+        if (owner == null) {
+            return "CLUSTERDOWN Hash slot not served";
+        }
+        if (owner.equals(getMyself())) {
+            // Keys already moved away during a migration are served by the target, one command at a time
+            String target = migratingTo.get(slot);
+            if (target != null && !allKeysExist(keys)) {
+                return "ASK " + slot + " " + target;
+            }
+            return null;
+        }
+        if (importingFrom.get(slot) != null && session.asking) {
+            return null;
+        }
+        return "MOVED " + slot + " " + owner;
+    }
+
+    private static boolean allKeysExist(List<String> keys) {
+        for (String key : keys) {
+            if (!KeyspaceScan.exists(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized String addSlots(int[] slots) {
+        for (int slot : slots) {
+            if (slotOwners.get(slot) != null) {
+                return "ERR Slot " + slot + " is already busy";
+            }
+        }
+        for (int slot : slots) {
+            slotOwners.set(slot, getMyself());
+        }
+        return null;
+    }
+
+    public synchronized void delSlots(int[] slots) {
+        for (int slot : slots) {
+            slotOwners.set(slot, null);
+            migratingTo.set(slot, null);
+            importingFrom.set(slot, null);
+        }
+    }
+
+    public synchronized String setSlot(int slot, String action, String node) {
+        switch (action) {
+            case "MIGRATING" -> {
+                if (!getMyself().equals(slotOwners.get(slot))) {
+                    return "ERR I'm not the owner of hash slot " + slot;
+                }
+                migratingTo.set(slot, node);
+            }
+            case "IMPORTING" -> {
+                if (getMyself().equals(slotOwners.get(slot))) {
+                    return "ERR I'm already the owner of hash slot " + slot;
+                }
+                importingFrom.set(slot, node);
+            }
+            case "STABLE" -> {
+                migratingTo.set(slot, null);
+                importingFrom.set(slot, null);
+            }
+            case "NODE" -> {
+                slotOwners.set(slot, node);
+                migratingTo.set(slot, null);
+                importingFrom.set(slot, null);
+            }
+            default -> {
+                return "ERR Invalid CLUSTER SETSLOT action or number of arguments";
+            }
+        }
+        return null;
+    }
+
+    // Contiguous slot ranges with the same owner, as {start, end, owner}
+    public List<Object[]> slotRanges() {
+        List<Object[]> ranges = new ArrayList<>();
+        int start = 0;
+        while (start < HashSlot.SLOT_COUNT) {
+            String owner = slotOwners.get(start);
+            int end = start;
+            while (end + 1 < HashSlot.SLOT_COUNT && owner != null && owner.equals(slotOwners.get(end + 1))) {
+                end++;
+            }
+            if (owner != null) {
+                ranges.add(new Object[]{start, end, owner});
+            }
+            start = end + 1;
+        }
+        return ranges;
+    }
+
+    public Set<String> knownNodes() {
+        Set<String> nodes = new HashSet<>();
+        nodes.add(getMyself());
+        for (int slot = 0; slot < HashSlot.SLOT_COUNT; slot++) {
+            String owner = slotOwners.get(slot);
+            if (owner != null) nodes.add(owner);
+        }
+        return nodes;
+    }
+
+    public int countAssignedSlots() {
+        int count = 0;
+        for (int slot = 0; slot < HashSlot.SLOT_COUNT; slot++) {
+            if (slotOwners.get(slot) != null) count++;
+        }
+        return count;
+    }
+
+    // Walks the whole keyspace: there is no per-slot index, so this is an admin-only slow path
+    public static List<String> keysInSlot(int slot, int count) {
+        List<String> keys = new ArrayList<>();
+        for (Map<String, ?> store : KeyspaceScan.stores().values()) {
+            for (String key : store.keySet()) {
+                if (keys.size() >= count) return keys;
+                if (HashSlot.keySlot(key) == slot) keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -1,20 +1,119 @@
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public class CommandExecutor {
+    // Never queued by MULTI, they drive the transaction itself
+    private static final Set<String> TRANSACTION_COMMANDS = Set.of("MULTI", "EXEC", "DISCARD", "WATCH");
+    // Refused by MULTI: a snapshot waits for every key stripe, which EXEC would be holding
+    private static final Set<String> NOT_IN_TRANSACTION = Set.of("SUBSCRIBE", "PSUBSCRIBE", "SAVE", "PSYNC");
+    private static final int[] NO_STRIPES = new int[0];
+    private static final Set<String> SUBSCRIBED_COMMANDS =
+            Set.of("SUBSCRIBE", "UNSUBSCRIBE", "PSUBSCRIBE", "PUNSUBSCRIBE", "PING");
+    // Writes that lock, propagate and signal their effects themselves: MIGRATE leaves its key unlocked during the
+    // network round trip and sends replicas a DEL, not the MIGRATE
+    private static final Set<String> SELF_REPLICATING = Set.of("MIGRATE");
+    // Writes that rewrite their arguments in place for replicas (SET's expiry as PXAT, XADD's ID); SLOWLOG keeps
+    // what the client sent
+    private static final Set<String> REWRITTEN_FOR_REPLICAS = Set.of("SET", "XADD", "XTRIM");
+    private static final String WRONGTYPE = "WRONGTYPE Operation against a key holding the wrong kind of value";
+
     private final ExpiredKeyHandler expiredKeyHandler;
     private final ServerRESPResponse serverRESPResponse;
     private final KeyPersistenceService keyPersistenceService;
+    private final ReplicationService replicationService;
+    private final ClusterState clusterState;
+    private final ServerInfo serverInfo;
+    private final SlowLog slowLog = new SlowLog();
+    private final KeyspaceScan keyspaceScan = new KeyspaceScan();
+    // MULTI/EXEC from the master's stream is queued here, replicas have no client session of their own
+    private final ClientSession replicationSession = new ClientSession();
+    private final Map<String, ServerProcedure> procedures = new ConcurrentHashMap<>();
+    private final PubSub pubSub = new PubSub();
+    private final ClientTracking clientTracking = new ClientTracking();
+    private final KeyspaceEvents keyspaceEvents = new KeyspaceEvents(pubSub, clientTracking);
+    private final StreamWaiters streamWaiters = new StreamWaiters();
 
-    public CommandExecutor(ExpiredKeyHandler expiredKeyHandler, ServerRESPResponse serverRESPResponse, KeyPersistenceService keyPersistenceService) {
+    public CommandExecutor(ExpiredKeyHandler expiredKeyHandler, ServerRESPResponse serverRESPResponse, KeyPersistenceService keyPersistenceService,
+                           ReplicationService replicationService, ClusterState clusterState) {
         this.expiredKeyHandler = expiredKeyHandler;
         this.serverRESPResponse = serverRESPResponse;
         this.keyPersistenceService = keyPersistenceService;
+        this.replicationService = replicationService;
+        this.clusterState = clusterState;
+        this.serverInfo = new ServerInfo(replicationService, clusterState, pubSub, clientTracking, streamWaiters);
+        expiredKeyHandler.setKeyspaceEvents(keyspaceEvents);
+        expiredKeyHandler.setReplicationService(replicationService);
+        keyPersistenceService.setReplicationService(replicationService);
+        registerProcedure(new RateLimitProcedure());
+    }
+
+    // Makes a procedure callable with FCALL, replacing any procedure of the same name
+    public void registerProcedure(ServerProcedure procedure) {
+        procedures.put(procedure.getName(), procedure);
+    }
+
+
+    public void executeCommand(ClientSession session, String[] command, OutputStream outputStream) throws IOException {
+        PubSubSubscriber subscriber = session.subscriber;
+        if (subscriber == null) {
+            execute(session, command, outputStream, false);
+            return;
+        }
+        // Once subscribed, replies queue behind the pending messages so the client reads them in order
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        execute(session, command, reply, false);
+        subscriber.send(reply.toByteArray());
+        // The last (P)UNSUBSCRIBE hands the connection back to direct replies once the queue is written out
+        if (subscriber.subscriptionCount() == 0) {
+            session.subscriber = null;
+            subscriber.retire();
+        }
+    }
+
+    public void openSession(ClientSession session) {
+        clientTracking.register(session);
+    }
+
+    // Releases what a disconnected client held: watched keys, tracking and subscriptions
+    public void closeSession(ClientSession session) {
+        KeyVersions.unwatchAll(session);
+        clientTracking.unregister(session);
+        PubSubSubscriber subscriber = session.subscriber;
+        if (subscriber != null) {
+            pubSub.unsubscribeAll(subscriber);
+            subscriber.close();
+        }
+    }
+
+    // Applies a command from the master's replication stream; replies are discarded
+    public void executeReplicated(String[] command) throws IOException {
+        expiredKeyHandler.setApplyingReplicated(true);
+        try {
+            execute(replicationSession, command, OutputStream.nullOutputStream(), true);
+        } finally {
+            expiredKeyHandler.setApplyingReplicated(false);
+        }
     }
 
+    // A full resync replaced the dataset: a MULTI cut off by the old link must not survive it,
+    // and watchers and tracking clients must assume every key changed
+    void onFullResync() {
+        replicationSession.queuedCommands = null;
+        replicationSession.transactionFailed = false;
+        keyspaceEvents.allKeysModified();
+    }
 
-    public void executeCommand(String[] command, OutputStream outputStream) throws IOException {
+    private void execute(ClientSession session, String[] command, OutputStream outputStream, boolean fromMaster) throws IOException {
         expiredKeyHandler.probabilisticKeyExpiration();
         if (command.length == 0) {
             serverRESPResponse.sendError(outputStream, "ERR no command specified");
@@ -22,9 +121,479 @@ public class CommandExecutor {
         }
 
         String cmd = command[0].toUpperCase();
+        CommandInfo commandInfo = CommandTable.lookup(cmd);
+        if (session.subscriber != null && session.subscriber.subscriptionCount() > 0 && !SUBSCRIBED_COMMANDS.contains(cmd)) {
+            serverRESPResponse.sendError(outputStream, "ERR Can't execute '" + command[0].toLowerCase()
+                    + "': only (P)SUBSCRIBE / (P)UNSUBSCRIBE / PING are allowed in this context");
+            return;
+        }
+        boolean queuing = session.queuedCommands != null && !TRANSACTION_COMMANDS.contains(cmd);
+        if (queuing && commandInfo == null) {
+            reject(session, outputStream, "ERR unknown command '" + cmd + "'");
+            return;
+        }
+        if (queuing && NOT_IN_TRANSACTION.contains(cmd)) {
+            reject(session, outputStream, "ERR Command not allowed inside a transaction");
+            return;
+        }
+        boolean write = commandInfo != null && commandInfo.isWrite();
+        if (write && !fromMaster && replicationService.isReplica()) {
+            reject(session, outputStream, "READONLY You can't write against a read only replica.");
+            return;
+        }
+        if (ServerConfig.clusterEnabled && !fromMaster && commandInfo != null && commandInfo.hasKeys()) {
+            String redirect = clusterState.checkRouting(commandInfo.getKeys(command), session);
+            session.asking = false; // ASKING only covers the command right after it
+            if (redirect != null) {
+                reject(session, outputStream, redirect);
+                return;
+            }
+        } else {
+            session.asking = false;
+        }
+        if (queuing) {
+            session.queuedCommands.add(command);
+            serverRESPResponse.sendSimpleString(outputStream, "QUEUED");
+            return;
+        }
+        if (cmd.equals("EXEC")) {
+            long start = System.nanoTime();
+            try {
+                exec(session, outputStream);
+            } finally {
+                recordCall(commandInfo, command, System.nanoTime() - start);
+            }
+            return;
+        }
+        if (cmd.equals("XREAD")) {
+            long start = System.nanoTime();
+            try {
+                xread(session, commandInfo, command, outputStream);
+            } finally {
+                recordCall(commandInfo, command, System.nanoTime() - start);
+            }
+            return;
+        }
+        run(session, cmd, commandInfo, command, outputStream);
+    }
+
+    private void reject(ClientSession session, OutputStream outputStream, String error) throws IOException {
+        if (session.queuedCommands != null) session.transactionFailed = true;
+        serverRESPResponse.sendError(outputStream, error);
+    }
+
+    // Runs one command under its key locks; inside EXEC the locks are already held
+    private void run(ClientSession session, String cmd, CommandInfo commandInfo, String[] command, OutputStream outputStream) throws IOException {
+        boolean write = commandInfo != null && commandInfo.isWrite();
+        boolean selfReplicating = SELF_REPLICATING.contains(cmd);
+        int[] stripes = selfReplicating ? NO_STRIPES : lockStripes(commandInfo, command);
+        KeyLocks.lock(stripes);
+        long start = System.nanoTime();
+        boolean locked = write && !selfReplicating && replicationService.beginWrite();
+        // A plain SET key value has nothing to rewrite
+        String[] sent = command.length > 3 && REWRITTEN_FOR_REPLICAS.contains(cmd) ? command.clone() : command;
+        try {
+            session.keysModified = false;
+            dispatch(session, cmd, command, outputStream);
+            if (write && !selfReplicating) {
+                if (session.keysModified) signalModifiedKeys(session, cmd, commandInfo, command);
+                replicate(session, command);
+            } else if (session.tracking && commandInfo != null && commandInfo.hasKeys()) {
+                trackReadKeys(session, commandInfo, command);
+            }
+        } finally {
+            if (locked) replicationService.endWrite();
+            KeyLocks.unlock(stripes);
+            recordCall(commandInfo, sent, System.nanoTime() - start);
+        }
+    }
+
+    // Inside EXEC the command joins the transaction's MULTI/EXEC block, otherwise it is sent right away
+    private void replicate(ClientSession session, String[] command) {
+        if (session.transactionWrites != null) {
+            session.transactionWrites.add(command);
+        } else {
+            replicationService.propagate(command);
+        }
+    }
+
+    private static int[] lockStripes(CommandInfo commandInfo, String[] command) {
+        if (commandInfo == null) return NO_STRIPES;
+        if (commandInfo.hasKeys()) return KeyLocks.stripesOf(commandInfo, command);
+        // Keyless writes (FLUSHALL) touch every key
+        return commandInfo.isWrite() ? KeyLocks.ALL : NO_STRIPES;
+    }
+
+    // Every key a write that changed the keyspace names goes through KeyspaceEvents; keyless writes (FLUSHALL)
+    // touch them all. Writes that leave some of their keys alone (DEL, BITOP) signal those they changed themselves
+    private void signalModifiedKeys(ClientSession session, String cmd, CommandInfo commandInfo, String[] command) {
+        if (commandInfo.hasKeys()) {
+            String event = KeyspaceEvents.eventFor(cmd);
+            for (int i = commandInfo.firstKeyIndex(command), last = commandInfo.lastWrittenKeyIndex(command); i <= last; i += commandInfo.getKeyStep()) {
+                keyspaceEvents.keyModified(command[i], event, session);
+            }
+        } else {
+            keyspaceEvents.allKeysModified();
+        }
+    }
+
+    // Default-mode CLIENT TRACKING remembers the keys a client reads
+    private void trackReadKeys(ClientSession session, CommandInfo commandInfo, String[] command) {
+        for (int i = commandInfo.firstKeyIndex(command), last = commandInfo.lastKeyIndex(command); i <= last; i += commandInfo.getKeyStep()) {
+            clientTracking.keyRead(session, command[i]);
+        }
+    }
+
+    private void recordCall(CommandInfo commandInfo, String[] command, long durationNanos) {
+        ServerStats.totalCommandsProcessed.increment();
+        if (commandInfo != null) {
+            commandInfo.record(durationNanos);
+        }
+        slowLog.recordIfSlow(command, durationNanos / 1000);
+        LatencyMonitor.addSampleIfNeeded("command", durationNanos / 1_000_000);
+    }
+
+    private void handleSubscribe(ClientSession session, String[] command, OutputStream outputStream, boolean pattern) throws IOException {
+        if (command.length < 2) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for '" + command[0] + "' command");
+            return;
+        }
+        if (session.connection == null) {
+            serverRESPResponse.sendError(outputStream, "ERR This connection can't subscribe");
+            return;
+        }
+        PubSubSubscriber subscriber = session.subscriber;
+        if (subscriber == null) {
+            subscriber = new PubSubSubscriber(outputStream, session.connection);
+            session.subscriber = subscriber;
+        }
+        for (int i = 1; i < command.length; i++) {
+            String name = command[i];
+            boolean added = !(pattern ? subscriber.patterns : subscriber.channels).contains(name);
+            // Confirm before registering so no message can overtake the confirmation
+            subscriber.send(PubSub.encodeConfirmation(pattern ? "psubscribe" : "subscribe", name,
+                    subscriber.subscriptionCount() + (added ? 1 : 0)));
+            if (pattern) {
+                pubSub.psubscribe(subscriber, name);
+            } else {
+                pubSub.subscribe(subscriber, name);
+            }
+        }
+    }
+
+    // Without arguments every channel (or pattern) is dropped; a client with none still gets one reply
+    private void handleUnsubscribe(ClientSession session, String[] command, OutputStream outputStream, boolean pattern) throws IOException {
+        PubSubSubscriber subscriber = session.subscriber;
+        String kind = pattern ? "punsubscribe" : "unsubscribe";
+        List<String> names = new ArrayList<>();
+        if (command.length > 1) {
+            names.addAll(Arrays.asList(command).subList(1, command.length));
+        } else if (subscriber != null) {
+            names.addAll(pattern ? subscriber.patterns : subscriber.channels);
+        }
+        if (names.isEmpty()) {
+            int count = subscriber == null ? 0 : subscriber.subscriptionCount();
+            outputStream.write(PubSub.encodeConfirmation(kind, null, count));
+            return;
+        }
+        for (String name : names) {
+            int count = 0;
+            if (subscriber != null) {
+                if (pattern) {
+                    pubSub.punsubscribe(subscriber, name);
+                } else {
+                    pubSub.unsubscribe(subscriber, name);
+                }
+                count = subscriber.subscriptionCount();
+            }
+            outputStream.write(PubSub.encodeConfirmation(kind, name, count));
+        }
+    }
+
+    // CLIENT ID | GETREDIR | TRACKING on|off [REDIRECT id] [BCAST] [PREFIX prefix]... [NOLOOP]
+    private void handleClient(ClientSession session, String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        if (subcommand.equals("ID") && command.length == 2) {
+            serverRESPResponse.sendInteger(outputStream, session.id);
+        } else if (subcommand.equals("GETREDIR") && command.length == 2) {
+            serverRESPResponse.sendInteger(outputStream, session.tracking ? session.trackingRedirect : -1);
+        } else if (subcommand.equals("TRACKING") && command.length >= 3) {
+            if (command[2].equalsIgnoreCase("OFF")) {
+                clientTracking.disable(session);
+                serverRESPResponse.sendSimpleString(outputStream, "OK");
+                return;
+            }
+            if (!command[2].equalsIgnoreCase("ON")) {
+                serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                return;
+            }
+            long redirect = 0;
+            boolean broadcast = false;
+            boolean noLoop = false;
+            List<String> prefixes = new ArrayList<>();
+            try {
+                for (int i = 3; i < command.length; i++) {
+                    switch (command[i].toUpperCase()) {
+                        case "REDIRECT" -> redirect = Long.parseLong(command[++i]);
+                        case "BCAST" -> broadcast = true;
+                        case "PREFIX" -> prefixes.add(command[++i]);
+                        case "NOLOOP" -> noLoop = true;
+                        default -> {
+                            serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                            return;
+                        }
+                    }
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                return;
+            }
+            String error = clientTracking.enable(session, redirect, broadcast, prefixes, noLoop);
+            if (error != null) {
+                serverRESPResponse.sendError(outputStream, error);
+            } else {
+                serverRESPResponse.sendSimpleString(outputStream, "OK");
+            }
+        } else {
+            serverRESPResponse.sendError(outputStream, "ERR unknown subcommand or wrong number of arguments for 'CLIENT'");
+        }
+    }
+
+    // PUBSUB CHANNELS [pattern] | NUMSUB [channel...] | NUMPAT
+    private void handlePubSub(String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        if (subcommand.equals("CHANNELS") && command.length <= 3) {
+            List<String> channels = pubSub.activeChannels(command.length == 3 ? command[2] : null);
+            serverRESPResponse.sendArrayHeader(outputStream, channels.size());
+            for (String channel : channels) {
+                serverRESPResponse.sendBulkString(outputStream, channel);
+            }
+        } else if (subcommand.equals("NUMSUB")) {
+            serverRESPResponse.sendArrayHeader(outputStream, (command.length - 2) * 2);
+            for (int i = 2; i < command.length; i++) {
+                serverRESPResponse.sendBulkString(outputStream, command[i]);
+                serverRESPResponse.sendInteger(outputStream, pubSub.subscriberCount(command[i]));
+            }
+        } else if (subcommand.equals("NUMPAT") && command.length == 2) {
+            serverRESPResponse.sendInteger(outputStream, pubSub.patternCount());
+        } else {
+            serverRESPResponse.sendError(outputStream, "ERR unknown subcommand or wrong number of arguments for 'PUBSUB'");
+        }
+    }
+
+    // FCALL name numkeys key... arg...; run() already holds the stripes of the declared keys
+    private void handleFcall(ClientSession session, String[] command, OutputStream outputStream, boolean readOnly) throws IOException {
+        if (command.length < 3) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for '" + command[0] + "' command");
+            return;
+        }
+        ServerProcedure procedure = procedures.get(command[1]);
+        if (procedure == null) {
+            serverRESPResponse.sendError(outputStream, "ERR Function not found");
+            return;
+        }
+        int numKeys;
+        try {
+            numKeys = Integer.parseInt(command[2]);
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "ERR Bad number of keys provided");
+            return;
+        }
+        if (numKeys < 0 || numKeys > command.length - 3) {
+            serverRESPResponse.sendError(outputStream, "ERR Number of keys can't be greater than number of args");
+            return;
+        }
+        List<String> keys = Arrays.asList(command).subList(3, 3 + numKeys);
+        List<String> args = Arrays.asList(command).subList(3 + numKeys, command.length);
+
+        ProcedureContext context = new ProcedureContext(this, session, keys, readOnly);
+        boolean locked = !readOnly && replicationService.beginWrite();
+        try {
+            sendProcedureReply(outputStream, procedure.call(context, keys, args));
+        } catch (ProcedureException e) {
+            serverRESPResponse.sendError(outputStream, e.getMessage());
+        } catch (RuntimeException e) {
+            serverRESPResponse.sendError(outputStream, "ERR Error running procedure '" + procedure.getName() + "': " + e);
+        } finally {
+            // Writes already made stay, as with a failing EXEC command, so they are replicated either way
+            List<String[]> writes = context.getWrites();
+            if (session.transactionWrites != null) {
+                session.transactionWrites.addAll(writes);
+            } else {
+                replicationService.propagateTransaction(writes);
+            }
+            if (locked) replicationService.endWrite();
+        }
+    }
+
+    // ProcedureContext.call: one command restricted to the procedure's declared, already locked keys
+    byte[] callFromProcedure(ProcedureContext context, String[] command) throws ProcedureException {
+        String cmd = command[0].toUpperCase();
+        CommandInfo commandInfo = CommandTable.lookup(cmd);
+        if (commandInfo == null || !commandInfo.hasKeys() || TRANSACTION_COMMANDS.contains(cmd) || cmd.startsWith("FCALL")
+                || SELF_REPLICATING.contains(cmd)) {
+            throw new ProcedureException("ERR This command is not allowed from procedures");
+        }
+        for (String key : commandInfo.getKeys(command)) {
+            if (!context.isDeclaredKey(key)) {
+                throw new ProcedureException("ERR Procedure accessed a key that was not declared: '" + key + "'");
+            }
+        }
+        if (commandInfo.isWrite()) {
+            if (context.isReadOnly()) {
+                throw new ProcedureException("ERR Write commands are not allowed from read-only procedures");
+            }
+            if (replicationService.isReplica()) {
+                throw new ProcedureException("READONLY You can't write against a read only replica.");
+            }
+        }
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        context.getSession().keysModified = false;
+        try {
+            dispatch(context.getSession(), cmd, command, reply);
+        } catch (IOException e) {
+            throw new ProcedureException("ERR " + e.getMessage());
+        }
+        if (commandInfo.isWrite()) {
+            if (context.getSession().keysModified) signalModifiedKeys(context.getSession(), cmd, commandInfo, command);
+            context.recordWrite(command);
+        }
+        return reply.toByteArray();
+    }
+
+    private void sendProcedureReply(OutputStream outputStream, Object value) throws IOException {
+        if (value == null) {
+            serverRESPResponse.sendNullBulkString(outputStream);
+        } else if (value instanceof Number number) {
+            serverRESPResponse.sendInteger(outputStream, number.longValue());
+        } else if (value instanceof Boolean bool) {
+            serverRESPResponse.sendInteger(outputStream, bool ? 1 : 0);
+        } else if (value instanceof List<?> list) {
+            serverRESPResponse.sendArrayHeader(outputStream, list.size());
+            for (Object element : list) {
+                sendProcedureReply(outputStream, element);
+            }
+        } else {
+            serverRESPResponse.sendBulkString(outputStream, value.toString());
+        }
+    }
+
+    // FUNCTION LOAD [REPLACE] class-name | LIST | DELETE name
+    private void handleFunction(String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        switch (subcommand) {
+            case "LOAD" -> {
+                boolean replace = command.length == 4 && command[2].equalsIgnoreCase("REPLACE");
+                if (command.length != 3 && !replace) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'FUNCTION LOAD' command");
+                    return;
+                }
+                ServerProcedure procedure;
+                try {
+                    // Loaded without initializing, so no code of a class that is not a procedure ever runs
+                    Class<?> type = Class.forName(command[command.length - 1], false, ServerProcedure.class.getClassLoader());
+                    if (!ServerProcedure.class.isAssignableFrom(type)) {
+                        serverRESPResponse.sendError(outputStream, "ERR " + command[command.length - 1] + " does not implement ServerProcedure");
+                        return;
+                    }
+                    procedure = type.asSubclass(ServerProcedure.class).getDeclaredConstructor().newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    serverRESPResponse.sendError(outputStream, "ERR Cannot load procedure class: " + e);
+                    return;
+                }
+                if (!replace && procedures.putIfAbsent(procedure.getName(), procedure) != null) {
+                    serverRESPResponse.sendError(outputStream, "ERR Function '" + procedure.getName() + "' already exists");
+                    return;
+                }
+                if (replace) registerProcedure(procedure);
+                System.out.println("Loaded procedure " + procedure.getName() + " from " + procedure.getClass().getName());
+                serverRESPResponse.sendBulkString(outputStream, procedure.getName());
+            }
+            case "LIST" -> {
+                List<String> names = new ArrayList<>(procedures.keySet());
+                serverRESPResponse.sendArrayHeader(outputStream, names.size());
+                for (String name : names) {
+                    serverRESPResponse.sendBulkString(outputStream, name);
+                }
+            }
+            case "DELETE" -> {
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'FUNCTION DELETE' command");
+                } else if (procedures.remove(command[2]) == null) {
+                    serverRESPResponse.sendError(outputStream, "ERR Function not found");
+                } else {
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+            }
+            default -> serverRESPResponse.sendError(outputStream, "ERR unknown subcommand or wrong number of arguments for 'FUNCTION'");
+        }
+    }
+
+    // Locks every stripe the transaction and its watched keys touch, checks the WATCH versions and runs the
+    // queued commands back to back, so other clients see either none or all of the transaction
+    private void exec(ClientSession session, OutputStream outputStream) throws IOException {
+        List<String[]> queued = session.queuedCommands;
+        if (queued == null) {
+            serverRESPResponse.sendError(outputStream, "ERR EXEC without MULTI");
+            return;
+        }
+        session.queuedCommands = null;
+        if (session.transactionFailed) {
+            session.transactionFailed = false;
+            KeyVersions.unwatchAll(session);
+            serverRESPResponse.sendError(outputStream, "EXECABORT Transaction discarded because of previous errors.");
+            return;
+        }
+
+        Set<String> keys = new HashSet<>();
+        if (session.watchedKeys != null) keys.addAll(session.watchedKeys.keySet());
+        boolean write = false;
+        boolean allKeys = false;
+        for (String[] command : queued) {
+            CommandInfo commandInfo = CommandTable.lookup(command[0].toUpperCase());
+            write |= commandInfo.isWrite();
+            if (commandInfo.hasKeys()) {
+                keys.addAll(commandInfo.getKeys(command));
+            } else if (commandInfo.isWrite()) {
+                allKeys = true;
+            }
+        }
+        int[] stripes = allKeys ? KeyLocks.ALL : KeyLocks.stripesOf(keys);
+        KeyLocks.lock(stripes);
+        boolean locked = write && replicationService.beginWrite();
+        try {
+            if (session.watchedKeys != null) {
+                for (String key : session.watchedKeys.keySet()) {
+                    if (expiredKeyHandler.isKeyExpired(key)) expiredKeyHandler.removeExpiredKey(key);
+                }
+            }
+            if (!KeyVersions.isUnchanged(session)) {
+                serverRESPResponse.sendNullArray(outputStream);
+                return;
+            }
+            session.transactionWrites = new ArrayList<>();
+            serverRESPResponse.sendArrayHeader(outputStream, queued.size());
+            for (String[] command : queued) {
+                String cmd = command[0].toUpperCase();
+                run(session, cmd, CommandTable.lookup(cmd), command, outputStream);
+            }
+            replicationService.propagateTransaction(session.transactionWrites);
+        } finally {
+            session.transactionWrites = null;
+            if (locked) replicationService.endWrite();
+            KeyLocks.unlock(stripes);
+            KeyVersions.unwatchAll(session);
+        }
+    }
+
+    private void dispatch(ClientSession session, String cmd, String[] command, OutputStream outputStream) throws IOException {
         switch (cmd) {
             case "PING":
-                serverRESPResponse.sendSimpleString(outputStream, "PONG");
+                if (session.subscriber != null && session.subscriber.subscriptionCount() > 0) {
+                    outputStream.write(PubSub.encode("pong", command.length > 1 ? command[1] : ""));
+                } else {
+                    serverRESPResponse.sendSimpleString(outputStream, "PONG");
+                }
                 break;
 
             case "ECHO":
@@ -39,20 +608,24 @@ public class CommandExecutor {
                 if (command.length < 3) {
                     serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'SET' command");
                 } else {
-                    RedisServer.numberOfKeysChanged++;
-                    RedisServer.dataStore.put(command[1], command[2]);
+                    long expiryTime = 0;
                     if (command.length >= 5) {
-                        String option = command[3].toUpperCase();
-                        try {
-                            long expiry = Long.parseLong(command[4]);
-                            if (option.contains("EX") || option.contains("EAXT")) {
-                                RedisServer.keyExpiryTimes.put(command[1], System.currentTimeMillis() + (expiry * 1000));
-                            }else {
-                                RedisServer.keyExpiryTimes.put(command[1], System.currentTimeMillis() + expiry);
-                            }
-                        } catch (NumberFormatException e) {
-                            throw new RuntimeException(e);
+                        expiryTime = parseExpiryTime(command[3].toUpperCase(), command[4]);
+                        if (expiryTime <= 0) {
+                            serverRESPResponse.sendError(outputStream, expiryTime == 0 ? "ERR syntax error" : "ERR invalid expire time in 'set' command");
+                            break;
                         }
+                        // Replicas get the deadline itself, so theirs cannot drift from ours by the link's delay
+                        command[3] = "PXAT";
+                        command[4] = String.valueOf(expiryTime);
+                    }
+                    RedisServer.numberOfKeysChanged++;
+                    session.keysModified = true;
+                    // Whatever the key held before, including its TTL, is replaced
+                    LazyFreeService.unlink(command[1]);
+                    RedisServer.dataStore.put(command[1], command[2]);
+                    if (expiryTime > 0) {
+                        RedisServer.keyExpiryTimes.put(command[1], expiryTime);
                     }
                     serverRESPResponse.sendSimpleString(outputStream, "OK");
                 }
@@ -66,11 +639,23 @@ public class CommandExecutor {
                     if (expiredKeyHandler.isKeyExpired(key)) {
                         expiredKeyHandler.removeExpiredKey(key);
                         serverRESPResponse.sendNullBulkString(outputStream);
+                    } else if (RedisServer.hyperLogLogDataStore.containsKey(key)) {
+                        // A HyperLogLog is a string to clients, as in Redis, so GET returns its encoding
+                        ServerStats.keyspaceHits.increment();
+                        serverRESPResponse.sendBulkString(outputStream, RedisServer.hyperLogLogDataStore.get(key).toBytes());
+                    } else if (holdsOtherType(key, "string")) {
+                        serverRESPResponse.sendError(outputStream, WRONGTYPE);
                     } else {
                         String value = RedisServer.dataStore.get(key);
+                        RedisBitmap bitmap = value == null ? RedisServer.bitmapDataStore.get(key) : null;
                         if (value != null) {
+                            ServerStats.keyspaceHits.increment();
                             serverRESPResponse.sendBulkString(outputStream, value);
+                        } else if (bitmap != null) {
+                            ServerStats.keyspaceHits.increment();
+                            serverRESPResponse.sendBulkString(outputStream, bitmap.toBytes());
                         } else {
+                            ServerStats.keyspaceMisses.increment();
                             serverRESPResponse.sendNullBulkString(outputStream);
                         }
                     }
@@ -86,8 +671,30 @@ public class CommandExecutor {
                         String key = command[i];
                         if (expiredKeyHandler.isKeyExpired(key)) {
                             expiredKeyHandler.removeExpiredKey(key);
-                        } else if (RedisServer.dataStore.remove(key) != null) {
+                        } else if (RedisServer.dataStore.remove(key) != null | RedisServer.listDataStore.remove(key) != null
+                                | RedisServer.streamDataStore.remove(key) != null | RedisServer.hyperLogLogDataStore.remove(key) != null
+                                | RedisServer.bloomFilterDataStore.remove(key) != null | RedisServer.bitmapDataStore.remove(key) != null) {
+                            RedisServer.keyExpiryTimes.remove(key);
+                            RedisServer.numberOfKeysChanged++;
+                            keyspaceEvents.keyModified(key, "del", session);
+                            count++;
+                        }
+                    }
+                    serverRESPResponse.sendInteger(outputStream, count);
+                }
+                break;
+
+            case "UNLINK":
+                if (command.length < 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'UNLINK' command");
+                } else {
+                    int count = 0;
+                    for (int i = 1; i < command.length; i++) {
+                        String key = command[i];
+                        boolean expired = expiredKeyHandler.isKeyExpired(key);
+                        if (LazyFreeService.unlink(key) && !expired) {
                             RedisServer.numberOfKeysChanged++;
+                            keyspaceEvents.keyModified(key, "del", session);
                             count++;
                         }
                     }
@@ -95,6 +702,19 @@ public class CommandExecutor {
                 }
                 break;
 
+            case "FLUSHALL":
+            case "FLUSHDB":
+                if (command.length > 2 || (command.length == 2
+                        && !command[1].equalsIgnoreCase("ASYNC") && !command[1].equalsIgnoreCase("SYNC"))) {
+                    serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                } else {
+                    RedisServer.numberOfKeysChanged += KeyspaceScan.size();
+                    session.keysModified = true;
+                    LazyFreeService.flushKeyspace(command.length == 2 && command[1].equalsIgnoreCase("ASYNC"));
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+                break;
+
             case "EXISTS":
                 if (command.length < 2) {
                     serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'EXISTS' command");
@@ -104,7 +724,7 @@ public class CommandExecutor {
                         String key = command[i];
                         if (expiredKeyHandler.isKeyExpired(key)) {
                             expiredKeyHandler.removeExpiredKey(key);
-                        } else if (RedisServer.dataStore.containsKey(key)) {
+                        } else if (KeyspaceScan.exists(key)) {
                             count++;
                         }
                     }
@@ -115,21 +735,27 @@ public class CommandExecutor {
             case "INCR":
                 if (command.length < 2) {
                     serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'INCR' command");
+                }else if (holdsOtherType(command[1], "string")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
                 }else{
                     RedisServer.numberOfKeysChanged++;
+                    session.keysModified = true;
                     String key = command[1];
                     if (expiredKeyHandler.isKeyExpired(key)) {
                         expiredKeyHandler.removeExpiredKey(key);
                         RedisServer.dataStore.put(key,"1");
                         serverRESPResponse.sendInteger(outputStream, 1);
-                    }else if(RedisServer.dataStore.containsKey(key)){
-                        String val =  RedisServer.dataStore.get(key);
+                    }else if(RedisServer.dataStore.containsKey(key) || RedisServer.bitmapDataStore.containsKey(key)){
+                        String val = stringValueOf(key);
                         if (isWholeStringInteger(val)){
                             int newVal = Integer.parseInt(val) + 1;
+                            // A SETBIT value turns back into a plain string
+                            RedisServer.bitmapDataStore.remove(key);
                             RedisServer.dataStore.put(key,String.valueOf(newVal));
                             serverRESPResponse.sendInteger(outputStream, newVal);
                         }else{
                             RedisServer.numberOfKeysChanged--;
+                            session.keysModified = false;
                             serverRESPResponse.sendError(outputStream, "(error) ERR value is not an integer or out of range");
                         }
 
@@ -144,21 +770,27 @@ public class CommandExecutor {
             case "DECR":
                 if (command.length < 2) {
                     serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'DECR' command");
+                }else if (holdsOtherType(command[1], "string")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
                 }else{
                     RedisServer.numberOfKeysChanged++;
+                    session.keysModified = true;
                     String key = command[1];
                     if (expiredKeyHandler.isKeyExpired(key)) {
                         expiredKeyHandler.removeExpiredKey(key);
                         RedisServer.dataStore.put(key,"0");
                         serverRESPResponse.sendInteger(outputStream, 0);
-                    }else if(RedisServer.dataStore.containsKey(key)){
-                        String val =  RedisServer.dataStore.get(key);
+                    }else if(RedisServer.dataStore.containsKey(key) || RedisServer.bitmapDataStore.containsKey(key)){
+                        String val = stringValueOf(key);
                         if (isWholeStringInteger(val)){
                             int newVal = Integer.parseInt(val) - 1;
+                            // A SETBIT value turns back into a plain string
+                            RedisServer.bitmapDataStore.remove(key);
                             RedisServer.dataStore.put(key,String.valueOf(newVal));
                             serverRESPResponse.sendInteger(outputStream, newVal);
                         }else{
                             RedisServer.numberOfKeysChanged--;
+                            session.keysModified = false;
                             serverRESPResponse.sendError(outputStream, "(error) ERR value is not an integer or out of range");
                         }
 
@@ -173,8 +805,11 @@ public class CommandExecutor {
             case "LPUSH":
                 if (command.length < 3) {
                     serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'LPUSH' command");
+                }else if (holdsOtherType(command[1], "list")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
                 }else{
                     RedisServer.numberOfKeysChanged++;
+                    session.keysModified = true;
                     String key = command[1];
                     int count;
                     if(RedisServer.listDataStore.containsKey(key)){
@@ -199,8 +834,11 @@ public class CommandExecutor {
             case "RPUSH":
                 if (command.length < 3) {
                     serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'RPUSH' command");
+                }else if (holdsOtherType(command[1], "list")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
                 }else{
                     RedisServer.numberOfKeysChanged++;
+                    session.keysModified = true;
                     String key = command[1];
                     int count;
                     if(RedisServer.listDataStore.containsKey(key)){
@@ -260,9 +898,1340 @@ public class CommandExecutor {
                 }
                 break;
 
-            default:
-                serverRESPResponse.sendError(outputStream, "ERR unknown command '" + cmd + "'");
+            case "INFO":
+                if (command.length > 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                } else {
+                    String section = command.length == 2 ? command[1].toLowerCase() : null;
+                    serverRESPResponse.sendBulkString(outputStream, serverInfo.generate(section));
+                }
+                break;
+
+            case "CONFIG":
+                handleConfig(command, outputStream);
+                break;
+
+            case "SLOWLOG":
+                handleSlowLog(command, outputStream);
+                break;
+
+            case "LATENCY":
+                handleLatency(command, outputStream);
+                break;
+
+            case "REPLICAOF":
+            case "SLAVEOF":
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for '" + cmd + "' command");
+                } else if (command[1].equalsIgnoreCase("NO") && command[2].equalsIgnoreCase("ONE")) {
+                    replicationService.becomeMaster();
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                } else {
+                    try {
+                        replicationService.replicaOf(command[1], Integer.parseInt(command[2]), this);
+                        serverRESPResponse.sendSimpleString(outputStream, "OK");
+                    } catch (NumberFormatException e) {
+                        serverRESPResponse.sendError(outputStream, "ERR Invalid master port");
+                    }
+                }
+                break;
+
+            case "PSYNC":
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'PSYNC' command");
+                } else {
+                    try {
+                        replicationService.handlePsync(command[1], Long.parseLong(command[2]), outputStream);
+                    } catch (NumberFormatException e) {
+                        serverRESPResponse.sendError(outputStream, "ERR invalid replication offset");
+                    }
+                }
+                break;
+
+            case "REPLCONF":
+                if (command.length == 3 && command[1].equalsIgnoreCase("ACK")) {
+                    // Acknowledgements are never answered, the link is a one-way stream from here on
+                    try {
+                        replicationService.acknowledge(outputStream, Long.parseLong(command[2]));
+                    } catch (NumberFormatException e) {
+                        System.err.println("Invalid REPLCONF ACK offset: " + command[2]);
+                    }
+                } else if (command.length % 2 == 1) {
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                } else {
+                    serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                }
+                break;
+
+            case "CLUSTER":
+                if (!ServerConfig.clusterEnabled) {
+                    serverRESPResponse.sendError(outputStream, "ERR This instance has cluster support disabled");
+                } else {
+                    handleCluster(command, outputStream);
+                }
+                break;
+
+            case "ASKING":
+                if (!ServerConfig.clusterEnabled) {
+                    serverRESPResponse.sendError(outputStream, "ERR This instance has cluster support disabled");
+                } else {
+                    session.asking = true;
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+                break;
+
+            case "DUMP":
+                if (command.length != 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'DUMP' command");
+                } else {
+                    String payload = KeyMigration.dump(command[1]);
+                    if (payload == null) {
+                        serverRESPResponse.sendNullBulkString(outputStream);
+                    } else {
+                        serverRESPResponse.sendBulkString(outputStream, payload);
+                    }
+                }
+                break;
+
+            case "RESTORE":
+                if (command.length < 4 || command.length > 5
+                        || (command.length == 5 && !command[4].equalsIgnoreCase("REPLACE"))) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'RESTORE' command");
+                } else {
+                    try {
+                        String error = KeyMigration.restore(command[1], Long.parseLong(command[2]), command[3], command.length == 5);
+                        if (error != null) {
+                            serverRESPResponse.sendError(outputStream, error);
+                        } else {
+                            session.keysModified = true;
+                            serverRESPResponse.sendSimpleString(outputStream, "OK");
+                        }
+                    } catch (NumberFormatException e) {
+                        serverRESPResponse.sendError(outputStream, "ERR Invalid TTL value, must be >= 0");
+                    }
+                }
+                break;
+
+            case "MIGRATE":
+                handleMigrate(session, command, outputStream);
+                break;
+
+            case "SCAN":
+                handleScan(command, outputStream);
+                break;
+
+            case "KEYS":
+                if (command.length != 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'KEYS' command");
+                } else {
+                    List<String> keys = KeyspaceScan.keys(command[1]);
+                    serverRESPResponse.sendArrayHeader(outputStream, keys.size());
+                    for (String key : keys) {
+                        serverRESPResponse.sendBulkString(outputStream, key);
+                    }
+                }
+                break;
+
+            case "MULTI":
+                if (session.queuedCommands != null) {
+                    serverRESPResponse.sendError(outputStream, "ERR MULTI calls can not be nested");
+                } else {
+                    session.queuedCommands = new ArrayList<>();
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+                break;
+
+            case "DISCARD":
+                if (session.queuedCommands == null) {
+                    serverRESPResponse.sendError(outputStream, "ERR DISCARD without MULTI");
+                } else {
+                    session.queuedCommands = null;
+                    session.transactionFailed = false;
+                    KeyVersions.unwatchAll(session);
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+                break;
+
+            case "WATCH":
+                if (command.length < 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'WATCH' command");
+                } else if (session.queuedCommands != null) {
+                    serverRESPResponse.sendError(outputStream, "ERR WATCH inside MULTI is not allowed");
+                } else {
+                    for (int i = 1; i < command.length; i++) {
+                        if (expiredKeyHandler.isKeyExpired(command[i])) expiredKeyHandler.removeExpiredKey(command[i]);
+                        KeyVersions.watch(session, command[i]);
+                    }
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+                break;
+
+            case "UNWATCH":
+                KeyVersions.unwatchAll(session);
+                serverRESPResponse.sendSimpleString(outputStream, "OK");
+                break;
+
+            case "FCALL":
+            case "FCALL_RO":
+                handleFcall(session, command, outputStream, cmd.equals("FCALL_RO"));
+                break;
+
+            case "FUNCTION":
+                handleFunction(command, outputStream);
+                break;
+
+            case "SUBSCRIBE":
+            case "PSUBSCRIBE":
+                handleSubscribe(session, command, outputStream, cmd.equals("PSUBSCRIBE"));
+                break;
+
+            case "UNSUBSCRIBE":
+            case "PUNSUBSCRIBE":
+                handleUnsubscribe(session, command, outputStream, cmd.equals("PUNSUBSCRIBE"));
+                break;
+
+            case "PUBLISH":
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'PUBLISH' command");
+                } else {
+                    serverRESPResponse.sendInteger(outputStream, pubSub.publish(command[1], command[2]));
+                    // Replicas deliver it to their own subscribers; it changes no key, so snapshots need not wait for it
+                    replicate(session, command);
+                }
+                break;
+
+            case "PUBSUB":
+                handlePubSub(command, outputStream);
+                break;
+
+            case "CLIENT":
+                handleClient(session, command, outputStream);
+                break;
+
+            case "XADD":
+                session.keysModified = handleXadd(command, outputStream);
+                break;
+
+            case "XTRIM":
+                session.keysModified = handleXtrim(command, outputStream);
+                break;
+
+            case "XLEN":
+                if (command.length != 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'XLEN' command");
+                } else if (holdsOtherType(command[1], "stream")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                } else {
+                    RedisStream stream = lookup(RedisServer.streamDataStore, command[1]);
+                    serverRESPResponse.sendInteger(outputStream, stream == null ? 0 : stream.length());
+                }
+                break;
+
+            case "XRANGE":
+            case "XREVRANGE":
+                handleXrange(command, outputStream, cmd.equals("XREVRANGE"));
+                break;
+
+            case "XREAD":
+                handleXread(command, outputStream);
+                break;
+
+            case "PFADD":
+                if (command.length < 2) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'PFADD' command");
+                } else if (holdsOtherType(command[1], "hyperloglog")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                } else {
+                    HyperLogLog hyperLogLog = lookup(RedisServer.hyperLogLogDataStore, command[1]);
+                    boolean changed = hyperLogLog == null;
+                    if (hyperLogLog == null) {
+                        hyperLogLog = new HyperLogLog();
+                        RedisServer.hyperLogLogDataStore.put(command[1], hyperLogLog);
+                    }
+                    for (int i = 2; i < command.length; i++) {
+                        changed |= hyperLogLog.add(command[i]);
+                    }
+                    if (changed) RedisServer.numberOfKeysChanged++;
+                    session.keysModified = changed;
+                    serverRESPResponse.sendInteger(outputStream, changed ? 1 : 0);
+                }
+                break;
+
+            case "PFCOUNT":
+                handlePfcount(command, outputStream);
+                break;
+
+            case "PFMERGE":
+                session.keysModified = handlePfmerge(command, outputStream);
+                break;
+
+            case "BF.RESERVE":
+                session.keysModified = handleBloomReserve(command, outputStream);
+                break;
+
+            case "BF.ADD":
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'BF.ADD' command");
+                } else if (holdsOtherType(command[1], "bloom")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                } else {
+                    BloomFilter bloomFilter = lookup(RedisServer.bloomFilterDataStore, command[1]);
+                    if (bloomFilter == null) {
+                        bloomFilter = new BloomFilter(BloomFilter.DEFAULT_CAPACITY, BloomFilter.DEFAULT_ERROR_RATE, BloomFilter.DEFAULT_EXPANSION);
+                        RedisServer.bloomFilterDataStore.put(command[1], bloomFilter);
+                    }
+                    try {
+                        boolean added = bloomFilter.add(command[2]);
+                        if (added) RedisServer.numberOfKeysChanged++;
+                        session.keysModified = added;
+                        serverRESPResponse.sendInteger(outputStream, added ? 1 : 0);
+                    } catch (IllegalStateException e) {
+                        serverRESPResponse.sendError(outputStream, e.getMessage());
+                    }
+                }
+                break;
+
+            case "BF.EXISTS":
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'BF.EXISTS' command");
+                } else if (holdsOtherType(command[1], "bloom")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                } else {
+                    BloomFilter bloomFilter = lookup(RedisServer.bloomFilterDataStore, command[1]);
+                    serverRESPResponse.sendInteger(outputStream, bloomFilter != null && bloomFilter.mightContain(command[2]) ? 1 : 0);
+                }
+                break;
+
+            case "SETBIT":
+                session.keysModified = handleSetbit(command, outputStream);
+                break;
+
+            case "GETBIT":
+                if (command.length != 3) {
+                    serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'GETBIT' command");
+                } else if (holdsOtherType(command[1], "string")) {
+                    serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                } else {
+                    long offset = parseBitOffset(command[2]);
+                    if (offset < 0) {
+                        serverRESPResponse.sendError(outputStream, "ERR bit offset is not an integer or out of range");
+                    } else {
+                        RedisBitmap bitmap = bitmapOf(command[1]);
+                        serverRESPResponse.sendInteger(outputStream, bitmap == null ? 0 : bitmap.getBit(offset));
+                    }
+                }
+                break;
+
+            case "BITCOUNT":
+                handleBitcount(command, outputStream);
+                break;
+
+            case "BITPOS":
+                handleBitpos(command, outputStream);
+                break;
+
+            case "BITOP":
+                session.keysModified = handleBitop(session, command, outputStream);
+                break;
+
+            case "DBSIZE":
+                serverRESPResponse.sendInteger(outputStream, KeyspaceScan.size());
+                break;
+
+            default:
+                serverRESPResponse.sendError(outputStream, "ERR unknown command '" + cmd + "'");
+        }
+    }
+
+    // SET's EX/PX/EXAT/PXAT option as an absolute time in milliseconds: 0 for an unknown option, -1 for a bad value
+    private static long parseExpiryTime(String option, String value) {
+        long amount;
+        try {
+            amount = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        if (amount <= 0) return -1;
+        try {
+            return switch (option) {
+                case "EX" -> Math.addExact(System.currentTimeMillis(), Math.multiplyExact(amount, 1000));
+                case "PX" -> Math.addExact(System.currentTimeMillis(), amount);
+                case "EXAT" -> Math.multiplyExact(amount, 1000);
+                case "PXAT" -> amount;
+                default -> 0;
+            };
+        } catch (ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    // SCAN cursor [MATCH pattern] [COUNT count] [TYPE type]
+    private void handleScan(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 2 || command.length % 2 != 0) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'SCAN' command");
+            return;
+        }
+        long cursor;
+        int count = 10;
+        String pattern = null;
+        String type = null;
+        try {
+            cursor = Long.parseLong(command[1]);
+            for (int i = 2; i < command.length; i += 2) {
+                switch (command[i].toUpperCase()) {
+                    case "MATCH" -> pattern = command[i + 1].equals("*") ? null : command[i + 1];
+                    case "COUNT" -> count = Integer.parseInt(command[i + 1]);
+                    case "TYPE" -> type = command[i + 1].toLowerCase();
+                    default -> {
+                        serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                        return;
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "ERR invalid cursor");
+            return;
+        }
+        if (cursor < 0 || count < 1) {
+            serverRESPResponse.sendError(outputStream, cursor < 0 ? "ERR invalid cursor" : "ERR syntax error");
+            return;
+        }
+
+        KeyspaceScan.Result result = keyspaceScan.scan(cursor, pattern, count, type);
+        serverRESPResponse.sendArrayHeader(outputStream, 2);
+        serverRESPResponse.sendBulkString(outputStream, String.valueOf(result.nextCursor()));
+        serverRESPResponse.sendArrayHeader(outputStream, result.keys().size());
+        for (String key : result.keys()) {
+            serverRESPResponse.sendBulkString(outputStream, key);
+        }
+    }
+
+    // MIGRATE host port key destination-db timeout [COPY] [REPLACE]
+    private void handleMigrate(ClientSession session, String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 6) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'MIGRATE' command");
+            return;
+        }
+        boolean copy = false;
+        boolean replace = false;
+        for (int i = 6; i < command.length; i++) {
+            switch (command[i].toUpperCase()) {
+                case "COPY" -> copy = true;
+                case "REPLACE" -> replace = true;
+                default -> {
+                    serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                    return;
+                }
+            }
+        }
+        String key = command[3];
+        String result;
+        try {
+            result = migrate(session, command[1], Integer.parseInt(command[2]), key,
+                    Integer.parseInt(command[5]), copy, replace);
+        } catch (NumberFormatException e) {
+            result = "ERR value is not an integer or out of range";
+        }
+        if (result.equals("OK") || result.equals("NOKEY")) {
+            serverRESPResponse.sendSimpleString(outputStream, result);
+        } else {
+            serverRESPResponse.sendError(outputStream, result);
+        }
+    }
+
+    // The key is dumped under its stripe, which is released for the round trip to the target so other clients
+    // of the stripe don't wait on the network, then taken again to delete it. A write in between keeps the key
+    // here and fails the migration; MIGRATE ... REPLACE retries it.
+    private String migrate(ClientSession session, String host, int port, String key, int timeoutMillis,
+                           boolean copy, boolean replace) {
+        int[] stripes = KeyLocks.stripesOf(List.of(key));
+        String payload;
+        Long expiry;
+        KeyLocks.lock(stripes);
+        try {
+            payload = KeyMigration.dump(key);
+            expiry = RedisServer.keyExpiryTimes.get(key);
+        } finally {
+            KeyLocks.unlock(stripes);
+        }
+        if (payload == null) return "NOKEY";
+        long ttl = expiry == null ? 0 : Math.max(1, expiry - System.currentTimeMillis());
+
+        String result = KeyMigration.send(host, port, key, payload, ttl, timeoutMillis, replace);
+        if (!result.equals("OK") || copy) return result;
+
+        KeyLocks.lock(stripes);
+        boolean locked = replicationService.beginWrite();
+        try {
+            if (!payload.equals(KeyMigration.dump(key)) || !Objects.equals(expiry, RedisServer.keyExpiryTimes.get(key))) {
+                return "TRYAGAIN Key was modified during the migration";
+            }
+            LazyFreeService.unlink(key);
+            RedisServer.numberOfKeysChanged++;
+            keyspaceEvents.keyModified(key, "del", null);
+            // Replicas drop the key instead of migrating it themselves
+            replicate(session, new String[]{"DEL", key});
+            return "OK";
+        } finally {
+            if (locked) replicationService.endWrite();
+            KeyLocks.unlock(stripes);
+        }
+    }
+
+    private void handleCluster(String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        try {
+            switch (subcommand) {
+                case "KEYSLOT" -> {
+                    if (command.length != 3) {
+                        serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'CLUSTER KEYSLOT' command");
+                    } else {
+                        serverRESPResponse.sendInteger(outputStream, HashSlot.keySlot(command[2]));
+                    }
+                }
+                case "MYID" -> serverRESPResponse.sendBulkString(outputStream, clusterState.getMyself());
+                case "ADDSLOTS", "DELSLOTS" -> {
+                    int[] slots = new int[command.length - 2];
+                    for (int i = 2; i < command.length; i++) {
+                        slots[i - 2] = parseSlot(command[i]);
+                    }
+                    replySlotChange(outputStream, slots, subcommand.equals("ADDSLOTS"));
+                }
+                case "ADDSLOTSRANGE", "DELSLOTSRANGE" -> {
+                    if (command.length < 4 || command.length % 2 != 0) {
+                        serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'CLUSTER " + subcommand + "' command");
+                        return;
+                    }
+                    List<Integer> slots = new ArrayList<>();
+                    for (int i = 2; i < command.length; i += 2) {
+                        int start = parseSlot(command[i]);
+                        int end = parseSlot(command[i + 1]);
+                        for (int slot = start; slot <= end; slot++) slots.add(slot);
+                    }
+                    replySlotChange(outputStream, slots.stream().mapToInt(Integer::intValue).toArray(),
+                            subcommand.equals("ADDSLOTSRANGE"));
+                }
+                case "SETSLOT" -> {
+                    String action = command.length > 3 ? command[3].toUpperCase() : "";
+                    boolean needsNode = !action.equals("STABLE");
+                    if (command.length != (needsNode ? 5 : 4)) {
+                        serverRESPResponse.sendError(outputStream, "ERR Invalid CLUSTER SETSLOT action or number of arguments");
+                        return;
+                    }
+                    String error = clusterState.setSlot(parseSlot(command[2]), action, needsNode ? command[4] : null);
+                    if (error != null) {
+                        serverRESPResponse.sendError(outputStream, error);
+                    } else {
+                        serverRESPResponse.sendSimpleString(outputStream, "OK");
+                    }
+                }
+                case "SETSLOTRANGE" -> {
+                    // Not in Redis: without gossip, this is how every node learns the owner of a whole range
+                    if (command.length != 6 || !command[4].equalsIgnoreCase("NODE")) {
+                        serverRESPResponse.sendError(outputStream, "ERR Usage: CLUSTER SETSLOTRANGE <start> <end> NODE <host:port>");
+                        return;
+                    }
+                    int end = parseSlot(command[3]);
+                    for (int slot = parseSlot(command[2]); slot <= end; slot++) {
+                        clusterState.setSlot(slot, "NODE", command[5]);
+                    }
+                    serverRESPResponse.sendSimpleString(outputStream, "OK");
+                }
+                case "SLOTS" -> {
+                    List<Object[]> ranges = clusterState.slotRanges();
+                    serverRESPResponse.sendArrayHeader(outputStream, ranges.size());
+                    for (Object[] range : ranges) {
+                        String node = (String) range[2];
+                        int separator = node.lastIndexOf(':');
+                        serverRESPResponse.sendArrayHeader(outputStream, 3);
+                        serverRESPResponse.sendInteger(outputStream, (Integer) range[0]);
+                        serverRESPResponse.sendInteger(outputStream, (Integer) range[1]);
+                        serverRESPResponse.sendArrayHeader(outputStream, 3);
+                        serverRESPResponse.sendBulkString(outputStream, node.substring(0, separator));
+                        serverRESPResponse.sendInteger(outputStream, Integer.parseInt(node.substring(separator + 1)));
+                        serverRESPResponse.sendBulkString(outputStream, node);
+                    }
+                }
+                case "COUNTKEYSINSLOT" -> {
+                    if (command.length != 3) {
+                        serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'CLUSTER COUNTKEYSINSLOT' command");
+                    } else {
+                        serverRESPResponse.sendInteger(outputStream,
+                                ClusterState.keysInSlot(parseSlot(command[2]), Integer.MAX_VALUE).size());
+                    }
+                }
+                case "GETKEYSINSLOT" -> {
+                    if (command.length != 4) {
+                        serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'CLUSTER GETKEYSINSLOT' command");
+                        return;
+                    }
+                    List<String> keys = ClusterState.keysInSlot(parseSlot(command[2]), Integer.parseInt(command[3]));
+                    serverRESPResponse.sendArrayHeader(outputStream, keys.size());
+                    for (String key : keys) {
+                        serverRESPResponse.sendBulkString(outputStream, key);
+                    }
+                }
+                case "INFO" -> {
+                    int assigned = clusterState.countAssignedSlots();
+                    serverRESPResponse.sendBulkString(outputStream, "cluster_enabled:1\r\n"
+                            + "cluster_state:" + (assigned == HashSlot.SLOT_COUNT ? "ok" : "fail") + "\r\n"
+                            + "cluster_slots_assigned:" + assigned + "\r\n"
+                            + "cluster_known_nodes:" + clusterState.knownNodes().size() + "\r\n");
+                }
+                default -> serverRESPResponse.sendError(outputStream, "ERR Unknown CLUSTER subcommand or wrong number of arguments");
+            }
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "ERR Invalid or out of range slot");
+        }
+    }
+
+    private void replySlotChange(OutputStream outputStream, int[] slots, boolean add) throws IOException {
+        if (slots.length == 0) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'CLUSTER' command");
+            return;
+        }
+        String error = null;
+        if (add) {
+            error = clusterState.addSlots(slots);
+        } else {
+            clusterState.delSlots(slots);
+        }
+        if (error != null) {
+            serverRESPResponse.sendError(outputStream, error);
+        } else {
+            serverRESPResponse.sendSimpleString(outputStream, "OK");
+        }
+    }
+
+    private static int parseSlot(String value) {
+        int slot = Integer.parseInt(value);
+        if (slot < 0 || slot >= HashSlot.SLOT_COUNT) {
+            throw new NumberFormatException("slot out of range");
+        }
+        return slot;
+    }
+
+    private void handleConfig(String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        if (subcommand.equals("GET") && command.length == 3) {
+            Map<String, String> matches = ServerConfig.getMatching(command[2].toLowerCase());
+            serverRESPResponse.sendArrayHeader(outputStream, matches.size() * 2);
+            for (Map.Entry<String, String> entry : matches.entrySet()) {
+                serverRESPResponse.sendBulkString(outputStream, entry.getKey());
+                serverRESPResponse.sendBulkString(outputStream, entry.getValue());
+            }
+        } else if (subcommand.equals("SET") && command.length == 4) {
+            String error = ServerConfig.set(command[2].toLowerCase(), command[3]);
+            if (error != null) {
+                serverRESPResponse.sendError(outputStream, error);
+            } else {
+                serverRESPResponse.sendSimpleString(outputStream, "OK");
+            }
+        } else if (subcommand.equals("RESETSTAT") && command.length == 2) {
+            for (CommandInfo info : CommandTable.all()) {
+                info.reset();
+            }
+            ServerStats.reset();
+            serverRESPResponse.sendSimpleString(outputStream, "OK");
+        } else {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'CONFIG' command");
+        }
+    }
+
+    private void handleSlowLog(String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        if (subcommand.equals("GET") && command.length <= 3) {
+            int count = 10;
+            if (command.length == 3) {
+                try {
+                    count = Integer.parseInt(command[2]);
+                } catch (NumberFormatException e) {
+                    serverRESPResponse.sendError(outputStream, "ERR value is not an integer or out of range");
+                    return;
+                }
+            }
+            List<SlowLog.Entry> entries = slowLog.get(count);
+            serverRESPResponse.sendArrayHeader(outputStream, entries.size());
+            for (SlowLog.Entry entry : entries) {
+                serverRESPResponse.sendArrayHeader(outputStream, 4);
+                serverRESPResponse.sendInteger(outputStream, entry.id());
+                serverRESPResponse.sendInteger(outputStream, entry.timestampSeconds());
+                serverRESPResponse.sendInteger(outputStream, entry.durationMicros());
+                serverRESPResponse.sendArrayHeader(outputStream, entry.arguments().length);
+                for (String argument : entry.arguments()) {
+                    serverRESPResponse.sendBulkString(outputStream, argument);
+                }
+            }
+        } else if (subcommand.equals("LEN") && command.length == 2) {
+            serverRESPResponse.sendInteger(outputStream, slowLog.length());
+        } else if (subcommand.equals("RESET") && command.length == 2) {
+            slowLog.reset();
+            serverRESPResponse.sendSimpleString(outputStream, "OK");
+        } else {
+            serverRESPResponse.sendError(outputStream, "ERR Unknown SLOWLOG subcommand or wrong number of arguments");
+        }
+    }
+
+    private void handleLatency(String[] command, OutputStream outputStream) throws IOException {
+        String subcommand = command.length > 1 ? command[1].toUpperCase() : "";
+        if (subcommand.equals("LATEST") && command.length == 2) {
+            Object[][] rows = LatencyMonitor.latest();
+            serverRESPResponse.sendArrayHeader(outputStream, rows.length);
+            for (Object[] row : rows) {
+                serverRESPResponse.sendArrayHeader(outputStream, 4);
+                serverRESPResponse.sendBulkString(outputStream, (String) row[0]);
+                serverRESPResponse.sendInteger(outputStream, (Long) row[1]);
+                serverRESPResponse.sendInteger(outputStream, (Long) row[2]);
+                serverRESPResponse.sendInteger(outputStream, (Long) row[3]);
+            }
+        } else if (subcommand.equals("HISTORY") && command.length == 3) {
+            long[][] rows = LatencyMonitor.history(command[2]);
+            serverRESPResponse.sendArrayHeader(outputStream, rows.length);
+            for (long[] row : rows) {
+                serverRESPResponse.sendArrayHeader(outputStream, 2);
+                serverRESPResponse.sendInteger(outputStream, row[0]);
+                serverRESPResponse.sendInteger(outputStream, row[1]);
+            }
+        } else if (subcommand.equals("RESET")) {
+            String[] events = Arrays.copyOfRange(command, 2, command.length);
+            serverRESPResponse.sendInteger(outputStream, LatencyMonitor.reset(events));
+        } else {
+            serverRESPResponse.sendError(outputStream, "ERR Unknown LATENCY subcommand or wrong number of arguments");
+        }
+    }
+
+    // XADD key [NOMKSTREAM] [MAXLEN [=|~] threshold] id|* field value [field value ...]
+    // The command is rewritten in place before it is replicated: the ID becomes the one used and an approximate
+    // MAXLEN an exact one at the resulting length, so replicas end up with the same entries
+    private boolean handleXadd(String[] command, OutputStream outputStream) throws IOException {
+        String key = command.length > 1 ? command[1] : null;
+        boolean noMkStream = false;
+        StreamTrim trim = null;
+        int idIndex = 2;
+        try {
+            while (idIndex < command.length) {
+                String option = command[idIndex].toUpperCase();
+                if (option.equals("NOMKSTREAM")) {
+                    noMkStream = true;
+                    idIndex++;
+                } else if (option.equals("MAXLEN")) {
+                    trim = parseStreamTrim(command, idIndex);
+                    idIndex = trim.thresholdIndex() + 1;
+                } else {
+                    break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            serverRESPResponse.sendError(outputStream, e.getMessage());
+            return false;
+        }
+        int fieldCount = command.length - idIndex - 1;
+        if (fieldCount < 2 || fieldCount % 2 != 0) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'XADD' command");
+            return false;
+        }
+        if (holdsOtherType(key, "stream")) {
+            serverRESPResponse.sendError(outputStream, WRONGTYPE);
+            return false;
+        }
+        RedisStream stream = lookup(RedisServer.streamDataStore, key);
+        if (stream == null && noMkStream) {
+            serverRESPResponse.sendNullBulkString(outputStream);
+            return false;
+        }
+        RedisStream target = stream != null ? stream : new RedisStream();
+        StreamId id;
+        try {
+            id = nextStreamId(target, command[idIndex]);
+        } catch (IllegalArgumentException e) {
+            serverRESPResponse.sendError(outputStream, e.getMessage());
+            return false;
+        }
+        target.append(id, Arrays.copyOfRange(command, idIndex + 1, command.length));
+        if (stream == null) {
+            RedisServer.streamDataStore.put(key, target);
+        }
+        RedisServer.numberOfKeysChanged++;
+        String added = id.toString();
+        command[idIndex] = added;
+        if (trim != null) {
+            applyStreamTrim(target, trim, command);
+        }
+        streamWaiters.signal(key);
+        serverRESPResponse.sendBulkString(outputStream, added);
+        return true;
+    }
+
+    // "*" is the next automatic ID, "ms-*" the next sequence within ms; explicit IDs must exceed the last one
+    private static StreamId nextStreamId(RedisStream stream, String value) {
+        StreamId last = stream.lastId();
+        StreamId id;
+        try {
+            if (value.equals("*")) {
+                id = stream.nextAutoId(System.currentTimeMillis());
+            } else if (value.endsWith("-*")) {
+                long ms = Long.parseUnsignedLong(value.substring(0, value.length() - 2));
+                id = ms == last.ms() ? last.next() : new StreamId(ms, 0);
+                if (id != null && id.ms() != ms) id = null;
+            } else {
+                id = StreamId.parse(value, 0);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR Invalid stream ID specified as stream command argument");
+        }
+        if (id == null) {
+            throw new IllegalArgumentException("ERR The stream has exhausted the last possible ID, unable to add more items");
+        }
+        if (id.equals(StreamId.MIN)) {
+            throw new IllegalArgumentException("ERR The ID specified in XADD must be greater than 0-0");
+        }
+        if (id.compareTo(last) <= 0) {
+            throw new IllegalArgumentException("ERR The ID specified in XADD is equal or smaller than the target stream top item");
+        }
+        return id;
+    }
+
+    private record StreamTrim(int thresholdIndex, long maxLength, boolean approximate) {
+    }
+
+    // MAXLEN [=|~] threshold, starting at the MAXLEN argument
+    private static StreamTrim parseStreamTrim(String[] command, int index) {
+        int thresholdIndex = index + 1;
+        boolean approximate = false;
+        if (thresholdIndex < command.length && (command[thresholdIndex].equals("~") || command[thresholdIndex].equals("="))) {
+            approximate = command[thresholdIndex].equals("~");
+            thresholdIndex++;
+        }
+        if (thresholdIndex >= command.length) {
+            throw new IllegalArgumentException("ERR syntax error");
+        }
+        long maxLength;
+        try {
+            maxLength = Long.parseLong(command[thresholdIndex]);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR value is not an integer or out of range");
+        }
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("ERR The MAXLEN argument must be >= 0.");
+        }
+        return new StreamTrim(thresholdIndex, maxLength, approximate);
+    }
+
+    // Approximate trims replicate as exact ones to the length reached here
+    private static long applyStreamTrim(RedisStream stream, StreamTrim trim, String[] command) {
+        long removed = stream.trimToLength(trim.maxLength(), trim.approximate());
+        if (trim.approximate()) {
+            command[trim.thresholdIndex() - 1] = "=";
+            command[trim.thresholdIndex()] = String.valueOf(stream.length());
+        }
+        return removed;
+    }
+
+    // XTRIM key MAXLEN [=|~] threshold
+    private boolean handleXtrim(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 4 || !command[2].equalsIgnoreCase("MAXLEN")) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'XTRIM' command");
+            return false;
+        }
+        StreamTrim trim;
+        try {
+            trim = parseStreamTrim(command, 2);
+        } catch (IllegalArgumentException e) {
+            serverRESPResponse.sendError(outputStream, e.getMessage());
+            return false;
+        }
+        if (trim.thresholdIndex() != command.length - 1) {
+            serverRESPResponse.sendError(outputStream, "ERR syntax error");
+            return false;
+        }
+        if (holdsOtherType(command[1], "stream")) {
+            serverRESPResponse.sendError(outputStream, WRONGTYPE);
+            return false;
+        }
+        RedisStream stream = lookup(RedisServer.streamDataStore, command[1]);
+        long removed = stream == null ? 0 : applyStreamTrim(stream, trim, command);
+        if (removed > 0) RedisServer.numberOfKeysChanged++;
+        serverRESPResponse.sendInteger(outputStream, removed);
+        return removed > 0;
+    }
+
+    // XRANGE key start end [COUNT count], XREVRANGE key end start [COUNT count]
+    private void handleXrange(String[] command, OutputStream outputStream, boolean reverse) throws IOException {
+        if (command.length != 4 && !(command.length == 6 && command[4].equalsIgnoreCase("COUNT"))) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for '" + command[0] + "' command");
+            return;
+        }
+        StreamId start;
+        StreamId end;
+        long count = -1;
+        try {
+            start = StreamId.parseRangeStart(command[reverse ? 3 : 2]);
+            end = StreamId.parseRangeEnd(command[reverse ? 2 : 3]);
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "ERR Invalid stream ID specified as stream command argument");
+            return;
+        }
+        if (command.length == 6) {
+            try {
+                count = Long.parseLong(command[5]);
+            } catch (NumberFormatException e) {
+                serverRESPResponse.sendError(outputStream, "ERR value is not an integer or out of range");
+                return;
+            }
+        }
+        if (holdsOtherType(command[1], "stream")) {
+            serverRESPResponse.sendError(outputStream, WRONGTYPE);
+            return;
+        }
+        RedisStream stream = lookup(RedisServer.streamDataStore, command[1]);
+        if (stream == null || (command.length == 6 && count <= 0)) {
+            serverRESPResponse.sendArrayHeader(outputStream, 0);
+            return;
+        }
+        sendStreamEntries(outputStream, reverse ? stream.reverseRange(end, start, count) : stream.range(start, end, count));
+    }
+
+    private record StreamRead(long count, long blockMillis, String[] keys, String[] ids) {
+    }
+
+    // XREAD [COUNT count] [BLOCK milliseconds] STREAMS key... id...; blockMillis is -1 without BLOCK
+    private static StreamRead parseXread(String[] command) {
+        long count = -1;
+        long blockMillis = -1;
+        int i = 1;
+        try {
+            for (; i < command.length; i += 2) {
+                String option = command[i].toUpperCase();
+                if (option.equals("STREAMS")) break;
+                if (i + 1 >= command.length) throw new IllegalArgumentException("ERR syntax error");
+                switch (option) {
+                    case "COUNT" -> count = Long.parseLong(command[i + 1]);
+                    case "BLOCK" -> {
+                        blockMillis = Long.parseLong(command[i + 1]);
+                        if (blockMillis < 0) throw new IllegalArgumentException("ERR timeout is negative");
+                    }
+                    default -> throw new IllegalArgumentException("ERR syntax error");
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("ERR value is not an integer or out of range");
+        }
+        int streams = command.length - i - 1;
+        if (i >= command.length || streams <= 0) {
+            throw new IllegalArgumentException("ERR wrong number of arguments for 'XREAD' command");
+        }
+        if (streams % 2 != 0) {
+            throw new IllegalArgumentException("ERR Unbalanced 'xread' list of streams: for each stream key an ID or '$' must be specified.");
+        }
+        String[] keys = Arrays.copyOfRange(command, i + 1, i + 1 + streams / 2);
+        String[] ids = Arrays.copyOfRange(command, i + 1 + streams / 2, command.length);
+        return new StreamRead(count, blockMillis, keys, ids);
+    }
+
+    // "$" is the stream's last ID at the time of the call, so a blocked XREAD only returns entries added later
+    private StreamId[] resolveStreamIds(StreamRead read) {
+        StreamId[] after = new StreamId[read.ids().length];
+        for (int i = 0; i < after.length; i++) {
+            if (read.ids()[i].equals("$")) {
+                RedisStream stream = lookup(RedisServer.streamDataStore, read.keys()[i]);
+                after[i] = stream == null ? StreamId.MIN : stream.lastId();
+            } else {
+                try {
+                    after[i] = StreamId.parse(read.ids()[i], 0);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("ERR Invalid stream ID specified as stream command argument");
+                }
+            }
+        }
+        return after;
+    }
+
+    // Entries after the given IDs, by key; streams with nothing new are left out
+    private Map<String, List<RedisStream.Entry>> readStreams(StreamRead read, StreamId[] after) {
+        Map<String, List<RedisStream.Entry>> result = new LinkedHashMap<>();
+        for (int i = 0; i < after.length; i++) {
+            String key = read.keys()[i];
+            if (holdsOtherType(key, "stream")) throw new IllegalArgumentException(WRONGTYPE);
+            RedisStream stream = lookup(RedisServer.streamDataStore, key);
+            StreamId start = after[i].next();
+            if (stream == null || start == null) continue;
+            List<RedisStream.Entry> entries = stream.range(start, StreamId.MAX, read.count());
+            if (!entries.isEmpty()) result.put(key, entries);
+        }
+        return result;
+    }
+
+    private void sendXreadReply(OutputStream outputStream, Map<String, List<RedisStream.Entry>> result) throws IOException {
+        if (result.isEmpty()) {
+            serverRESPResponse.sendNullArray(outputStream);
+            return;
+        }
+        serverRESPResponse.sendArrayHeader(outputStream, result.size());
+        for (Map.Entry<String, List<RedisStream.Entry>> entry : result.entrySet()) {
+            serverRESPResponse.sendArrayHeader(outputStream, 2);
+            serverRESPResponse.sendBulkString(outputStream, entry.getKey());
+            sendStreamEntries(outputStream, entry.getValue());
+        }
+    }
+
+    // XREAD inside EXEC or a procedure: the keys are already locked and BLOCK is ignored, as in Redis
+    private void handleXread(String[] command, OutputStream outputStream) throws IOException {
+        try {
+            StreamRead read = parseXread(command);
+            sendXreadReply(outputStream, readStreams(read, resolveStreamIds(read)));
+        } catch (IllegalArgumentException e) {
+            serverRESPResponse.sendError(outputStream, e.getMessage());
+        }
+    }
+
+    // XREAD from a client: with BLOCK it waits, holding no key lock, for an XADD to one of its keys or the timeout
+    private void xread(ClientSession session, CommandInfo commandInfo, String[] command, OutputStream outputStream) throws IOException {
+        StreamRead read;
+        try {
+            read = parseXread(command);
+        } catch (IllegalArgumentException e) {
+            serverRESPResponse.sendError(outputStream, e.getMessage());
+            return;
+        }
+        int[] stripes = KeyLocks.stripesOf(commandInfo, command);
+        StreamWaiters.Waiter waiter = read.blockMillis() >= 0 ? streamWaiters.register(Arrays.asList(read.keys())) : null;
+        long deadline = read.blockMillis() > 0 ? System.currentTimeMillis() + read.blockMillis() : Long.MAX_VALUE;
+        StreamId[] after = null;
+        try {
+            while (true) {
+                Map<String, List<RedisStream.Entry>> result;
+                KeyLocks.lock(stripes);
+                try {
+                    if (after == null) after = resolveStreamIds(read);
+                    result = readStreams(read, after);
+                    if (session.tracking) trackReadKeys(session, commandInfo, command);
+                } catch (IllegalArgumentException e) {
+                    serverRESPResponse.sendError(outputStream, e.getMessage());
+                    return;
+                } finally {
+                    KeyLocks.unlock(stripes);
+                }
+                if (!result.isEmpty() || waiter == null) {
+                    sendXreadReply(outputStream, result);
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    serverRESPResponse.sendNullArray(outputStream);
+                    return;
+                }
+                // Replies to pipelined commands before this one must not wait for the timeout
+                outputStream.flush();
+                try {
+                    waiter.await(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    serverRESPResponse.sendNullArray(outputStream);
+                    return;
+                }
+            }
+        } finally {
+            if (waiter != null) streamWaiters.unregister(waiter);
+        }
+    }
+
+    private void sendStreamEntries(OutputStream outputStream, List<RedisStream.Entry> entries) throws IOException {
+        serverRESPResponse.sendArrayHeader(outputStream, entries.size());
+        for (RedisStream.Entry entry : entries) {
+            serverRESPResponse.sendArrayHeader(outputStream, 2);
+            serverRESPResponse.sendBulkString(outputStream, entry.id().toString());
+            serverRESPResponse.sendArrayHeader(outputStream, entry.fields().length);
+            for (String field : entry.fields()) {
+                serverRESPResponse.sendBulkString(outputStream, field);
+            }
+        }
+    }
+
+    // The value at key in one of the typed keyspace maps, null if there is none; an expired key is removed first
+    private <T> T lookup(Map<String, T> store, String key) {
+        if (expiredKeyHandler.isKeyExpired(key)) {
+            expiredKeyHandler.removeExpiredKey(key);
+            return null;
+        }
+        return store.get(key);
+    }
+
+    // An expired key is dropped first, so it never stands in the way of a new value
+    private boolean holdsOtherType(String key, String type) {
+        if (expiredKeyHandler.isKeyExpired(key)) {
+            expiredKeyHandler.removeExpiredKey(key);
+            return false;
+        }
+        String actual = KeyspaceScan.typeOf(key);
+        return actual != null && !actual.equals(type);
+    }
+
+    // PFCOUNT key [key...]: several keys are counted as their union
+    private void handlePfcount(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 2) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'PFCOUNT' command");
+            return;
+        }
+        for (int i = 1; i < command.length; i++) {
+            if (holdsOtherType(command[i], "hyperloglog")) {
+                serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                return;
+            }
+        }
+        if (command.length == 2) {
+            HyperLogLog hyperLogLog = lookup(RedisServer.hyperLogLogDataStore, command[1]);
+            serverRESPResponse.sendInteger(outputStream, hyperLogLog == null ? 0 : hyperLogLog.count());
+            return;
+        }
+        HyperLogLog union = new HyperLogLog();
+        for (int i = 1; i < command.length; i++) {
+            HyperLogLog hyperLogLog = lookup(RedisServer.hyperLogLogDataStore, command[i]);
+            if (hyperLogLog != null) union.merge(hyperLogLog);
+        }
+        serverRESPResponse.sendInteger(outputStream, union.count());
+    }
+
+    // PFMERGE destkey [sourcekey...]: destkey becomes the union of itself and the sources
+    private boolean handlePfmerge(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 2) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'PFMERGE' command");
+            return false;
+        }
+        for (int i = 1; i < command.length; i++) {
+            if (holdsOtherType(command[i], "hyperloglog")) {
+                serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                return false;
+            }
+        }
+        HyperLogLog destination = lookup(RedisServer.hyperLogLogDataStore, command[1]);
+        if (destination == null) {
+            destination = new HyperLogLog();
+            RedisServer.hyperLogLogDataStore.put(command[1], destination);
+        }
+        for (int i = 2; i < command.length; i++) {
+            HyperLogLog source = lookup(RedisServer.hyperLogLogDataStore, command[i]);
+            if (source != null && source != destination) destination.merge(source);
+        }
+        RedisServer.numberOfKeysChanged++;
+        serverRESPResponse.sendSimpleString(outputStream, "OK");
+        return true;
+    }
+
+    // The bitmap at key: a SETBIT value, or a view of a plain string's bytes; null if there is none
+    private RedisBitmap bitmapOf(String key) {
+        RedisBitmap bitmap = lookup(RedisServer.bitmapDataStore, key);
+        if (bitmap != null) return bitmap;
+        String value = RedisServer.dataStore.get(key);
+        return value == null ? null : RedisBitmap.fromBytes(value.getBytes());
+    }
+
+    // A string key's value, whether it is held as a plain string or as a SETBIT bitmap
+    private static String stringValueOf(String key) {
+        String value = RedisServer.dataStore.get(key);
+        if (value != null) return value;
+        RedisBitmap bitmap = RedisServer.bitmapDataStore.get(key);
+        return bitmap == null ? null : new String(bitmap.toBytes());
+    }
+
+    // Returns -1 unless value is an offset below RedisBitmap.MAX_BITS
+    private static long parseBitOffset(String value) {
+        try {
+            long offset = Long.parseLong(value);
+            return offset >= 0 && offset < RedisBitmap.MAX_BITS ? offset : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // SETBIT key offset value: a plain string becomes a bitmap on its first SETBIT, keeping its TTL
+    private boolean handleSetbit(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length != 4) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'SETBIT' command");
+            return false;
+        }
+        if (holdsOtherType(command[1], "string")) {
+            serverRESPResponse.sendError(outputStream, WRONGTYPE);
+            return false;
+        }
+        long offset = parseBitOffset(command[2]);
+        if (offset < 0) {
+            serverRESPResponse.sendError(outputStream, "ERR bit offset is not an integer or out of range");
+            return false;
+        }
+        if (!command[3].equals("0") && !command[3].equals("1")) {
+            serverRESPResponse.sendError(outputStream, "ERR bit is not an integer or out of range");
+            return false;
+        }
+        String key = command[1];
+        RedisBitmap bitmap = lookup(RedisServer.bitmapDataStore, key);
+        if (bitmap == null) {
+            String value = RedisServer.dataStore.get(key);
+            bitmap = value == null ? new RedisBitmap() : RedisBitmap.fromBytes(value.getBytes());
+            RedisServer.bitmapDataStore.put(key, bitmap);
+            RedisServer.dataStore.remove(key);
+        }
+        int previous = bitmap.setBit(offset, command[3].charAt(0) - '0');
+        RedisServer.numberOfKeysChanged++;
+        serverRESPResponse.sendInteger(outputStream, previous);
+        return true;
+    }
+
+    // The inclusive bit range start..end given in bytes or bits (negative counting from the end) clamped to a
+    // value of length bytes, as {first, last}; null when a bound or the unit is invalid, which sent the error
+    private long[] bitRange(String[] command, int index, boolean endGiven, long length, OutputStream outputStream) throws IOException {
+        long start;
+        long end;
+        try {
+            start = Long.parseLong(command[index]);
+            end = endGiven ? Long.parseLong(command[index + 1]) : -1;
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "ERR value is not an integer or out of range");
+            return null;
+        }
+        boolean bits = false;
+        if (command.length > index + 2) {
+            String unit = command[index + 2].toUpperCase();
+            if (!unit.equals("BIT") && !unit.equals("BYTE")) {
+                serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                return null;
+            }
+            bits = unit.equals("BIT");
+        }
+        long size = bits ? length * 8 : length;
+        if (start < 0) start = Math.max(0, size + start);
+        if (end < 0) end = Math.max(0, size + end);
+        end = Math.min(end, size - 1);
+        if (bits) return new long[]{start, end};
+        return new long[]{start * 8, end * 8 + 7};
+    }
+
+    // BITCOUNT key [start end [BYTE|BIT]]
+    private void handleBitcount(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length != 2 && command.length != 4 && command.length != 5) {
+            serverRESPResponse.sendError(outputStream, command.length == 3 ? "ERR syntax error" : "ERR wrong number of arguments for 'BITCOUNT' command");
+            return;
+        }
+        if (holdsOtherType(command[1], "string")) {
+            serverRESPResponse.sendError(outputStream, WRONGTYPE);
+            return;
+        }
+        RedisBitmap bitmap = bitmapOf(command[1]);
+        long length = bitmap == null ? 0 : bitmap.length();
+        long[] range = command.length == 2 ? new long[]{0, length * 8 - 1} : bitRange(command, 2, true, length, outputStream);
+        if (range == null) return;
+        serverRESPResponse.sendInteger(outputStream, length == 0 ? 0 : bitmap.count(range[0], range[1]));
+    }
+
+    // BITPOS key bit [start [end [BYTE|BIT]]]
+    private void handleBitpos(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 3 || command.length > 6) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'BITPOS' command");
+            return;
+        }
+        if (holdsOtherType(command[1], "string")) {
+            serverRESPResponse.sendError(outputStream, WRONGTYPE);
+            return;
+        }
+        if (!command[2].equals("0") && !command[2].equals("1")) {
+            serverRESPResponse.sendError(outputStream, "ERR The bit argument must be 1 or 0.");
+            return;
+        }
+        int bit = command[2].charAt(0) - '0';
+        RedisBitmap bitmap = bitmapOf(command[1]);
+        long length = bitmap == null ? 0 : bitmap.length();
+        boolean endGiven = command.length > 4;
+        long[] range = command.length == 3 ? new long[]{0, length * 8 - 1} : bitRange(command, 3, endGiven, length, outputStream);
+        if (range == null) return;
+        if (length == 0) {
+            // A missing key is an empty string: no set bits, and the first clear bit is at 0
+            serverRESPResponse.sendInteger(outputStream, bit == 1 ? -1 : 0);
+            return;
+        }
+        long position = bitmap.position(bit, range[0], range[1]);
+        // Without an end, the clear bits past the value count: all ones up to its end means the next bit
+        if (position < 0 && bit == 0 && !endGiven && range[0] <= range[1]) position = length * 8;
+        serverRESPResponse.sendInteger(outputStream, position);
+    }
+
+    // BITOP AND|OR|XOR|NOT destkey srckey [srckey...]: an empty result deletes destkey, as in Redis
+    private boolean handleBitop(ClientSession session, String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 4) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'BITOP' command");
+            return false;
+        }
+        RedisBitmap.Op op;
+        try {
+            op = RedisBitmap.Op.valueOf(command[1].toUpperCase());
+        } catch (IllegalArgumentException e) {
+            serverRESPResponse.sendError(outputStream, "ERR syntax error");
+            return false;
+        }
+        if (op == RedisBitmap.Op.NOT && command.length != 4) {
+            serverRESPResponse.sendError(outputStream, "ERR BITOP NOT must be called with a single source key.");
+            return false;
+        }
+        RedisBitmap[] sources = new RedisBitmap[command.length - 3];
+        for (int i = 3; i < command.length; i++) {
+            if (holdsOtherType(command[i], "string")) {
+                serverRESPResponse.sendError(outputStream, WRONGTYPE);
+                return false;
+            }
+            sources[i - 3] = bitmapOf(command[i]);
+        }
+        RedisBitmap result = RedisBitmap.combine(op, sources);
+        boolean existed = !expiredKeyHandler.isKeyExpired(command[2]) & LazyFreeService.unlink(command[2]);
+        if (result.length() > 0) RedisServer.bitmapDataStore.put(command[2], result);
+        else if (existed) keyspaceEvents.keyModified(command[2], "del", session);
+        if (result.length() > 0 || existed) RedisServer.numberOfKeysChanged++;
+        serverRESPResponse.sendInteger(outputStream, result.length());
+        return result.length() > 0;
+    }
+
+    // BF.RESERVE key error_rate capacity [EXPANSION expansion] [NONSCALING]
+    private boolean handleBloomReserve(String[] command, OutputStream outputStream) throws IOException {
+        if (command.length < 4) {
+            serverRESPResponse.sendError(outputStream, "ERR wrong number of arguments for 'BF.RESERVE' command");
+            return false;
+        }
+        double errorRate;
+        long capacity;
+        int expansion = BloomFilter.DEFAULT_EXPANSION;
+        try {
+            errorRate = Double.parseDouble(command[2]);
+            capacity = Long.parseLong(command[3]);
+            for (int i = 4; i < command.length; i++) {
+                switch (command[i].toUpperCase()) {
+                    case "NONSCALING" -> expansion = 0;
+                    case "EXPANSION" -> {
+                        if (i + 1 >= command.length) throw new NumberFormatException();
+                        expansion = Integer.parseInt(command[++i]);
+                        if (expansion < 1) throw new NumberFormatException();
+                    }
+                    default -> {
+                        serverRESPResponse.sendError(outputStream, "ERR syntax error");
+                        return false;
+                    }
+                }
+            }
+        } catch (NumberFormatException e) {
+            serverRESPResponse.sendError(outputStream, "ERR bad error rate, capacity or expansion");
+            return false;
+        }
+        if (!(errorRate > 0 && errorRate < 1)) {
+            serverRESPResponse.sendError(outputStream, "ERR (0 < error rate range < 1)");
+        } else if (capacity < 1) {
+            serverRESPResponse.sendError(outputStream, "ERR (capacity should be larger than 0)");
+        } else if (!BloomFilter.isValid(capacity, errorRate)) {
+            serverRESPResponse.sendError(outputStream, "ERR Insufficient memory to create filter");
+        } else if (lookup(RedisServer.bloomFilterDataStore, command[1]) != null || KeyspaceScan.exists(command[1])) {
+            serverRESPResponse.sendError(outputStream, "ERR item exists");
+        } else {
+            RedisServer.bloomFilterDataStore.put(command[1], new BloomFilter(capacity, errorRate, expansion));
+            RedisServer.numberOfKeysChanged++;
+            serverRESPResponse.sendSimpleString(outputStream, "OK");
+            return true;
         }
+        return false;
     }
 
     private boolean isWholeStringInteger(String input) {
@@ -0,0 +1,156 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+public class CommandInfo {
+    // Upper bounds of the latency histogram buckets in microseconds; the last bucket is +Inf
+    static final long[] LATENCY_BUCKETS_MICROS = {
+            10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000, 1000000
+    };
+
+    private final String name;
+    private final boolean write;
+    private final int firstKey;
+    private final int lastKey;
+    private final int keyStep;
+    // FCALL-style commands carry their key count at this argument position, keys follow it
+    private final int numKeysIndex;
+    // XREAD-style commands name their keys after this keyword, followed by one argument per key
+    private final String keysKeyword;
+    // PFMERGE-style commands write their first key and only read the others
+    private final boolean writesFirstKeyOnly;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder microseconds = new LongAdder();
+    private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS_MICROS.length + 1];
+
+    public CommandInfo(String name, boolean write, int firstKey, int lastKey, int keyStep) {
+        this(name, write, firstKey, lastKey, keyStep, 0);
+    }
+
+    public CommandInfo(String name, boolean write, int firstKey, int lastKey, int keyStep, int numKeysIndex) {
+        this(name, write, firstKey, lastKey, keyStep, numKeysIndex, null);
+    }
+
+    public CommandInfo(String name, boolean write, int firstKey, int lastKey, int keyStep, int numKeysIndex, String keysKeyword) {
+        this(name, write, firstKey, lastKey, keyStep, numKeysIndex, keysKeyword, false);
+    }
+
+    public CommandInfo(String name, boolean write, int firstKey, int lastKey, int keyStep, int numKeysIndex, String keysKeyword,
+                       boolean writesFirstKeyOnly) {
+        this.name = name;
+        this.write = write;
+        this.firstKey = firstKey;
+        this.lastKey = lastKey;
+        this.keyStep = keyStep;
+        this.numKeysIndex = numKeysIndex;
+        this.keysKeyword = keysKeyword;
+        this.writesFirstKeyOnly = writesFirstKeyOnly;
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    public boolean hasKeys() {
+        return firstKey > 0;
+    }
+
+    public List<String> getKeys(String[] command) {
+        int last = lastKeyIndex(command);
+        if (last < 0) {
+            return List.of();
+        }
+        List<String> keys = new ArrayList<>();
+        for (int i = firstKeyIndex(command); i <= last; i += keyStep) {
+            keys.add(command[i]);
+        }
+        return keys;
+    }
+
+    // Index of the first key argument; with a keys keyword, the argument after it (past the end if it is missing)
+    public int firstKeyIndex(String[] command) {
+        if (keysKeyword == null) {
+            return firstKey;
+        }
+        for (int i = firstKey; i < command.length; i++) {
+            if (command[i].equalsIgnoreCase(keysKeyword)) {
+                return i + 1;
+            }
+        }
+        return command.length;
+    }
+
+    // Index of the last key argument, -1 if there is none; hot paths walk first..last by keyStep without allocating
+    public int lastKeyIndex(String[] command) {
+        if (firstKey == 0 || command.length <= firstKey) {
+            return -1;
+        }
+        if (keysKeyword != null) {
+            int first = firstKeyIndex(command);
+            int arguments = command.length - first;
+            return arguments == 0 || arguments % 2 != 0 ? -1 : first + arguments / 2 - 1;
+        }
+        if (numKeysIndex > 0) {
+            try {
+                int numKeys = Integer.parseInt(command[numKeysIndex]);
+                return numKeys <= 0 ? -1 : Math.min(firstKey + numKeys - 1, command.length - 1);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        return lastKey < 0 ? command.length + lastKey : Math.min(lastKey, command.length - 1);
+    }
+
+    public int getKeyStep() {
+        return keyStep;
+    }
+
+    // Index of the last key a write command modifies, -1 if there is none
+    public int lastWrittenKeyIndex(String[] command) {
+        int last = lastKeyIndex(command);
+        return writesFirstKeyOnly && last >= 0 ? firstKeyIndex(command) : last;
+    }
+
+    public void record(long durationNanos) {
+        long durationMicros = durationNanos / 1000;
+        calls.increment();
+        microseconds.add(durationMicros);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS_MICROS.length && durationMicros > LATENCY_BUCKETS_MICROS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets[bucket].increment();
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getMicroseconds() {
+        return microseconds.sum();
+    }
+
+    // Non-cumulative counts per bucket, the last entry being the +Inf bucket
+    public long[] getLatencyBuckets() {
+        long[] counts = new long[latencyBuckets.length];
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            counts[i] = latencyBuckets[i].sum();
+        }
+        return counts;
+    }
+
+    public void reset() {
+        calls.reset();
+        microseconds.reset();
+        for (LongAdder bucket : latencyBuckets) {
+            bucket.reset();
+        }
+    }
+}
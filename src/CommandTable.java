@@ -0,0 +1,112 @@
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class CommandTable {
+    private static final Map<String, CommandInfo> commands = new LinkedHashMap<>();
+
+    private static final boolean WRITE = true;
+    private static final boolean READ = false;
+
+    static {
+        register("PING", READ);
+        register("ECHO", READ);
+        register("SET", WRITE, 1, 1, 1);
+        register("GET", READ, 1, 1, 1);
+        register("DEL", WRITE, 1, -1, 1);
+        register("EXISTS", READ, 1, -1, 1);
+        register("INCR", WRITE, 1, 1, 1);
+        register("DECR", WRITE, 1, 1, 1);
+        register("LPUSH", WRITE, 1, 1, 1);
+        register("RPUSH", WRITE, 1, 1, 1);
+        register("SAVE", READ);
+        register("BGSAVE", READ);
+        register("INFO", READ);
+        register("CONFIG", READ);
+        register("SLOWLOG", READ);
+        register("LATENCY", READ);
+        register("REPLICAOF", READ);
+        register("SLAVEOF", READ);
+        register("PSYNC", READ);
+        register("REPLCONF", READ);
+        register("CLUSTER", READ);
+        register("ASKING", READ);
+        register("DUMP", READ, 1, 1, 1);
+        register("RESTORE", WRITE, 1, 1, 1);
+        // Replicates the key's removal itself, see CommandExecutor.SELF_REPLICATING
+        register("MIGRATE", WRITE, 3, 3, 1);
+        register("SCAN", READ);
+        register("KEYS", READ);
+        register("DBSIZE", READ);
+        register("UNLINK", WRITE, 1, -1, 1);
+        register("FLUSHALL", WRITE);
+        register("FLUSHDB", WRITE);
+        register("MULTI", READ);
+        register("EXEC", READ);
+        register("DISCARD", READ);
+        register("WATCH", READ, 1, -1, 1);
+        register("UNWATCH", READ);
+        // Procedures lock, replicate and check their own writes, see ProcedureContext
+        registerNumKeys("FCALL", READ, 2);
+        registerNumKeys("FCALL_RO", READ, 2);
+        register("FUNCTION", READ);
+        register("SUBSCRIBE", READ);
+        register("UNSUBSCRIBE", READ);
+        register("PSUBSCRIBE", READ);
+        register("PUNSUBSCRIBE", READ);
+        register("PUBLISH", READ);
+        register("PUBSUB", READ);
+        register("CLIENT", READ);
+        register("XADD", WRITE, 1, 1, 1);
+        register("XTRIM", WRITE, 1, 1, 1);
+        register("XLEN", READ, 1, 1, 1);
+        register("XRANGE", READ, 1, 1, 1);
+        register("XREVRANGE", READ, 1, 1, 1);
+        registerKeyword("XREAD", READ, "STREAMS");
+        register("PFADD", WRITE, 1, 1, 1);
+        register("PFCOUNT", READ, 1, -1, 1);
+        registerStore("PFMERGE", 1);
+        register("BF.RESERVE", WRITE, 1, 1, 1);
+        register("BF.ADD", WRITE, 1, 1, 1);
+        register("BF.EXISTS", READ, 1, 1, 1);
+        register("SETBIT", WRITE, 1, 1, 1);
+        register("GETBIT", READ, 1, 1, 1);
+        register("BITCOUNT", READ, 1, 1, 1);
+        register("BITPOS", READ, 1, 1, 1);
+        registerStore("BITOP", 2);
+    }
+
+    private static void register(String name, boolean write) {
+        register(name, write, 0, 0, 0);
+    }
+
+    // Write commands are refused on replicas and propagated to the replication stream.
+    // Keys sit at argument positions firstKey..lastKey every step (lastKey -1 means the last argument).
+    private static void register(String name, boolean write, int firstKey, int lastKey, int step) {
+        commands.put(name, new CommandInfo(name, write, firstKey, lastKey, step));
+    }
+
+    // Keys follow a key count at argument position numKeysIndex, e.g. FCALL name numkeys key... arg...
+    private static void registerNumKeys(String name, boolean write, int numKeysIndex) {
+        commands.put(name, new CommandInfo(name, write, numKeysIndex + 1, -1, 1, numKeysIndex));
+    }
+
+    // Keys follow a keyword and are matched by as many arguments after them, e.g. XREAD ... STREAMS key... id...
+    private static void registerKeyword(String name, boolean write, String keyword) {
+        commands.put(name, new CommandInfo(name, write, 1, -1, 1, 0, keyword));
+    }
+
+    // A destination key at firstKey followed by source keys, e.g. PFMERGE destkey sourcekey...
+    private static void registerStore(String name, int firstKey) {
+        commands.put(name, new CommandInfo(name, WRITE, firstKey, -1, 1, 0, null, true));
+    }
+
+    // Expects the upper-cased command name, returns null for unknown commands
+    public static CommandInfo lookup(String name) {
+        return commands.get(name);
+    }
+
+    public static Collection<CommandInfo> all() {
+        return commands.values();
+    }
+}
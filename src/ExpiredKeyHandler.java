@@ -4,21 +4,52 @@ public class ExpiredKeyHandler {
     private static final double TRIGGER_PROBABILITY = 0.10;
     private static final int KEYS_TO_SAMPLE = 10;
     private static final double CONTINUE_THRESHOLD = 0.25;
+    private volatile KeyspaceEvents keyspaceEvents;
+    private volatile ReplicationService replicationService;
+    // Set on the thread applying the master's stream: a replica's copy of a key lives until the master's DEL,
+    // so commands from the master always see the value the master had
+    private final ThreadLocal<Boolean> applyingReplicated = ThreadLocal.withInitial(() -> false);
+
+    // Set by the CommandExecutor that owns this handler, so expiry invalidates like any other write
+    public void setKeyspaceEvents(KeyspaceEvents keyspaceEvents) {
+        this.keyspaceEvents = keyspaceEvents;
+    }
+
+    // Set by the CommandExecutor that owns this handler: a master replicates its expiries as DEL
+    public void setReplicationService(ReplicationService replicationService) {
+        this.replicationService = replicationService;
+    }
+
+    void setApplyingReplicated(boolean applying) {
+        applyingReplicated.set(applying);
+    }
+
+    private boolean isReplica() {
+        ReplicationService replication = replicationService;
+        return replication != null && replication.isReplica();
+    }
+
     public void probabilisticKeyExpiration() {
+        // A replica's keys expire when the master's DEL arrives, never by its own clock
+        if (isReplica()) {
+            return;
+        }
         // Only run the sampling with a 10% probability
         if (Math.random() >= TRIGGER_PROBABILITY) {
             return;
         }
         // Continue sampling as long as we're finding many expired keys
+        long start = System.currentTimeMillis();
         boolean continueChecking;
         int maxRounds = 20;
         do {
             continueChecking = sampleAndExpireKeys();
             maxRounds--;
         } while (continueChecking && maxRounds > 0);
+        LatencyMonitor.addSampleIfNeeded("expire-cycle", System.currentTimeMillis() - start);
     }
 
-    private static boolean sampleAndExpireKeys() {
+    boolean sampleAndExpireKeys() {
         // Get up to KEYS_TO_SAMPLE random keys with expiry times
         List<String> keysWithExpiry = new ArrayList<>(RedisServer.keyExpiryTimes.keySet());
         if (keysWithExpiry.isEmpty()) {
@@ -31,28 +62,63 @@ public class ExpiredKeyHandler {
         int expiredCount = 0;
         long now = System.currentTimeMillis();
         for (String key : sampledKeys) {
-            Long expiryTime = RedisServer.keyExpiryTimes.get(key);
-            if (expiryTime != null && now > expiryTime) {
-                RedisServer.dataStore.remove(key);
-                RedisServer.keyExpiryTimes.remove(key);
-                expiredCount++;
+            // A key in use by a command or an EXEC is left to a later round, or to the command's own check
+            int stripe = KeyLocks.stripeOf(key);
+            if (!KeyLocks.tryLock(stripe)) {
+                continue;
+            }
+            try {
+                Long expiryTime = RedisServer.keyExpiryTimes.get(key);
+                if (expiryTime != null && now > expiryTime) {
+                    expire(key);
+                    expiredCount++;
+                }
+            } finally {
+                KeyLocks.unlock(stripe);
             }
         }
 
         // If more than 25% of keys were expired, signal to continue sampling
         return (double) expiredCount / sampleSize > CONTINUE_THRESHOLD;
     }
+    // On a replica an expired key reads as missing to clients, but not to the master's own commands
     public boolean isKeyExpired(String key) {
         Long expiryTime = RedisServer.keyExpiryTimes.get(key);
-        if (expiryTime == null) {
+        if (expiryTime == null || System.currentTimeMillis() <= expiryTime) {
             return false;
         }
-        return System.currentTimeMillis() > expiryTime;
+        return !isReplica() || !applyingReplicated.get();
     }
 
+    // Called from command paths, which already hold the key's stripe. A replica keeps the key for the master's DEL.
     public void removeExpiredKey(String key) {
+        if (isReplica()) {
+            return;
+        }
         RedisServer.numberOfKeysChanged++;
-        RedisServer.dataStore.remove(key);
-        RedisServer.keyExpiryTimes.remove(key);
+        expire(key);
+    }
+
+    private void expire(String key) {
+        ReplicationService replication = replicationService;
+        boolean master = replication != null && !replication.isReplica();
+        boolean locked = master && replication.beginWrite();
+        try {
+            LazyFreeService.unlink(key);
+            if (master) replication.propagate(new String[]{"DEL", key});
+        } finally {
+            if (locked) replication.endWrite();
+        }
+        keyExpired(key);
+        ServerStats.expiredKeys.increment();
+    }
+
+    private void keyExpired(String key) {
+        KeyspaceEvents events = keyspaceEvents;
+        if (events != null) {
+            events.keyModified(key, "expired", null);
+        } else {
+            KeyVersions.touch(key);
+        }
     }
 }
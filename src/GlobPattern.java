@@ -0,0 +1,88 @@
+/**
+ * Redis-style glob matching: * ? [abc] [^a] [a-z] and backslash escapes.
+ */
+public class GlobPattern {
+
+    public static boolean matches(String pattern, String text) {
+        return matches(pattern, 0, text, 0);
+    }
+
+    private static boolean matches(String pattern, int p, String text, int t) {
+        while (p < pattern.length()) {
+            char c = pattern.charAt(p);
+            switch (c) {
+                case '*' -> {
+                    while (p + 1 < pattern.length() && pattern.charAt(p + 1) == '*') p++;
+                    if (p + 1 == pattern.length()) return true;
+                    for (int i = t; i <= text.length(); i++) {
+                        if (matches(pattern, p + 1, text, i)) return true;
+                    }
+                    return false;
+                }
+                case '?' -> {
+                    if (t >= text.length()) return false;
+                    t++;
+                    p++;
+                }
+                case '[' -> {
+                    if (t >= text.length()) return false;
+                    int end = classEnd(pattern, p);
+                    if (end < 0) {
+                        // An unterminated class is matched literally
+                        if (text.charAt(t) != '[') return false;
+                        t++;
+                        p++;
+                    } else {
+                        if (!matchesClass(pattern, p + 1, end, text.charAt(t))) return false;
+                        t++;
+                        p = end + 1;
+                    }
+                }
+                case '\\' -> {
+                    if (p + 1 < pattern.length()) p++;
+                    if (t >= text.length() || text.charAt(t) != pattern.charAt(p)) return false;
+                    t++;
+                    p++;
+                }
+                default -> {
+                    if (t >= text.length() || text.charAt(t) != c) return false;
+                    t++;
+                    p++;
+                }
+            }
+        }
+        return t == text.length();
+    }
+
+    private static int classEnd(String pattern, int open) {
+        for (int i = open + 1; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ']' && i > open + 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matchesClass(String pattern, int start, int end, char c) {
+        boolean negate = pattern.charAt(start) == '^';
+        if (negate) start++;
+        boolean matched = false;
+        for (int i = start; i < end; i++) {
+            char first = pattern.charAt(i);
+            if (first == '\\' && i + 1 < end) {
+                first = pattern.charAt(++i);
+            }
+            if (i + 2 < end && pattern.charAt(i + 1) == '-') {
+                char last = pattern.charAt(i + 2);
+                if (c >= Math.min(first, last) && c <= Math.max(first, last)) matched = true;
+                i += 2;
+            } else if (first == c) {
+                matched = true;
+            }
+        }
+        return matched != negate;
+    }
+}
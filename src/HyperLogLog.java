@@ -0,0 +1,218 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The HyperLogLog type behind PFADD/PFCOUNT/PFMERGE: 2^14 registers of 6 bits, for a standard error of 0.81%.
+ * Small sets use the sparse form, a sorted int[] of (register << 8 | value) for the non-zero registers only,
+ * promoted to the dense form (the registers packed into 12KB, as in Redis) once that would exceed
+ * SPARSE_MAX_BYTES. The estimate uses Ertl's improved estimator over the register histogram, as Redis does,
+ * and is cached until a register changes. Methods are synchronized so snapshots can read a value in use.
+ */
+public class HyperLogLog {
+    static final int P = 14;
+    static final int REGISTERS = 1 << P;
+    static final int REGISTER_BITS = 6;
+    static final int DENSE_BYTES = REGISTERS * REGISTER_BITS / 8;
+    // hll-sparse-max-bytes in Redis; past it the dense form is both smaller and faster
+    static final int SPARSE_MAX_BYTES = 3000;
+    private static final int Q = 64 - P;
+    private static final long SEED = 0xadc83b19L;
+    private static final double ALPHA_INF = 0.721347520444481703680;
+
+    private int[] sparse = new int[8];
+    private int sparseSize;
+    private byte[] dense;
+    private long cachedCount = -1;
+
+    // Returns whether a register changed
+    public synchronized boolean add(String element) {
+        long hash = MurmurHash.hash64(element.getBytes(StandardCharsets.UTF_8), SEED);
+        int register = (int) (hash & (REGISTERS - 1));
+        // Position of the first 1 bit in the remaining Q bits, Q + 1 when they are all zero
+        int rank = Long.numberOfTrailingZeros((hash >>> P) | (1L << Q)) + 1;
+        return raise(register, rank);
+    }
+
+    // Every register becomes the larger of the two, so the result counts the union
+    public synchronized void merge(HyperLogLog other) {
+        if (other.dense != null) {
+            for (int register = 0; register < REGISTERS; register++) {
+                int value = getDense(other.dense, register);
+                if (value > 0) raise(register, value);
+            }
+        } else {
+            for (int i = 0; i < other.sparseSize; i++) {
+                raise(other.sparse[i] >>> 8, other.sparse[i] & 0xff);
+            }
+        }
+    }
+
+    public synchronized long count() {
+        if (cachedCount >= 0) return cachedCount;
+        int[] histogram = new int[Q + 2];
+        if (dense != null) {
+            for (int register = 0; register < REGISTERS; register++) {
+                histogram[getDense(dense, register)]++;
+            }
+        } else {
+            histogram[0] = REGISTERS - sparseSize;
+            for (int i = 0; i < sparseSize; i++) {
+                histogram[sparse[i] & 0xff]++;
+            }
+        }
+        double z = REGISTERS * tau((REGISTERS - histogram[Q + 1]) / (double) REGISTERS);
+        for (int j = Q; j >= 1; j--) {
+            z += histogram[j];
+            z *= 0.5;
+        }
+        z += REGISTERS * sigma(histogram[0] / (double) REGISTERS);
+        cachedCount = Math.round(ALPHA_INF * REGISTERS * REGISTERS / z);
+        return cachedCount;
+    }
+
+    public synchronized boolean isDense() {
+        return dense != null;
+    }
+
+    public synchronized int sizeInBytes() {
+        return dense != null ? DENSE_BYTES : sparseSize * 4;
+    }
+
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeBoolean(dense != null);
+        if (dense != null) {
+            out.write(dense);
+        } else {
+            out.writeInt(sparseSize);
+            for (int i = 0; i < sparseSize; i++) out.writeInt(sparse[i]);
+        }
+    }
+
+    // The snapshot form, which GET returns for a HyperLogLog as Redis returns its own encoding
+    public byte[] toBytes() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(sizeInBytes() + 5);
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Registers above Q + 1 would index past count()'s histogram, and sparse entries must stay sorted for
+    // raise()'s binary search, so both are checked here
+    public static HyperLogLog readFrom(DataInput in) throws IOException {
+        HyperLogLog hll = new HyperLogLog();
+        if (in.readBoolean()) {
+            hll.dense = new byte[DENSE_BYTES];
+            in.readFully(hll.dense);
+            for (int register = 0; register < REGISTERS; register++) {
+                if (getDense(hll.dense, register) > Q + 1) throw new IOException("Invalid HyperLogLog register");
+            }
+        } else {
+            hll.sparseSize = in.readInt();
+            if (hll.sparseSize < 0 || hll.sparseSize > REGISTERS) throw new IOException("Invalid HyperLogLog size");
+            hll.sparse = new int[Math.max(8, hll.sparseSize)];
+            for (int i = 0; i < hll.sparseSize; i++) {
+                int entry = in.readInt();
+                int register = entry >>> 8;
+                int value = entry & 0xff;
+                if (register >= REGISTERS || value < 1 || value > Q + 1 || (i > 0 && register <= hll.sparse[i - 1] >>> 8)) {
+                    throw new IOException("Invalid HyperLogLog register");
+                }
+                hll.sparse[i] = entry;
+            }
+        }
+        return hll;
+    }
+
+    private boolean raise(int register, int value) {
+        if (dense != null) {
+            if (getDense(dense, register) >= value) return false;
+            setDense(dense, register, value);
+            cachedCount = -1;
+            return true;
+        }
+        int position = Arrays.binarySearch(sparse, 0, sparseSize, register << 8);
+        if (position < 0) position = -position - 1;
+        if (position < sparseSize && sparse[position] >>> 8 == register) {
+            if ((sparse[position] & 0xff) >= value) return false;
+            sparse[position] = register << 8 | value;
+        } else {
+            if ((sparseSize + 1) * 4 > SPARSE_MAX_BYTES) {
+                toDense();
+                return raise(register, value);
+            }
+            if (sparseSize == sparse.length) sparse = Arrays.copyOf(sparse, sparse.length * 2);
+            System.arraycopy(sparse, position, sparse, position + 1, sparseSize - position);
+            sparse[position] = register << 8 | value;
+            sparseSize++;
+        }
+        cachedCount = -1;
+        return true;
+    }
+
+    private void toDense() {
+        dense = new byte[DENSE_BYTES];
+        for (int i = 0; i < sparseSize; i++) {
+            setDense(dense, sparse[i] >>> 8, sparse[i] & 0xff);
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    // Register i occupies bits 6i..6i+5, least significant bit first, possibly spanning two bytes
+    private static int getDense(byte[] registers, int register) {
+        int bit = register * REGISTER_BITS;
+        int index = bit >>> 3;
+        int shift = bit & 7;
+        int value = (registers[index] & 0xff) >>> shift;
+        if (shift > 8 - REGISTER_BITS) value |= (registers[index + 1] & 0xff) << (8 - shift);
+        return value & 63;
+    }
+
+    private static void setDense(byte[] registers, int register, int value) {
+        int bit = register * REGISTER_BITS;
+        int index = bit >>> 3;
+        int shift = bit & 7;
+        registers[index] = (byte) ((registers[index] & ~(63 << shift)) | (value << shift));
+        if (shift > 8 - REGISTER_BITS) {
+            int high = 8 - shift;
+            registers[index + 1] = (byte) ((registers[index + 1] & ~(63 >>> high)) | (value >>> high));
+        }
+    }
+
+    private static double sigma(double x) {
+        if (x == 1) return Double.POSITIVE_INFINITY;
+        double y = 1;
+        double z = x;
+        double previous;
+        do {
+            x *= x;
+            previous = z;
+            z += x * y;
+            y += y;
+        } while (previous != z);
+        return z;
+    }
+
+    private static double tau(double x) {
+        if (x == 0 || x == 1) return 0;
+        double y = 1;
+        double z = 1 - x;
+        double previous;
+        do {
+            x = Math.sqrt(x);
+            previous = z;
+            y *= 0.5;
+            z -= Math.pow(1 - x, 2) * y;
+        } while (previous != z);
+        return z / 3;
+    }
+}
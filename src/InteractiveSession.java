@@ -4,15 +4,19 @@ import java.util.Scanner;
 class InteractiveSession {
     private final String host;
     private final int port;
+    private final boolean cluster;
 
-    public InteractiveSession(String host, int port) {
+    public InteractiveSession(String host, int port, boolean cluster) {
         this.host = host;
         this.port = port;
+        this.cluster = cluster;
     }
 
     public void run(Scanner scanner) {
-        try (RedisConnection connection = new RedisConnection(host, port)) {
-            System.out.println("Connected to Redis server on " + host + ":" + port);
+        try (RedisCommandConnection connection = cluster
+                ? new ClusterRedisConnection(host, port)
+                : new RedisConnection(host, port)) {
+            System.out.println("Connected to Redis " + (cluster ? "cluster" : "server") + " on " + host + ":" + port);
             System.out.println("Enter Redis commands (type 'exit' to quit):");
 
             while (true) {
@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks over the keyspace. Every keyed command holds the stripes of its keys, which makes
+ * read-modify-write commands like INCR atomic across connections, and EXEC holds the union of the stripes
+ * its transaction touches for the whole batch. Stripes are always taken in ascending order.
+ */
+public class KeyLocks {
+    static final int STRIPES = 1024;
+    private static final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    static final int[] ALL = new int[STRIPES];
+    // Shared single-stripe arrays so the common one-key command allocates nothing
+    private static final int[][] SINGLE = new int[STRIPES][];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+            ALL[i] = i;
+            SINGLE[i] = new int[]{i};
+        }
+    }
+
+    static int stripeOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    // Sorted, distinct stripes of the given keys
+    static int[] stripesOf(Collection<String> keys) {
+        int[] stripes = new int[keys.size()];
+        int n = 0;
+        for (String key : keys) {
+            stripes[n++] = stripeOf(key);
+        }
+        return sortedDistinct(stripes);
+    }
+
+    static int[] stripesOf(CommandInfo commandInfo, String[] command) {
+        int first = commandInfo.firstKeyIndex(command);
+        int last = commandInfo.lastKeyIndex(command);
+        if (last < 0) return new int[0];
+        if (last == first) return SINGLE[stripeOf(command[first])];
+        int step = commandInfo.getKeyStep();
+        int[] stripes = new int[(last - first) / step + 1];
+        for (int i = first, n = 0; i <= last; i += step) {
+            stripes[n++] = stripeOf(command[i]);
+        }
+        return sortedDistinct(stripes);
+    }
+
+    private static int[] sortedDistinct(int[] stripes) {
+        int n = stripes.length;
+        if (n < 2) return stripes;
+        Arrays.sort(stripes);
+        int distinct = 1;
+        for (int i = 1; i < n; i++) {
+            if (stripes[i] != stripes[distinct - 1]) stripes[distinct++] = stripes[i];
+        }
+        return distinct == n ? stripes : Arrays.copyOf(stripes, distinct);
+    }
+
+    static void lock(int[] stripes) {
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+    }
+
+    // For work that must never wait behind a command, such as active expiry: false if another thread holds it.
+    // Never blocks, so it is safe whatever stripes the caller already holds.
+    static boolean tryLock(int stripe) {
+        return locks[stripe].tryLock();
+    }
+
+    static void unlock(int stripe) {
+        locks[stripe].unlock();
+    }
+
+    static void unlock(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+}
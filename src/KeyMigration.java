@@ -0,0 +1,140 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Base64;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * DUMP/RESTORE payloads and MIGRATE, used to move keys between cluster nodes.
+ * Payloads are text because requests are read as characters: "S" + value, "L" + length-prefixed elements, or
+ * for streams ("X"), HyperLogLogs ("H"), Bloom filters ("B") and bitmaps ("T") the type letter and the Base64 of the
+ * snapshot form.
+ */
+public class KeyMigration {
+
+    // Returns null when the key does not exist
+    public static String dump(String key) {
+        String value = RedisServer.dataStore.get(key);
+        if (value != null) {
+            return "S" + value;
+        }
+        LinkedList<String> list = RedisServer.listDataStore.get(key);
+        if (list != null) {
+            StringBuilder sb = new StringBuilder("L");
+            for (String element : list) {
+                sb.append(element.length()).append(':').append(element);
+            }
+            return sb.toString();
+        }
+        RedisStream stream = RedisServer.streamDataStore.get(key);
+        if (stream != null) {
+            return binaryPayload('X', stream);
+        }
+        HyperLogLog hyperLogLog = RedisServer.hyperLogLogDataStore.get(key);
+        if (hyperLogLog != null) {
+            return binaryPayload('H', hyperLogLog);
+        }
+        BloomFilter bloomFilter = RedisServer.bloomFilterDataStore.get(key);
+        if (bloomFilter != null) {
+            return binaryPayload('B', bloomFilter);
+        }
+        RedisBitmap bitmap = RedisServer.bitmapDataStore.get(key);
+        if (bitmap != null) {
+            return binaryPayload('T', bitmap);
+        }
+        return null;
+    }
+
+    private static String binaryPayload(char type, Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            if (value instanceof RedisStream stream) stream.writeTo(out);
+            else if (value instanceof HyperLogLog hyperLogLog) hyperLogLog.writeTo(out);
+            else if (value instanceof BloomFilter bloomFilter) bloomFilter.writeTo(out);
+            else if (value instanceof RedisBitmap bitmap) bitmap.writeTo(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return type + Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+
+    // Returns an error message, or null when the key was restored
+    public static String restore(String key, long ttlMillis, String payload, boolean replace) {
+        if (KeyspaceScan.exists(key) && !replace) {
+            return "BUSYKEY Target key name already exists.";
+        }
+        if (payload.isEmpty() || "SLXHBT".indexOf(payload.charAt(0)) < 0) {
+            return "ERR DUMP payload version or checksum are wrong";
+        }
+        LinkedList<String> list = null;
+        if (payload.charAt(0) == 'L') {
+            list = new LinkedList<>();
+            int position = 1;
+            try {
+                while (position < payload.length()) {
+                    int colon = payload.indexOf(':', position);
+                    int length = Integer.parseInt(payload.substring(position, colon));
+                    list.add(payload.substring(colon + 1, colon + 1 + length));
+                    position = colon + 1 + length;
+                }
+            } catch (RuntimeException e) {
+                return "ERR DUMP payload version or checksum are wrong";
+            }
+        }
+        char type = payload.charAt(0);
+        Object binary = null;
+        if ("XHBT".indexOf(type) >= 0) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(payload.substring(1))));
+                binary = switch (type) {
+                    case 'X' -> RedisStream.readFrom(in);
+                    case 'H' -> HyperLogLog.readFrom(in);
+                    case 'B' -> BloomFilter.readFrom(in);
+                    default -> RedisBitmap.readFrom(in);
+                };
+            } catch (IOException | RuntimeException e) {
+                return "ERR DUMP payload version or checksum are wrong";
+            }
+        }
+
+        LazyFreeService.unlink(key);
+        switch (type) {
+            case 'L' -> RedisServer.listDataStore.put(key, list);
+            case 'X' -> RedisServer.streamDataStore.put(key, (RedisStream) binary);
+            case 'H' -> RedisServer.hyperLogLogDataStore.put(key, (HyperLogLog) binary);
+            case 'B' -> RedisServer.bloomFilterDataStore.put(key, (BloomFilter) binary);
+            case 'T' -> RedisServer.bitmapDataStore.put(key, (RedisBitmap) binary);
+            default -> RedisServer.dataStore.put(key, payload.substring(1));
+        }
+        if (ttlMillis > 0) {
+            RedisServer.keyExpiryTimes.put(key, System.currentTimeMillis() + ttlMillis);
+        }
+        RedisServer.numberOfKeysChanged++;
+        return null;
+    }
+
+    // Sends a payload taken with dump() to the target node as a RESTORE; returns "OK" or an error.
+    // Holds no locks: the caller dumps under the key's stripe and deletes under it again afterwards
+    public static String send(String host, int port, String key, String payload, long ttl, int timeoutMillis,
+                              boolean replace) {
+        try (RedisConnection connection = new RedisConnection(host, port, timeoutMillis)) {
+            // The target still routes the slot to us until the migration ends, ASKING lets RESTORE through
+            connection.executeCommand(List.of("ASKING"));
+            List<String> restore = replace
+                    ? List.of("RESTORE", key, String.valueOf(ttl), payload, "REPLACE")
+                    : List.of("RESTORE", key, String.valueOf(ttl), payload);
+            Object reply = connection.executeCommand(restore);
+            if (!"OK".equals(reply)) {
+                return "ERR Target instance replied with error: " + reply;
+            }
+        } catch (IOException e) {
+            return "IOERR error or timeout writing to target instance: " + e.getMessage();
+        }
+        return "OK";
+    }
+}
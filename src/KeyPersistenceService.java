@@ -1,80 +1,58 @@
 import java.io.*;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class KeyPersistenceService {
+    // Version 2 adds a section of typed values after the expiry times; version 1 files still load
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int READ_CHUNK_BYTES = 64 * 1024;
     private static Thread backgroundSaveThread;
     private static final AtomicBoolean saveThreadRunning = new AtomicBoolean(false);
+    static volatile long lastSaveTime = System.currentTimeMillis();
+    static volatile long lastSaveDurationMillis = -1;
+    static volatile boolean lastSaveSucceeded = true;
+    static volatile boolean saveInProgress = false;
+    private volatile ReplicationService replicationService;
+
+    // Its snapshot lock keeps writes out while the keyspace is written
+    public void setReplicationService(ReplicationService replicationService) {
+        this.replicationService = replicationService;
+    }
+
     // Method to save data to file
     public void saveDataToFile(String filename) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeInt(1); // Version
-            oos.writeLong(System.currentTimeMillis());
-
-            oos.writeInt(RedisServer.dataStore.size());
-            for (Map.Entry<String, String> entry : RedisServer.dataStore.entrySet()) {
-                oos.writeUTF("STRING");
-                oos.writeUTF(entry.getKey());
-                oos.writeUTF(entry.getValue());
-            }
-
-            oos.writeInt(RedisServer.listDataStore.size());
-            for (Map.Entry<String, LinkedList<String>> entry : RedisServer.listDataStore.entrySet()) {
-                oos.writeUTF("LIST");
-                oos.writeUTF(entry.getKey());
-                oos.writeObject(entry.getValue());
-            }
-
-            oos.writeInt(RedisServer.keyExpiryTimes.size());
-            for (Map.Entry<String, Long> entry : RedisServer.keyExpiryTimes.entrySet()) {
-                oos.writeUTF("EXPIRY");
-                oos.writeUTF(entry.getKey());
-                oos.writeLong(entry.getValue());
-            }
+        long start = System.currentTimeMillis();
+        saveInProgress = true;
+        try (FileOutputStream fos = new FileOutputStream(filename);
+             ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos))) {
+            writeLockedSnapshot(oos);
+            oos.flush();
+            long fsyncStart = System.currentTimeMillis();
+            fos.getFD().sync();
+            LatencyMonitor.addSampleIfNeeded("fsync", System.currentTimeMillis() - fsyncStart);
 
             System.out.println("Data saved to " + filename + " at " + new java.util.Date());
 
             RedisServer.numberOfKeysChanged = 0;
+            lastSaveTime = System.currentTimeMillis();
+            lastSaveSucceeded = true;
 
         } catch (IOException e) {
+            lastSaveSucceeded = false;
             System.err.println("Error saving data: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            lastSaveDurationMillis = System.currentTimeMillis() - start;
+            saveInProgress = false;
+            LatencyMonitor.addSampleIfNeeded("snapshot-save", lastSaveDurationMillis);
         }
     }
 
     public static void loadDataFromFile(String filename) {
         try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            // Read version and timestamp
-            int version = ois.readInt();
-            long timestamp = ois.readLong();
-
-            // Load main dataStore
-            int stringStoreSize = ois.readInt();
-            for (int i = 0; i < stringStoreSize; i++) {
-                String type = ois.readUTF();
-                String key = ois.readUTF();
-                String value = ois.readUTF();
-                RedisServer.dataStore.put(key, value);
-            }
-
-            // Load listDataStore
-            int listStoreSize = ois.readInt();
-            for (int i = 0; i < listStoreSize; i++) {
-                String type = ois.readUTF();
-                String key = ois.readUTF();
-                LinkedList<String> value = (LinkedList<String>) ois.readObject();
-                RedisServer.listDataStore.put(key, value);
-            }
-
-            // Load key expiry times
-            int expirySize = ois.readInt();
-            for (int i = 0; i < expirySize; i++) {
-                String type = ois.readUTF();
-                String key = ois.readUTF();
-                long expiryTime = ois.readLong();
-                RedisServer.keyExpiryTimes.put(key, expiryTime);
-            }
+            long timestamp = readSnapshot(ois);
 
             System.out.println("Data loaded from " + filename + " (saved at " + new java.util.Date(timestamp) + ")");
 
@@ -86,6 +64,131 @@ public class KeyPersistenceService {
         }
     }
 
+    // Without the lock a section's size could disagree with the records written after it, and a list could
+    // change while it is serialized
+    private void writeLockedSnapshot(ObjectOutputStream oos) throws IOException {
+        ReplicationService replication = replicationService;
+        if (replication != null) replication.beginSnapshot();
+        try {
+            writeSnapshot(oos);
+        } finally {
+            if (replication != null) replication.endSnapshot();
+        }
+    }
+
+    // Writes the whole keyspace; callers hold the snapshot lock. Also used to stream a full resync to a replica
+    static void writeSnapshot(ObjectOutputStream oos) throws IOException {
+        oos.writeInt(SNAPSHOT_VERSION);
+        oos.writeLong(System.currentTimeMillis());
+
+        oos.writeInt(RedisServer.dataStore.size());
+        for (Map.Entry<String, String> entry : RedisServer.dataStore.entrySet()) {
+            oos.writeUTF("STRING");
+            oos.writeUTF(entry.getKey());
+            oos.writeUTF(entry.getValue());
+        }
+
+        oos.writeInt(RedisServer.listDataStore.size());
+        for (Map.Entry<String, LinkedList<String>> entry : RedisServer.listDataStore.entrySet()) {
+            oos.writeUTF("LIST");
+            oos.writeUTF(entry.getKey());
+            oos.writeObject(entry.getValue());
+        }
+
+        oos.writeInt(RedisServer.keyExpiryTimes.size());
+        for (Map.Entry<String, Long> entry : RedisServer.keyExpiryTimes.entrySet()) {
+            oos.writeUTF("EXPIRY");
+            oos.writeUTF(entry.getKey());
+            oos.writeLong(entry.getValue());
+        }
+
+        oos.writeInt(RedisServer.streamDataStore.size() + RedisServer.hyperLogLogDataStore.size()
+                + RedisServer.bloomFilterDataStore.size() + RedisServer.bitmapDataStore.size());
+        for (Map.Entry<String, RedisStream> entry : RedisServer.streamDataStore.entrySet()) {
+            oos.writeUTF("STREAM");
+            oos.writeUTF(entry.getKey());
+            entry.getValue().writeTo(oos);
+        }
+        for (Map.Entry<String, HyperLogLog> entry : RedisServer.hyperLogLogDataStore.entrySet()) {
+            oos.writeUTF("HYPERLOGLOG");
+            oos.writeUTF(entry.getKey());
+            entry.getValue().writeTo(oos);
+        }
+        for (Map.Entry<String, BloomFilter> entry : RedisServer.bloomFilterDataStore.entrySet()) {
+            oos.writeUTF("BLOOM");
+            oos.writeUTF(entry.getKey());
+            entry.getValue().writeTo(oos);
+        }
+        for (Map.Entry<String, RedisBitmap> entry : RedisServer.bitmapDataStore.entrySet()) {
+            oos.writeUTF("BITMAP");
+            oos.writeUTF(entry.getKey());
+            entry.getValue().writeTo(oos);
+        }
+    }
+
+    // Loads a snapshot into the keyspace and returns the time it was taken
+    static long readSnapshot(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        // Read version and timestamp
+        int version = ois.readInt();
+        long timestamp = ois.readLong();
+
+        // Load main dataStore
+        int stringStoreSize = ois.readInt();
+        for (int i = 0; i < stringStoreSize; i++) {
+            String type = ois.readUTF();
+            String key = ois.readUTF();
+            String value = ois.readUTF();
+            RedisServer.dataStore.put(key, value);
+        }
+
+        // Load listDataStore
+        int listStoreSize = ois.readInt();
+        for (int i = 0; i < listStoreSize; i++) {
+            String type = ois.readUTF();
+            String key = ois.readUTF();
+            LinkedList<String> value = (LinkedList<String>) ois.readObject();
+            RedisServer.listDataStore.put(key, value);
+        }
+
+        // Load key expiry times
+        int expirySize = ois.readInt();
+        for (int i = 0; i < expirySize; i++) {
+            String type = ois.readUTF();
+            String key = ois.readUTF();
+            long expiryTime = ois.readLong();
+            RedisServer.keyExpiryTimes.put(key, expiryTime);
+        }
+
+        if (version >= 2) {
+            int typedSize = ois.readInt();
+            for (int i = 0; i < typedSize; i++) {
+                String type = ois.readUTF();
+                String key = ois.readUTF();
+                switch (type) {
+                    case "STREAM" -> RedisServer.streamDataStore.put(key, RedisStream.readFrom(ois));
+                    case "HYPERLOGLOG" -> RedisServer.hyperLogLogDataStore.put(key, HyperLogLog.readFrom(ois));
+                    case "BLOOM" -> RedisServer.bloomFilterDataStore.put(key, BloomFilter.readFrom(ois));
+                    case "BITMAP" -> RedisServer.bitmapDataStore.put(key, RedisBitmap.readFrom(ois));
+                    default -> throw new IOException("Unknown value type in snapshot: " + type);
+                }
+            }
+        }
+        return timestamp;
+    }
+
+    // Values read from snapshots and RESTORE payloads may be corrupt: bytes are read a chunk at a time, so a
+    // bogus length runs into the end of the input instead of allocating that many bytes up front
+    static byte[] readBytes(DataInput in, int length) throws IOException {
+        if (length < 0) throw new IOException("Invalid length " + length);
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK_BYTES)];
+        in.readFully(bytes);
+        while (bytes.length < length) {
+            int read = bytes.length;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, read * 2L));
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return bytes;
+    }
 
     public void startBackgroundSave(long intervalMs, long threshold) {
         stopBackgroundSave();
@@ -0,0 +1,65 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Version counters for keys under WATCH. Only watched keys have a counter, so signalling a write to any
+ * other key is a single failed lookup. Writers bump counters while holding the key's stripe lock, and EXEC
+ * compares them with the versions the client saw at WATCH time under the same locks.
+ */
+public class KeyVersions {
+    private static final class Version {
+        volatile long value;
+        int watchers;
+    }
+
+    private static final ConcurrentHashMap<String, Version> versions = new ConcurrentHashMap<>();
+
+    static void touch(String key) {
+        versions.computeIfPresent(key, (k, version) -> {
+            version.value++;
+            return version;
+        });
+    }
+
+    // FLUSHALL, full resync: every watched key may have changed
+    static void touchAll() {
+        versions.replaceAll((k, version) -> {
+            version.value++;
+            return version;
+        });
+    }
+
+    static void watch(ClientSession session, String key) {
+        if (session.watchedKeys == null) {
+            session.watchedKeys = new HashMap<>();
+        } else if (session.watchedKeys.containsKey(key)) {
+            return;
+        }
+        long[] seen = new long[1];
+        versions.compute(key, (k, version) -> {
+            if (version == null) version = new Version();
+            version.watchers++;
+            seen[0] = version.value;
+            return version;
+        });
+        session.watchedKeys.put(key, seen[0]);
+    }
+
+    static void unwatchAll(ClientSession session) {
+        if (session.watchedKeys == null) return;
+        for (String key : session.watchedKeys.keySet()) {
+            versions.computeIfPresent(key, (k, version) -> --version.watchers == 0 ? null : version);
+        }
+        session.watchedKeys = null;
+    }
+
+    static boolean isUnchanged(ClientSession session) {
+        if (session.watchedKeys == null) return true;
+        for (Map.Entry<String, Long> entry : session.watchedKeys.entrySet()) {
+            Version version = versions.get(entry.getKey());
+            if (version == null || version.value != entry.getValue()) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * The one place every keyspace modification is signalled: WATCH versions, client tracking invalidation
+ * and keyspace notifications (notify-keyspace-events) all hang off it.
+ */
+public class KeyspaceEvents {
+    private final PubSub pubSub;
+    private final ClientTracking clientTracking;
+
+    public KeyspaceEvents(PubSub pubSub, ClientTracking clientTracking) {
+        this.pubSub = pubSub;
+        this.clientTracking = clientTracking;
+    }
+
+    // origin is the client that made the change, null for expiry and replication
+    public void keyModified(String key, String event, ClientSession origin) {
+        KeyVersions.touch(key);
+        clientTracking.keyModified(key, origin);
+        int flags = ServerConfig.notifyKeyspaceEventFlags;
+        if (flags != 0 && (flags & eventClass(event)) != 0) {
+            if ((flags & ServerConfig.NOTIFY_KEYSPACE) != 0) pubSub.publish("__keyspace@0__:" + key, event);
+            if ((flags & ServerConfig.NOTIFY_KEYEVENT) != 0) pubSub.publish("__keyevent@0__:" + event, key);
+        }
+    }
+
+    public void allKeysModified() {
+        KeyVersions.touchAll();
+        clientTracking.allKeysModified();
+    }
+
+    // The event a write command raises for its keys, named as in Redis
+    static String eventFor(String cmd) {
+        return switch (cmd) {
+            case "UNLINK" -> "del";
+            case "INCR" -> "incrby";
+            case "DECR" -> "decrby";
+            case "BITOP" -> "set";
+            default -> cmd.toLowerCase();
+        };
+    }
+
+    private static int eventClass(String event) {
+        return switch (event) {
+            // HyperLogLogs are strings in Redis and raise string events
+            case "set", "incrby", "decrby", "setbit", "pfadd", "pfmerge" -> ServerConfig.NOTIFY_STRING;
+            case "lpush", "rpush" -> ServerConfig.NOTIFY_LIST;
+            case "xadd", "xtrim" -> ServerConfig.NOTIFY_STREAM;
+            case "expired" -> ServerConfig.NOTIFY_EXPIRED;
+            default -> ServerConfig.NOTIFY_GENERIC;
+        };
+    }
+}
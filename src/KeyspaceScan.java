@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Cursor-based iteration for SCAN. Each cursor id names a paused iterator over the keyspace maps, which are
+ * ConcurrentHashMaps: their weakly consistent iterators never fail on concurrent writes and return every key
+ * that is present for the whole scan exactly once. A call visits at most COUNT keys, so it never stalls others.
+ * Unlike Redis, cursors are server-side state, so a cursor id can outlive its iterator: past MAX_CURSORS the
+ * least recently used one is evicted, idle ones are evicted too, and a restart loses them all. An evicted cursor
+ * keeps only the keyspace map it had reached and resumes from the start of that map; an unknown id starts over.
+ * Either way SCAN never fails, and keys present for the whole scan are still returned, some perhaps twice,
+ * which SCAN allows.
+ */
+public class KeyspaceScan {
+    private static final int MAX_CURSORS = 1024;
+    private static final int MAX_EVICTED_CURSORS = 64 * 1024;
+    private static final long CURSOR_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+    record Result(long nextCursor, List<String> keys) {
+    }
+
+    private static class Cursor {
+        // One iterator per keyspace map of the requested type, walked in turn
+        final List<Iterator<String>> iterators = new ArrayList<>();
+        int current;
+        long lastUsed;
+
+        Cursor(String type, int store) {
+            for (Map.Entry<String, Map<String, ?>> entry : stores().entrySet()) {
+                if (type == null || type.equals(typeName(entry.getKey()))) iterators.add(entry.getValue().keySet().iterator());
+            }
+            current = Math.min(store, iterators.size());
+        }
+
+        String next() {
+            for (; current < iterators.size(); current++) {
+                if (iterators.get(current).hasNext()) return iterators.get(current).next();
+            }
+            return null;
+        }
+
+        boolean exhausted() {
+            for (int i = current; i < iterators.size(); i++) {
+                if (iterators.get(i).hasNext()) return false;
+            }
+            return true;
+        }
+    }
+
+    // In the order they were last used: a cursor is taken out while in use and put back at the end
+    private final Map<Long, Cursor> cursors = new LinkedHashMap<>();
+    // Evicted cursor ids and the keyspace map each had reached, also least recently used first
+    private final Map<Long, Integer> evicted = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+            return size() > MAX_EVICTED_CURSORS;
+        }
+    };
+
+    public Result scan(long cursorId, String pattern, int count, String type) {
+        Cursor cursor = null;
+        if (cursorId != 0) {
+            synchronized (cursors) {
+                // Taken out while in use so two clients sharing a cursor cannot advance it concurrently
+                cursor = cursors.remove(cursorId);
+                Integer store = cursor == null ? evicted.remove(cursorId) : null;
+                if (store != null) cursor = new Cursor(type, store);
+            }
+        }
+        if (cursor == null) {
+            cursor = new Cursor(type, 0);
+        }
+
+        List<String> keys = new ArrayList<>();
+        for (int visited = 0; visited < count; visited++) {
+            String key = cursor.next();
+            if (key == null) break;
+            if (pattern != null && !GlobPattern.matches(pattern, key)) continue;
+            if (isExpired(key)) continue;
+            keys.add(key);
+        }
+
+        if (cursor.exhausted()) {
+            return new Result(0, keys);
+        }
+        cursor.lastUsed = System.currentTimeMillis();
+        long nextId;
+        synchronized (cursors) {
+            evictCursors(cursor.lastUsed);
+            do {
+                nextId = ThreadLocalRandom.current().nextLong(1, Long.MAX_VALUE);
+            } while (cursors.containsKey(nextId) || evicted.containsKey(nextId));
+            cursors.put(nextId, cursor);
+        }
+        return new Result(nextId, keys);
+    }
+
+    // Eldest first: idle cursors, then the least recently used one if the table is still full
+    private void evictCursors(long now) {
+        Iterator<Map.Entry<Long, Cursor>> iterator = cursors.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Cursor> eldest = iterator.next();
+            if (cursors.size() < MAX_CURSORS && now - eldest.getValue().lastUsed <= CURSOR_IDLE_TIMEOUT_MS) break;
+            evicted.put(eldest.getKey(), eldest.getValue().current);
+            iterator.remove();
+        }
+    }
+
+    // KEYS walks everything in one call: a slow path kept for debugging, SCAN is the production way
+    public static List<String> keys(String pattern) {
+        List<String> keys = new ArrayList<>();
+        for (Map<String, ?> store : stores().values()) {
+            for (String key : store.keySet()) {
+                if (GlobPattern.matches(pattern, key) && !isExpired(key)) keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    public static long size() {
+        long size = 0;
+        for (Map<String, ?> store : stores().values()) size += store.size();
+        return size;
+    }
+
+    // The keyspace maps by name, which is the type name SCAN TYPE uses except for bitmaps and HyperLogLogs
+    // (see typeName);
+    // read afresh because FLUSHALL ASYNC swaps them
+    static Map<String, Map<String, ?>> stores() {
+        Map<String, Map<String, ?>> stores = new LinkedHashMap<>();
+        stores.put("string", RedisServer.dataStore);
+        stores.put("bitmap", RedisServer.bitmapDataStore);
+        stores.put("list", RedisServer.listDataStore);
+        stores.put("stream", RedisServer.streamDataStore);
+        stores.put("hyperloglog", RedisServer.hyperLogLogDataStore);
+        stores.put("bloom", RedisServer.bloomFilterDataStore);
+        return stores;
+    }
+
+    // The map holding the value at key, expired or not, null if there is none. Type checks need to tell
+    // HyperLogLogs apart, so this is not the name clients see (see typeName). Checked on every typed write,
+    // so it probes the maps directly instead of going through stores()
+    static String typeOf(String key) {
+        if (RedisServer.dataStore.containsKey(key) || RedisServer.bitmapDataStore.containsKey(key)) return "string";
+        if (RedisServer.listDataStore.containsKey(key)) return "list";
+        if (RedisServer.streamDataStore.containsKey(key)) return "stream";
+        if (RedisServer.hyperLogLogDataStore.containsKey(key)) return "hyperloglog";
+        if (RedisServer.bloomFilterDataStore.containsKey(key)) return "bloom";
+        return null;
+    }
+
+    // Bitmaps and HyperLogLogs are strings to clients, as in Redis, only stored apart
+    static String typeName(String store) {
+        return store.equals("bitmap") || store.equals("hyperloglog") ? "string" : store;
+    }
+
+    public static boolean exists(String key) {
+        return typeOf(key) != null;
+    }
+
+    private static boolean isExpired(String key) {
+        Long expiryTime = RedisServer.keyExpiryTimes.get(key);
+        return expiryTime != null && System.currentTimeMillis() > expiryTime;
+    }
+}
@@ -0,0 +1,92 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class LatencyMonitor {
+    private static final int HISTORY_LENGTH = 160;
+    private static final Map<String, EventHistory> events = new LinkedHashMap<>();
+
+    static class EventHistory {
+        final long[] times = new long[HISTORY_LENGTH];
+        final long[] latencies = new long[HISTORY_LENGTH];
+        int next = 0;
+        int size = 0;
+        long max = 0;
+
+        // Samples within the same second are merged, keeping the worst one
+        void add(long timeSeconds, long latencyMillis) {
+            int last = (next + HISTORY_LENGTH - 1) % HISTORY_LENGTH;
+            if (size > 0 && times[last] == timeSeconds) {
+                latencies[last] = Math.max(latencies[last], latencyMillis);
+            } else {
+                times[next] = timeSeconds;
+                latencies[next] = latencyMillis;
+                next = (next + 1) % HISTORY_LENGTH;
+                size = Math.min(size + 1, HISTORY_LENGTH);
+            }
+            max = Math.max(max, latencyMillis);
+        }
+
+        long latestTime() {
+            return times[(next + HISTORY_LENGTH - 1) % HISTORY_LENGTH];
+        }
+
+        long latestLatency() {
+            return latencies[(next + HISTORY_LENGTH - 1) % HISTORY_LENGTH];
+        }
+    }
+
+    public static void addSampleIfNeeded(String event, long latencyMillis) {
+        long threshold = ServerConfig.latencyMonitorThreshold;
+        if (threshold == 0 || latencyMillis < threshold) {
+            return;
+        }
+        synchronized (events) {
+            events.computeIfAbsent(event, e -> new EventHistory()).add(System.currentTimeMillis() / 1000, latencyMillis);
+        }
+    }
+
+    // Each row is {event, latest time, latest latency, all-time max}
+    public static Object[][] latest() {
+        synchronized (events) {
+            Object[][] rows = new Object[events.size()][];
+            int i = 0;
+            for (Map.Entry<String, EventHistory> entry : events.entrySet()) {
+                EventHistory history = entry.getValue();
+                rows[i++] = new Object[]{entry.getKey(), history.latestTime(), history.latestLatency(), history.max};
+            }
+            return rows;
+        }
+    }
+
+    // Each row is {time, latency}, oldest first
+    public static long[][] history(String event) {
+        synchronized (events) {
+            EventHistory history = events.get(event);
+            if (history == null) {
+                return new long[0][];
+            }
+            long[][] rows = new long[history.size][];
+            int start = (history.next + HISTORY_LENGTH - history.size) % HISTORY_LENGTH;
+            for (int i = 0; i < history.size; i++) {
+                int index = (start + i) % HISTORY_LENGTH;
+                rows[i] = new long[]{history.times[index], history.latencies[index]};
+            }
+            return rows;
+        }
+    }
+
+    public static int reset(String[] eventNames) {
+        synchronized (events) {
+            if (eventNames.length == 0) {
+                int count = events.size();
+                events.clear();
+                return count;
+            }
+            int count = 0;
+            for (String event : eventNames) {
+                if (events.remove(event) != null) count++;
+            }
+            return count;
+        }
+    }
+}
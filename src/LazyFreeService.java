@@ -0,0 +1,121 @@
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Background reclamation of large detached values (UNLINK, FLUSHALL ASYNC, expiry).
+ * Detaching is O(1) on the request path; the worker then clears the structure piece by piece, so the
+ * O(n) unlinking of millions of nodes, and the old-to-young references that make a dead graph expensive
+ * for a generational GC, never land on a handler thread.
+ */
+public class LazyFreeService {
+    // Values with at most this many elements are cheaper to drop inline than to hand over
+    static final int LAZYFREE_THRESHOLD = 64;
+
+    private static final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<>();
+    static final AtomicLong pendingObjects = new AtomicLong();
+    static final LongAdder freedObjects = new LongAdder();
+
+    static {
+        Thread worker = new Thread(LazyFreeService::drain, "lazyfree");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    // Takes ownership of a value that is no longer reachable from the keyspace
+    public static void free(Object value) {
+        if (value instanceof Collection<?> collection && collection.size() > LAZYFREE_THRESHOLD
+                || value instanceof RedisStream stream && stream.length() > LAZYFREE_THRESHOLD) {
+            enqueue(value);
+        }
+    }
+
+    // Removes a key of any type; large values are reclaimed in the background. Returns whether it existed.
+    public static boolean unlink(String key) {
+        boolean existed = RedisServer.dataStore.remove(key) != null;
+        LinkedList<String> list = RedisServer.listDataStore.remove(key);
+        RedisStream stream = RedisServer.streamDataStore.remove(key);
+        // Sketches are flat arrays, nothing to reclaim piece by piece
+        existed |= RedisServer.hyperLogLogDataStore.remove(key) != null;
+        existed |= RedisServer.bloomFilterDataStore.remove(key) != null;
+        existed |= RedisServer.bitmapDataStore.remove(key) != null;
+        RedisServer.keyExpiryTimes.remove(key);
+        if (list != null) {
+            free(list);
+            existed = true;
+        }
+        if (stream != null) {
+            free(stream);
+            existed = true;
+        }
+        return existed;
+    }
+
+    // FLUSHALL/FLUSHDB: async swaps in empty maps and reclaims the old ones off-thread
+    public static void flushKeyspace(boolean async) {
+        if (!async) {
+            RedisServer.dataStore.clear();
+            RedisServer.listDataStore.clear();
+            RedisServer.streamDataStore.clear();
+            RedisServer.hyperLogLogDataStore.clear();
+            RedisServer.bloomFilterDataStore.clear();
+            RedisServer.bitmapDataStore.clear();
+            RedisServer.keyExpiryTimes.clear();
+            return;
+        }
+        Map<String, String> strings = RedisServer.dataStore;
+        Map<String, LinkedList<String>> lists = RedisServer.listDataStore;
+        Map<String, RedisStream> streams = RedisServer.streamDataStore;
+        Map<String, HyperLogLog> hyperLogLogs = RedisServer.hyperLogLogDataStore;
+        Map<String, BloomFilter> bloomFilters = RedisServer.bloomFilterDataStore;
+        Map<String, RedisBitmap> bitmaps = RedisServer.bitmapDataStore;
+        Map<String, Long> expiries = RedisServer.keyExpiryTimes;
+        RedisServer.dataStore = new ConcurrentHashMap<>();
+        RedisServer.listDataStore = new ConcurrentHashMap<>();
+        RedisServer.streamDataStore = new ConcurrentHashMap<>();
+        RedisServer.hyperLogLogDataStore = new ConcurrentHashMap<>();
+        RedisServer.bloomFilterDataStore = new ConcurrentHashMap<>();
+        RedisServer.bitmapDataStore = new ConcurrentHashMap<>();
+        RedisServer.keyExpiryTimes = new ConcurrentHashMap<>();
+        enqueue(strings);
+        enqueue(lists);
+        enqueue(streams);
+        enqueue(hyperLogLogs);
+        enqueue(bloomFilters);
+        enqueue(bitmaps);
+        enqueue(expiries);
+    }
+
+    private static void enqueue(Object value) {
+        pendingObjects.incrementAndGet();
+        queue.add(value);
+    }
+
+    private static void drain() {
+        while (true) {
+            Object value;
+            try {
+                value = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (value instanceof Map<?, ?> map) {
+                for (Object element : map.values()) {
+                    if (element instanceof Collection<?> collection) collection.clear();
+                    else if (element instanceof RedisStream stream) stream.clear();
+                }
+                map.clear();
+            } else if (value instanceof Collection<?> collection) {
+                collection.clear();
+            } else if (value instanceof RedisStream stream) {
+                stream.clear();
+            }
+            pendingObjects.decrementAndGet();
+            freedObjects.increment();
+        }
+    }
+}
@@ -0,0 +1,237 @@
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Replica-side link: handshakes with the master, loads the full resync snapshot if one is sent,
+ * then applies the command stream while tracking the replication offset for partial resyncs.
+ */
+public class MasterConnection {
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long ACK_PERIOD_MS = 1000;
+
+    private final String host;
+    private final int port;
+    private final CommandExecutor commandExecutor;
+    private final ReplicationService replicationService;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private volatile boolean linkUp = false;
+    private volatile long lastInteraction = 0;
+    // Survive reconnects so a brief outage can be repaired with PSYNC <replid> <offset>
+    private volatile String masterReplicationId = "?";
+    private volatile long offset = -1;
+
+    public MasterConnection(String host, int port, CommandExecutor commandExecutor, ReplicationService replicationService) {
+        this.host = host;
+        this.port = port;
+        this.commandExecutor = commandExecutor;
+        this.replicationService = replicationService;
+        this.thread = new Thread(this::run, "master-link");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        closeSocket();
+    }
+
+    private void run() {
+        while (running) {
+            try (Socket masterSocket = new Socket(host, port)) {
+                socket = masterSocket;
+                CountingInputStream input = new CountingInputStream(new BufferedInputStream(masterSocket.getInputStream()));
+                OutputStream output = masterSocket.getOutputStream();
+                handshake(input, output);
+                linkUp = true;
+                startAcks(output);
+                applyStream(input);
+            } catch (IOException | ClassNotFoundException e) {
+                if (running) {
+                    System.err.println("Master link error: " + e.getMessage());
+                }
+            } finally {
+                linkUp = false;
+                socket = null;
+            }
+            try {
+                Thread.sleep(RETRY_DELAY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void handshake(CountingInputStream input, OutputStream output) throws IOException, ClassNotFoundException {
+        sendCommand(output, "PING");
+        expectReply(input, "+PONG");
+        sendCommand(output, "REPLCONF", "listening-port", String.valueOf(ServerConfig.port));
+        expectReply(input, "+OK");
+        sendCommand(output, "PSYNC", masterReplicationId, String.valueOf(offset));
+
+        String reply = readLine(input);
+        if (reply.startsWith("+FULLRESYNC ")) {
+            String[] parts = reply.split(" ");
+            String header = readLine(input);
+            if (!header.startsWith("$")) {
+                throw new IOException("Expected snapshot length but got '" + header + "'");
+            }
+            byte[] snapshot = input.readNBytes(Integer.parseInt(header.substring(1)));
+            loadSnapshot(snapshot);
+            masterReplicationId = parts[1];
+            offset = Long.parseLong(parts[2]);
+            System.out.println("Full resync from " + host + ":" + port + " done: " + snapshot.length + " bytes, offset " + offset);
+        } else if (reply.equals("+CONTINUE")) {
+            System.out.println("Partial resync from " + host + ":" + port + " continuing at offset " + offset);
+        } else {
+            throw new IOException("Unexpected PSYNC reply '" + reply + "'");
+        }
+        lastInteraction = System.currentTimeMillis();
+    }
+
+    private void loadSnapshot(byte[] snapshot) throws IOException, ClassNotFoundException {
+        LazyFreeService.flushKeyspace(true);
+        commandExecutor.onFullResync();
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(snapshot))) {
+            KeyPersistenceService.readSnapshot(ois);
+        }
+        replicationService.onFullResyncLoaded();
+    }
+
+    private void applyStream(CountingInputStream input) throws IOException {
+        while (running) {
+            long before = input.getCount();
+            String[] command = readCommand(input);
+            if (command == null) {
+                throw new EOFException("Master closed the connection");
+            }
+            commandExecutor.executeReplicated(command);
+            offset += input.getCount() - before;
+            lastInteraction = System.currentTimeMillis();
+        }
+    }
+
+    private void startAcks(OutputStream output) {
+        Thread ackThread = new Thread(() -> {
+            while (linkUp && running) {
+                try {
+                    Thread.sleep(ACK_PERIOD_MS);
+                    sendCommand(output, "REPLCONF", "ACK", String.valueOf(offset));
+                } catch (InterruptedException | IOException e) {
+                    return;
+                }
+            }
+        }, "master-ack");
+        ackThread.setDaemon(true);
+        ackThread.start();
+    }
+
+    private String[] readCommand(CountingInputStream input) throws IOException {
+        String header = readLine(input);
+        if (header == null) return null;
+        if (!header.startsWith("*")) {
+            throw new IOException("Protocol error in replication stream: '" + header + "'");
+        }
+        String[] command = new String[Integer.parseInt(header.substring(1))];
+        for (int i = 0; i < command.length; i++) {
+            String bulkHeader = readLine(input);
+            if (bulkHeader == null || !bulkHeader.startsWith("$")) {
+                throw new IOException("Protocol error in replication stream: expected '$'");
+            }
+            byte[] data = input.readNBytes(Integer.parseInt(bulkHeader.substring(1)));
+            command[i] = new String(data, StandardCharsets.UTF_8);
+            readLine(input); // Consume CRLF
+        }
+        return command;
+    }
+
+    private static void expectReply(InputStream input, String expected) throws IOException {
+        String reply = readLine(input);
+        if (!expected.equals(reply)) {
+            throw new IOException("Expected '" + expected + "' from master but got '" + reply + "'");
+        }
+    }
+
+    private static String readLine(InputStream input) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = input.read()) != -1) {
+            if (c == '\r') {
+                input.read(); // LF
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.isEmpty() ? null : sb.toString();
+    }
+
+    private static void sendCommand(OutputStream output, String... command) throws IOException {
+        synchronized (output) {
+            output.write(ReplicationService.encodeCommand(command));
+            output.flush();
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                System.err.println("Error closing master link: " + e.getMessage());
+            }
+        }
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public boolean isLinkUp() {
+        return linkUp;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLastInteraction() {
+        return lastInteraction;
+    }
+
+    static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves GET /metrics in the Prometheus text exposition format.
+ * Rendering runs on its own thread and only reads counters, so scrapes never hold up command threads.
+ */
+public class MetricsHttpServer {
+    private HttpServer httpServer;
+
+    public void start(int port) throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/metrics", this::handleMetrics);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.start();
+        System.out.println("Metrics endpoint started on port " + port);
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        byte[] body = render().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    String render() {
+        StringBuilder sb = new StringBuilder(4096);
+
+        header(sb, "redis_uptime_seconds", "gauge", "Seconds since the server started.");
+        sample(sb, "redis_uptime_seconds", "", (System.currentTimeMillis() - ServerStats.startTimeMillis) / 1000);
+
+        header(sb, "redis_connected_clients", "gauge", "Number of client connections currently open.");
+        sample(sb, "redis_connected_clients", "", ServerStats.connectedClients.get());
+        header(sb, "redis_connections_received_total", "counter", "Total client connections accepted.");
+        sample(sb, "redis_connections_received_total", "", ServerStats.totalConnectionsReceived.sum());
+
+        header(sb, "redis_commands_processed_total", "counter", "Total commands processed, including unknown ones.");
+        sample(sb, "redis_commands_processed_total", "", ServerStats.totalCommandsProcessed.sum());
+
+        header(sb, "redis_command_duration_seconds", "histogram", "Command execution time by command.");
+        for (CommandInfo info : CommandTable.all()) {
+            long calls = info.getCalls();
+            if (calls == 0) continue;
+            String cmd = info.getName().toLowerCase();
+            long[] buckets = info.getLatencyBuckets();
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i];
+                String le = i < CommandInfo.LATENCY_BUCKETS_MICROS.length
+                        ? seconds(CommandInfo.LATENCY_BUCKETS_MICROS[i]) : "+Inf";
+                sample(sb, "redis_command_duration_seconds_bucket", "cmd=\"" + cmd + "\",le=\"" + le + "\"", cumulative);
+            }
+            sb.append("redis_command_duration_seconds_sum{cmd=\"").append(cmd).append("\"} ")
+                    .append(seconds(info.getMicroseconds())).append('\n');
+            sample(sb, "redis_command_duration_seconds_count", "cmd=\"" + cmd + "\"", cumulative);
+        }
+
+        header(sb, "redis_keyspace_keys", "gauge", "Number of keys by value type.");
+        for (Map.Entry<String, Map<String, ?>> store : KeyspaceScan.stores().entrySet()) {
+            sample(sb, "redis_keyspace_keys", "type=\"" + store.getKey() + "\"", store.getValue().size());
+        }
+        header(sb, "redis_keyspace_keys_with_expiry", "gauge", "Number of keys with a time to live.");
+        sample(sb, "redis_keyspace_keys_with_expiry", "", RedisServer.keyExpiryTimes.size());
+        header(sb, "redis_keyspace_hits_total", "counter", "Successful key lookups.");
+        sample(sb, "redis_keyspace_hits_total", "", ServerStats.keyspaceHits.sum());
+        header(sb, "redis_keyspace_misses_total", "counter", "Failed key lookups.");
+        sample(sb, "redis_keyspace_misses_total", "", ServerStats.keyspaceMisses.sum());
+        header(sb, "redis_expired_keys_total", "counter", "Keys removed because their time to live passed.");
+        sample(sb, "redis_expired_keys_total", "", ServerStats.expiredKeys.sum());
+
+        header(sb, "redis_snapshot_in_progress", "gauge", "1 while a snapshot is being written.");
+        sample(sb, "redis_snapshot_in_progress", "", KeyPersistenceService.saveInProgress ? 1 : 0);
+        header(sb, "redis_snapshot_last_duration_seconds", "gauge", "Duration of the last snapshot save.");
+        sb.append("redis_snapshot_last_duration_seconds ")
+                .append(KeyPersistenceService.lastSaveDurationMillis < 0 ? "NaN" : KeyPersistenceService.lastSaveDurationMillis / 1000.0)
+                .append('\n');
+        header(sb, "redis_snapshot_last_success", "gauge", "1 if the last snapshot save succeeded.");
+        sample(sb, "redis_snapshot_last_success", "", KeyPersistenceService.lastSaveSucceeded ? 1 : 0);
+        header(sb, "redis_snapshot_changes_since_last_save", "gauge", "Key changes not yet in a snapshot.");
+        sample(sb, "redis_snapshot_changes_since_last_save", "", RedisServer.numberOfKeysChanged);
+
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, long value) {
+        sb.append(name);
+        if (!labels.isEmpty()) {
+            sb.append('{').append(labels).append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return BigDecimal.valueOf(micros, 6).stripTrailingZeros().toPlainString();
+    }
+}
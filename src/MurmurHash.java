@@ -0,0 +1,37 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * MurmurHash64A, the 64-bit hash Redis uses for HyperLogLog, shared by HyperLogLog and BloomFilter.
+ */
+public class MurmurHash {
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    static long hash64(byte[] data, long seed) {
+        int length = data.length;
+        long h = seed ^ (length * M);
+        int end = length & ~7;
+        for (int i = 0; i < end; i += 8) {
+            long k = (long) LONG_LE.get(data, i);
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+        int tail = length & 7;
+        if (tail > 0) {
+            for (int i = tail - 1; i >= 0; i--) {
+                h ^= (long) (data[end + i] & 0xff) << (8 * i);
+            }
+            h *= M;
+        }
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What a running procedure sees of the server: command execution restricted to its declared keys.
+ * Writes are collected so they reach the replicas as their effects, and replicas never need the procedure.
+ */
+public class ProcedureContext {
+    private final CommandExecutor commandExecutor;
+    private final ClientSession session;
+    private final Set<String> declaredKeys;
+    private final boolean readOnly;
+    private final List<String[]> writes = new ArrayList<>();
+
+    ProcedureContext(CommandExecutor commandExecutor, ClientSession session, List<String> keys, boolean readOnly) {
+        this.commandExecutor = commandExecutor;
+        this.session = session;
+        this.declaredKeys = new HashSet<>(keys);
+        this.readOnly = readOnly;
+    }
+
+    // Runs a command and returns its reply as String, Long, List or null; error replies are thrown
+    public Object call(String... command) throws ProcedureException {
+        if (command.length == 0) {
+            throw new ProcedureException("ERR Please specify at least one argument for this call");
+        }
+        byte[] reply = commandExecutor.callFromProcedure(this, command);
+        try {
+            return parseReply(reply, new int[1]);
+        } catch (IOException e) {
+            throw new ProcedureException("ERR " + e.getMessage());
+        }
+    }
+
+    ClientSession getSession() {
+        return session;
+    }
+
+    boolean isDeclaredKey(String key) {
+        return declaredKeys.contains(key);
+    }
+
+    boolean isReadOnly() {
+        return readOnly;
+    }
+
+    void recordWrite(String[] command) {
+        writes.add(command);
+    }
+
+    List<String[]> getWrites() {
+        return writes;
+    }
+
+    private static Object parseReply(byte[] reply, int[] position) throws ProcedureException, IOException {
+        char type = (char) reply[position[0]++];
+        String line = readLine(reply, position);
+        switch (type) {
+            case '+':
+                return line;
+            case '-':
+                throw new ProcedureException(line);
+            case ':':
+                return Long.parseLong(line);
+            case '$': {
+                int length = Integer.parseInt(line);
+                if (length < 0) return null;
+                String value = new String(reply, position[0], length, StandardCharsets.UTF_8);
+                position[0] += length + 2;
+                return value;
+            }
+            case '*': {
+                int count = Integer.parseInt(line);
+                if (count < 0) return null;
+                List<Object> elements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    elements.add(parseReply(reply, position));
+                }
+                return elements;
+            }
+            default:
+                throw new IOException("unexpected reply type '" + type + "'");
+        }
+    }
+
+    private static String readLine(byte[] reply, int[] position) {
+        int start = position[0];
+        int end = start;
+        while (reply[end] != '\r') end++;
+        position[0] = end + 2;
+        return new String(reply, start, end - start, StandardCharsets.UTF_8);
+    }
+}
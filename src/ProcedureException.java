@@ -0,0 +1,10 @@
+/**
+ * An error reply raised by or inside a procedure; the message is sent as is, so it starts with an error code.
+ */
+public class ProcedureException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public ProcedureException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Channel and pattern subscriptions. PUBLISH encodes a message once per channel (and once per matching
+ * pattern) and hands the same byte[] to every subscriber's queue.
+ */
+public class PubSub {
+    static final LongAdder outputBufferDisconnections = new LongAdder();
+
+    private final Map<String, Set<PubSubSubscriber>> channels = new ConcurrentHashMap<>();
+    private final Map<String, Set<PubSubSubscriber>> patterns = new ConcurrentHashMap<>();
+
+    // Returns false when the subscriber was already subscribed
+    public boolean subscribe(PubSubSubscriber subscriber, String channel) {
+        if (!subscriber.channels.add(channel)) return false;
+        add(channels, channel, subscriber);
+        return true;
+    }
+
+    public boolean unsubscribe(PubSubSubscriber subscriber, String channel) {
+        if (!subscriber.channels.remove(channel)) return false;
+        remove(channels, channel, subscriber);
+        return true;
+    }
+
+    public boolean psubscribe(PubSubSubscriber subscriber, String pattern) {
+        if (!subscriber.patterns.add(pattern)) return false;
+        add(patterns, pattern, subscriber);
+        return true;
+    }
+
+    public boolean punsubscribe(PubSubSubscriber subscriber, String pattern) {
+        if (!subscriber.patterns.remove(pattern)) return false;
+        remove(patterns, pattern, subscriber);
+        return true;
+    }
+
+    public void unsubscribeAll(PubSubSubscriber subscriber) {
+        for (String channel : subscriber.channels) remove(channels, channel, subscriber);
+        for (String pattern : subscriber.patterns) remove(patterns, pattern, subscriber);
+        subscriber.channels.clear();
+        subscriber.patterns.clear();
+    }
+
+    // Returns the number of clients that received the message
+    public int publish(String channel, String message) {
+        int receivers = 0;
+        Set<PubSubSubscriber> subscribers = channels.get(channel);
+        if (subscribers != null && !subscribers.isEmpty()) {
+            byte[] encoded = encode("message", channel, message);
+            for (PubSubSubscriber subscriber : subscribers) {
+                subscriber.send(encoded);
+                receivers++;
+            }
+        }
+        for (Map.Entry<String, Set<PubSubSubscriber>> entry : patterns.entrySet()) {
+            if (!GlobPattern.matches(entry.getKey(), channel)) continue;
+            byte[] encoded = encode("pmessage", entry.getKey(), channel, message);
+            for (PubSubSubscriber subscriber : entry.getValue()) {
+                subscriber.send(encoded);
+                receivers++;
+            }
+        }
+        return receivers;
+    }
+
+    public List<String> activeChannels(String pattern) {
+        List<String> names = new ArrayList<>();
+        for (String channel : channels.keySet()) {
+            if (pattern == null || GlobPattern.matches(pattern, channel)) names.add(channel);
+        }
+        return names;
+    }
+
+    public int subscriberCount(String channel) {
+        Set<PubSubSubscriber> subscribers = channels.get(channel);
+        return subscribers == null ? 0 : subscribers.size();
+    }
+
+    public int channelCount() {
+        return channels.size();
+    }
+
+    public int patternCount() {
+        return patterns.size();
+    }
+
+    // [subscribe|unsubscribe|psubscribe|punsubscribe, name, subscription count]
+    static byte[] encodeConfirmation(String kind, String name, int count) {
+        byte[] elements = encode(kind, name);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(elements.length + 16);
+        out.writeBytes("*3".getBytes(StandardCharsets.US_ASCII));
+        out.write(elements, 2, elements.length - 2);
+        out.writeBytes((":" + count + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    // A RESP array of bulk strings; null elements become null bulk strings
+    static byte[] encode(String... elements) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+        out.writeBytes(("*" + elements.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (String element : elements) {
+            if (element == null) {
+                out.writeBytes("$-1\r\n".getBytes(StandardCharsets.US_ASCII));
+                continue;
+            }
+            byte[] bytes = element.getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(bytes);
+            out.writeBytes(new byte[]{'\r', '\n'});
+        }
+        return out.toByteArray();
+    }
+
+    private static void add(Map<String, Set<PubSubSubscriber>> index, String name, PubSubSubscriber subscriber) {
+        index.compute(name, (k, subscribers) -> {
+            if (subscribers == null) subscribers = ConcurrentHashMap.newKeySet();
+            subscribers.add(subscriber);
+            return subscribers;
+        });
+    }
+
+    private static void remove(Map<String, Set<PubSubSubscriber>> index, String name, PubSubSubscriber subscriber) {
+        index.computeIfPresent(name, (k, subscribers) -> {
+            subscribers.remove(subscriber);
+            return subscribers.isEmpty() ? null : subscribers;
+        });
+    }
+}
@@ -0,0 +1,127 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Output side of a subscribed client. Publishers only enqueue shared, pre-encoded messages; a small pool of
+ * writer threads shared by all subscribers drains them to the sockets, a batch at a time so one busy client
+ * cannot hold a writer. The queue is the client's output buffer and is bounded by client-output-buffer-limit:
+ * over the hard limit, or over the soft limit for longer than the soft period, the client is disconnected
+ * instead of letting one slow consumer grow the heap (which also frees a writer blocked on its socket).
+ * After the last unsubscribe the client's handler retires it and replies go straight to the socket again.
+ */
+public class PubSubSubscriber {
+    private static final int WRITER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int BATCH_MESSAGES = 64;
+    private static final ExecutorService writers = Executors.newFixedThreadPool(WRITER_THREADS, task -> {
+        Thread thread = new Thread(task, "pubsub-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final OutputStream outputStream;
+    private final Closeable connection;
+    private final ConcurrentLinkedQueue<byte[]> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    // Set while a drain is submitted or running, so each subscriber has at most one
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed = false;
+    private volatile boolean retired = false;
+    private volatile long softLimitSince = 0;
+    // Only touched by the client's own handler thread
+    final Set<String> channels = new HashSet<>();
+    final Set<String> patterns = new HashSet<>();
+
+    public PubSubSubscriber(OutputStream outputStream, Closeable connection) {
+        this.outputStream = outputStream;
+        this.connection = connection;
+    }
+
+    public void send(byte[] data) {
+        if (closed || retired) return;
+        long pending = pendingBytes.addAndGet(data.length);
+        queue.add(data);
+        if (draining.compareAndSet(false, true)) writers.execute(this::drain);
+        if (ServerConfig.pubsubHardLimit > 0 && pending > ServerConfig.pubsubHardLimit) {
+            disconnect("hard", pending);
+        } else if (ServerConfig.pubsubSoftLimit > 0 && pending > ServerConfig.pubsubSoftLimit) {
+            long now = System.currentTimeMillis();
+            if (softLimitSince == 0) {
+                softLimitSince = now;
+            } else if (now - softLimitSince > ServerConfig.pubsubSoftSeconds * 1000) {
+                disconnect("soft", pending);
+            }
+        } else {
+            softLimitSince = 0;
+        }
+    }
+
+    private void disconnect(String limit, long pending) {
+        System.err.println("Disconnecting pubsub client over the " + limit + " output buffer limit (" + pending + " bytes pending)");
+        PubSub.outputBufferDisconnections.increment();
+        close();
+    }
+
+    private void drain() {
+        try {
+            synchronized (this) {
+                if (closed || retired) {
+                    queue.clear();
+                } else {
+                    writeQueued(BATCH_MESSAGES);
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) System.err.println("Pubsub client lost: " + e.getMessage());
+            close();
+        }
+        draining.set(false);
+        // Messages left past the batch, or queued after it but before the flag was cleared
+        if (!queue.isEmpty() && !closed && !retired && draining.compareAndSet(false, true)) writers.execute(this::drain);
+    }
+
+    // Callers hold the monitor, so a drain and retire() never write at the same time
+    private void writeQueued(int limit) throws IOException {
+        byte[] data;
+        for (int n = 0; n < limit && (data = queue.poll()) != null; n++) {
+            outputStream.write(data);
+            pendingBytes.addAndGet(-data.length);
+        }
+        outputStream.flush();
+    }
+
+    // Called by the client's handler once it has no channel or pattern left: what is queued is written out
+    // before the handler replies directly again, and messages still racing in from publishers are dropped
+    public synchronized void retire() throws IOException {
+        retired = true;
+        if (!closed) writeQueued(Integer.MAX_VALUE);
+    }
+
+    // Closes the socket rather than the buffered stream: that unblocks a writer stuck on a full socket
+    // and ends the client's handler loop, which then runs the session cleanup
+    public void close() {
+        if (closed) return;
+        closed = true;
+        queue.clear();
+        try {
+            connection.close();
+        } catch (IOException e) {
+            System.err.println("Error closing pubsub client: " + e.getMessage());
+        }
+    }
+
+    public int subscriptionCount() {
+        return channels.size() + patterns.size();
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.List;
+
+/**
+ * Fixed-window rate limiter: FCALL ratelimit 1 key limit window-millis
+ * Replies [allowed (1/0), requests counted in the current window].
+ */
+public class RateLimitProcedure implements ServerProcedure {
+    @Override
+    public String getName() {
+        return "ratelimit";
+    }
+
+    @Override
+    public Object call(ProcedureContext context, List<String> keys, List<String> args) throws ProcedureException {
+        if (keys.size() != 1 || args.size() != 2) {
+            throw new ProcedureException("ERR usage: FCALL ratelimit 1 key limit window-millis");
+        }
+        long limit;
+        long windowMillis;
+        try {
+            limit = Long.parseLong(args.get(0));
+            windowMillis = Long.parseLong(args.get(1));
+        } catch (NumberFormatException e) {
+            throw new ProcedureException("ERR limit and window must be integers");
+        }
+        if (windowMillis <= 0) {
+            throw new ProcedureException("ERR window must be positive");
+        }
+        String key = keys.get(0);
+        long count = (Long) context.call("INCR", key);
+        if (count == 1) {
+            // First request of a window starts its clock
+            context.call("SET", key, "1", "PX", String.valueOf(windowMillis));
+        }
+        return List.of(count <= limit ? 1L : 0L, count);
+    }
+}
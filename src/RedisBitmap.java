@@ -0,0 +1,176 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A string value written by SETBIT, kept as a bitmap so bit commands work a word at a time.
+ * Bytes are packed big-endian into longs, so bit offset n (the most significant bit of byte 0 is offset 0,
+ * as in Redis) is bit 63 - n % 64 of word n / 64. BITCOUNT is then Long.bitCount per word, which the JIT
+ * turns into POPCNT, BITPOS is Long.numberOfLeadingZeros on the first word that has the bit, and BITOP
+ * combines whole words. Bytes past length are always zero. Methods are synchronized so snapshots can read
+ * a value in use.
+ */
+public class RedisBitmap {
+    // 512MB, the largest string Redis allows
+    static final long MAX_BITS = 1L << 32;
+    private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    enum Op { AND, OR, XOR, NOT }
+
+    private long[] words;
+    private int length;
+
+    public RedisBitmap() {
+        this.words = new long[1];
+    }
+
+    private RedisBitmap(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+    }
+
+    // The bitmap view of a plain string value's bytes
+    public static RedisBitmap fromBytes(byte[] bytes) {
+        RedisBitmap bitmap = new RedisBitmap(new long[Math.max(1, wordsFor(bytes.length))], bytes.length);
+        int whole = bytes.length >>> 3;
+        for (int i = 0; i < whole; i++) {
+            bitmap.words[i] = (long) LONG_BE.get(bytes, i << 3);
+        }
+        for (int i = whole << 3; i < bytes.length; i++) {
+            bitmap.words[whole] |= (bytes[i] & 0xffL) << (56 - 8 * (i & 7));
+        }
+        return bitmap;
+    }
+
+    public synchronized byte[] toBytes() {
+        byte[] bytes = new byte[length];
+        int whole = length >>> 3;
+        for (int i = 0; i < whole; i++) {
+            LONG_BE.set(bytes, i << 3, words[i]);
+        }
+        for (int i = whole << 3; i < length; i++) {
+            bytes[i] = (byte) (words[whole] >>> (56 - 8 * (i & 7)));
+        }
+        return bytes;
+    }
+
+    // Length in bytes, as STRLEN would report it
+    public synchronized int length() {
+        return length;
+    }
+
+    public synchronized int getBit(long offset) {
+        if (offset >= length * 8L) return 0;
+        return (int) (words[(int) (offset >>> 6)] >>> (63 - (offset & 63))) & 1;
+    }
+
+    // Grows the value to cover offset; returns the previous bit
+    public synchronized int setBit(long offset, int value) {
+        int bytes = (int) (offset >>> 3) + 1;
+        if (bytes > length) {
+            int wanted = wordsFor(bytes);
+            if (wanted > words.length) words = Arrays.copyOf(words, Math.max(wanted, Math.min(words.length * 2, wordsFor((int) (MAX_BITS >>> 3)))));
+            length = bytes;
+        }
+        int index = (int) (offset >>> 6);
+        long mask = 1L << (63 - (offset & 63));
+        int previous = (words[index] & mask) != 0 ? 1 : 0;
+        if (value != 0) words[index] |= mask;
+        else words[index] &= ~mask;
+        return previous;
+    }
+
+    // Set bits with start <= offset <= end, both already clamped to the value
+    public synchronized long count(long start, long end) {
+        if (start > end) return 0;
+        int first = (int) (start >>> 6);
+        int last = (int) (end >>> 6);
+        long headMask = -1L >>> (start & 63);
+        long tailMask = -1L << (63 - (end & 63));
+        if (first == last) return Long.bitCount(words[first] & headMask & tailMask);
+        long count = Long.bitCount(words[first] & headMask);
+        for (int i = first + 1; i < last; i++) {
+            count += Long.bitCount(words[i]);
+        }
+        return count + Long.bitCount(words[last] & tailMask);
+    }
+
+    // The first offset in start..end holding bit, or -1; the range is already clamped to the value
+    public synchronized long position(int bit, long start, long end) {
+        if (start > end) return -1;
+        int first = (int) (start >>> 6);
+        int last = (int) (end >>> 6);
+        long flip = bit == 1 ? 0 : -1L;
+        for (int i = first; i <= last; i++) {
+            long word = words[i] ^ flip;
+            if (i == first) word &= -1L >>> (start & 63);
+            if (i == last) word &= -1L << (63 - (end & 63));
+            if (word != 0) return i * 64L + Long.numberOfLeadingZeros(word);
+        }
+        return -1;
+    }
+
+    // BITOP: missing sources count as empty, shorter ones as zero-padded; the result is as long as the longest.
+    // The caller holds every source key's lock, so sources only need their monitor against snapshots.
+    public static RedisBitmap combine(Op op, RedisBitmap[] sources) {
+        int length = 0;
+        for (RedisBitmap source : sources) {
+            if (source != null) length = Math.max(length, source.length());
+        }
+        int resultWords = wordsFor(length);
+        long[] result = new long[Math.max(1, resultWords)];
+        if (op == Op.NOT) {
+            Arrays.fill(result, 0, resultWords, -1L);
+        }
+        for (int s = 0; s < sources.length; s++) {
+            RedisBitmap source = sources[s];
+            int sourceWords = source == null ? 0 : source.combineInto(op, s == 0, result);
+            if (op == Op.AND) Arrays.fill(result, sourceWords, resultWords, 0L);
+        }
+        RedisBitmap bitmap = new RedisBitmap(result, length);
+        bitmap.clearTail();
+        return bitmap;
+    }
+
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(length);
+        out.write(toBytes());
+    }
+
+    public static RedisBitmap readFrom(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_BITS >>> 3) throw new IOException("Invalid bitmap length");
+        return fromBytes(KeyPersistenceService.readBytes(in, length));
+    }
+
+    // One source's words into result, the first source copied as is; returns the number of words it covers
+    private synchronized int combineInto(Op op, boolean first, long[] result) {
+        int count = wordsFor(length);
+        if (op == Op.NOT) {
+            for (int i = 0; i < count; i++) result[i] = ~words[i];
+        } else if (first) {
+            System.arraycopy(words, 0, result, 0, count);
+        } else if (op == Op.AND) {
+            for (int i = 0; i < count; i++) result[i] &= words[i];
+        } else if (op == Op.OR) {
+            for (int i = 0; i < count; i++) result[i] |= words[i];
+        } else {
+            for (int i = 0; i < count; i++) result[i] ^= words[i];
+        }
+        return count;
+    }
+
+    // NOT sets the padding bits of the last word; they must read as zero
+    private void clearTail() {
+        int used = length & 7;
+        if (used != 0) words[length >>> 3] &= -1L << (64 - 8 * used);
+    }
+
+    private static int wordsFor(int bytes) {
+        return (int) ((bytes + 7L) >>> 3);
+    }
+}
@@ -11,6 +11,7 @@ public class RedisClient {
         System.out.println("===========================");
         System.out.println("1. Run benchmark test (50 concurrent clients)");
         System.out.println("2. Run interactive mode (single client)");
+        System.out.println("3. Run interactive mode against a cluster (routes by hash slot)");
         System.out.print("Select mode: ");
 
         Scanner scanner = new Scanner(System.in);
@@ -20,7 +21,7 @@ public class RedisClient {
         if (mode == 1) {
             runBenchmarkMode(scanner);
         } else {
-            runInteractiveMode(scanner);
+            runInteractiveMode(scanner, mode == 3);
         }
     }
 
@@ -50,8 +51,8 @@ public class RedisClient {
         result.print();
     }
 
-    private static void runInteractiveMode(Scanner scanner) {
-        InteractiveSession session = new InteractiveSession(REDIS_HOST, REDIS_PORT);
+    private static void runInteractiveMode(Scanner scanner, boolean cluster) {
+        InteractiveSession session = new InteractiveSession(REDIS_HOST, REDIS_PORT, cluster);
         session.run(scanner);
     }
 }
\ No newline at end of file
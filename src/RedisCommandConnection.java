@@ -0,0 +1,9 @@
+import java.io.IOException;
+import java.util.List;
+
+interface RedisCommandConnection extends AutoCloseable {
+    Object executeCommand(List<String> commandArgs) throws IOException;
+
+    @Override
+    void close() throws IOException;
+}
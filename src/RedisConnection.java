@@ -1,8 +1,9 @@
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.util.List;
 
-class RedisConnection implements AutoCloseable {
+class RedisConnection implements RedisCommandConnection {
     private final Socket socket;
     private final OutputStream output;
     private final InputStream input;
@@ -13,6 +14,15 @@ class RedisConnection implements AutoCloseable {
         this.input = socket.getInputStream();
     }
 
+    public RedisConnection(String host, int port, int timeoutMillis) throws IOException {
+        this.socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        this.output = socket.getOutputStream();
+        this.input = socket.getInputStream();
+    }
+
+    @Override
     public Object executeCommand(List<String> commandArgs) throws IOException {
         byte[] serializedCommand = RedisProtocol.serializeCommand(commandArgs);
         output.write(serializedCommand);
@@ -1,32 +1,51 @@
 import java.io.*;
 import java.net.*;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class RedisServer {
-    private static final int PORT = 6379;
     private static final ExecutorService threadPool = Executors.newFixedThreadPool(50);
-    static final Map<String, String> dataStore = new HashMap<>();
-    static final Map<String, Long> keyExpiryTimes = new HashMap<>();
+    // Not final: FLUSHALL ASYNC swaps in empty maps and lets LazyFreeService reclaim the old ones
+    static volatile Map<String, String> dataStore = new ConcurrentHashMap<>();
+    static volatile Map<String, Long> keyExpiryTimes = new ConcurrentHashMap<>();
     private static final ServerRESPResponse serverRESPResponse = new ServerRESPResponse();
     private static final  ExpiredKeyHandler expiredKeyHandler = new ExpiredKeyHandler();
     private static final KeyPersistenceService keyPersistenceService = new KeyPersistenceService();
-    private static final CommandExecutor commandExecutor = new CommandExecutor(expiredKeyHandler,serverRESPResponse,keyPersistenceService);
+    private static final ReplicationService replicationService = new ReplicationService();
+    private static final ClusterState clusterState = new ClusterState();
+    private static final CommandExecutor commandExecutor = new CommandExecutor(expiredKeyHandler,serverRESPResponse,keyPersistenceService,replicationService,clusterState);
     private static final ClientHandler clientHandler = new ClientHandler(commandExecutor);
-    static final Map<String, LinkedList<String>> listDataStore = new HashMap<>();
+    static volatile Map<String, LinkedList<String>> listDataStore = new ConcurrentHashMap<>();
+    static volatile Map<String, RedisStream> streamDataStore = new ConcurrentHashMap<>();
+    static volatile Map<String, HyperLogLog> hyperLogLogDataStore = new ConcurrentHashMap<>();
+    static volatile Map<String, BloomFilter> bloomFilterDataStore = new ConcurrentHashMap<>();
+    // Strings written by SETBIT; a key is in dataStore or here, never both
+    static volatile Map<String, RedisBitmap> bitmapDataStore = new ConcurrentHashMap<>();
     public static long numberOfKeysChanged = 0;
     public static void main(String[] args) {
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Redis clone server started on port " + PORT);
+        ServerConfig.applyArguments(args);
+        if (ServerConfig.metricsPort > 0) {
+            try {
+                new MetricsHttpServer().start(ServerConfig.metricsPort);
+            } catch (IOException e) {
+                System.err.println("Could not start metrics endpoint: " + e.getMessage());
+            }
+        }
+        KeyPersistenceService.loadDataFromFile("dump.rdb");
+        if (ServerConfig.replicaOf != null) {
+            String[] master = ServerConfig.replicaOf.split(" ");
+            replicationService.replicaOf(master[0], Integer.parseInt(master[1]), commandExecutor);
+        }
+        try (ServerSocket serverSocket = new ServerSocket(ServerConfig.port)) {
+            System.out.println("Redis clone server started on port " + ServerConfig.port);
 
             while (true) {
                 try {
                     Socket clientSocket = serverSocket.accept();
                     System.out.println("Client connected: " + clientSocket.getInetAddress());
-                    KeyPersistenceService.loadDataFromFile("dump.rdb");
                     threadPool.execute(() -> clientHandler.handleClient(clientSocket));
                 } catch (IOException e) {
                     System.err.println("Error accepting client connection: " + e.getMessage());
@@ -0,0 +1,365 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * The stream type: an append-only log of field-value entries ordered by StreamId.
+ * Entries are packed into blocks of at most BLOCK_MAX_ENTRIES entries or BLOCK_MAX_BYTES bytes, each entry
+ * written as varint deltas against the block's first ID, with only its values when its field names repeat the
+ * block's first entry (as they nearly always do in event logs). A sorted index maps each block's first ID to
+ * the block, so an append touches only the tail block, a range read is one index lookup followed by a scan of
+ * contiguous bytes, and MAXLEN ~ trimming drops whole head blocks.
+ * Callers hold the key's stripe lock; methods are also synchronized so snapshots can read a stream in use.
+ */
+public class RedisStream {
+    static final int BLOCK_MAX_ENTRIES = 100;
+    static final int BLOCK_MAX_BYTES = 4096;
+    private static final int SAME_FIELDS = 1;
+
+    // fields alternates field names and values
+    record Entry(StreamId id, String[] fields) {
+    }
+
+    private final TreeMap<StreamId, Block> index = new TreeMap<>();
+    private Block tail;
+    private long length;
+    // Kept when trimming empties the stream, IDs never go backwards
+    private StreamId lastId = StreamId.MIN;
+
+    public synchronized long length() {
+        return length;
+    }
+
+    public synchronized StreamId lastId() {
+        return lastId;
+    }
+
+    // The ID "*" stands for: the current time, or the last ID's millisecond with the next sequence
+    // if the clock has not moved past it. Returns null when the last ID is already MAX.
+    public synchronized StreamId nextAutoId(long now) {
+        if (Long.compareUnsigned(now, lastId.ms()) > 0) {
+            return new StreamId(now, 0);
+        }
+        return lastId.next();
+    }
+
+    // The caller checked that id is greater than lastId()
+    public synchronized void append(StreamId id, String[] fields) {
+        if (tail == null || tail.entries >= BLOCK_MAX_ENTRIES || tail.size >= BLOCK_MAX_BYTES) {
+            tail = new Block(id.ms(), id.seq(), fieldNames(fields));
+            index.put(id, tail);
+        }
+        tail.append(id, fields);
+        length++;
+        lastId = id;
+    }
+
+    // Entries with start <= id <= end in ascending order, at most count of them (count <= 0 means all)
+    public synchronized List<Entry> range(StreamId start, StreamId end, long count) {
+        List<Entry> result = new ArrayList<>();
+        if (start == null || end == null || start.compareTo(end) > 0) return result;
+        StreamId from = index.floorKey(start);
+        Iterator<Block> blocks = (from == null ? index : index.tailMap(from, true)).values().iterator();
+        while (blocks.hasNext()) {
+            Block block = blocks.next();
+            if (block.firstId().compareTo(end) > 0) break;
+            Cursor cursor = new Cursor(block);
+            while (cursor.next()) {
+                int order = compare(cursor, end);
+                if (order > 0) return result;
+                if (compare(cursor, start) < 0) continue;
+                result.add(cursor.entry());
+                if (count > 0 && result.size() >= count) return result;
+            }
+        }
+        return result;
+    }
+
+    // Entries with start <= id <= end in descending order, at most count of them (count <= 0 means all)
+    public synchronized List<Entry> reverseRange(StreamId end, StreamId start, long count) {
+        List<Entry> result = new ArrayList<>();
+        if (start == null || end == null || start.compareTo(end) > 0) return result;
+        StreamId from = index.floorKey(end);
+        if (from == null) return result;
+        for (Block block : index.headMap(from, true).descendingMap().values()) {
+            // Varints only decode forwards, so a block is read whole and walked backwards
+            List<Entry> entries = new ArrayList<>(block.count);
+            Cursor cursor = new Cursor(block);
+            while (cursor.next()) {
+                if (compare(cursor, start) >= 0 && compare(cursor, end) <= 0) entries.add(cursor.entry());
+            }
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                result.add(entries.get(i));
+                if (count > 0 && result.size() >= count) return result;
+            }
+            if (block.firstId().compareTo(start) <= 0) break;
+        }
+        return result;
+    }
+
+    // MAXLEN: whole head blocks go first; approximate trimming stops there, leaving up to one block too many.
+    // Returns the number of entries removed.
+    public synchronized long trimToLength(long maxLength, boolean approximate) {
+        long removed = 0;
+        while (!index.isEmpty()) {
+            Block head = index.firstEntry().getValue();
+            if (length - head.count < maxLength) break;
+            index.pollFirstEntry();
+            if (head == tail) tail = null;
+            length -= head.count;
+            removed += head.count;
+        }
+        if (!approximate && length > maxLength) {
+            Block head = index.firstEntry().getValue();
+            long excess = length - maxLength;
+            Cursor cursor = new Cursor(head);
+            for (long i = 0; i < excess; i++) cursor.next();
+            head.start = cursor.pos;
+            head.count -= (int) excess;
+            length -= excess;
+            removed += excess;
+        }
+        return removed;
+    }
+
+    // Drops every entry, for LazyFreeService
+    public synchronized void clear() {
+        index.clear();
+        tail = null;
+        length = 0;
+    }
+
+    // Blocks are written as they are, minus the bytes of entries trimmed off their front
+    public synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeLong(lastId.ms());
+        out.writeLong(lastId.seq());
+        out.writeInt(index.size());
+        for (Block block : index.values()) {
+            out.writeLong(block.masterMs);
+            out.writeLong(block.masterSeq);
+            out.writeInt(block.masterFields.length);
+            for (String field : block.masterFields) out.writeUTF(field);
+            out.writeInt(block.count);
+            out.writeInt(block.size - block.start);
+            out.write(block.data, block.start, block.size - block.start);
+        }
+    }
+
+    // Every block is decoded once here, so a corrupt snapshot or RESTORE payload fails to load
+    // rather than failing later in a read
+    public static RedisStream readFrom(DataInput in) throws IOException {
+        RedisStream stream = new RedisStream();
+        stream.lastId = new StreamId(in.readLong(), in.readLong());
+        int blocks = in.readInt();
+        if (blocks < 0) throw new IOException("Invalid stream block count");
+        StreamId previous = null;
+        for (int i = 0; i < blocks; i++) {
+            long masterMs = in.readLong();
+            long masterSeq = in.readLong();
+            int fieldCount = in.readInt();
+            if (fieldCount < 0) throw new IOException("Invalid stream field count");
+            List<String> masterFields = new ArrayList<>();
+            for (int f = 0; f < fieldCount; f++) masterFields.add(in.readUTF());
+            Block block = new Block(masterMs, masterSeq, masterFields.toArray(new String[0]));
+            block.count = in.readInt();
+            block.entries = block.count;
+            block.data = KeyPersistenceService.readBytes(in, in.readInt());
+            block.size = block.data.length;
+            previous = checkBlock(block, previous);
+            stream.index.put(block.firstId(), block);
+            stream.tail = block;
+            stream.length += block.count;
+        }
+        if (previous != null && previous.compareTo(stream.lastId) > 0) throw new IOException("Stream entry past the last ID");
+        return stream;
+    }
+
+    // A loaded block must hold count entries in ascending ID order, all after the previous block's;
+    // returns the ID of its last entry
+    private static StreamId checkBlock(Block block, StreamId previous) throws IOException {
+        if (block.count < 1 || (previous != null && block.firstId().compareTo(previous) <= 0)) {
+            throw new IOException("Invalid stream block");
+        }
+        StreamId last = null;
+        int decoded = 0;
+        try {
+            Cursor cursor = new Cursor(block);
+            while (cursor.next()) {
+                StreamId id = new StreamId(cursor.ms, cursor.seq);
+                if (last == null ? id.compareTo(block.firstId()) < 0 : id.compareTo(last) <= 0) {
+                    throw new IOException("Stream entries out of order");
+                }
+                cursor.entry();
+                last = id;
+                decoded++;
+            }
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt stream block", e);
+        }
+        if (decoded != block.count) throw new IOException("Stream block entry count mismatch");
+        return last;
+    }
+
+    private static int compare(Cursor cursor, StreamId id) {
+        int byMs = Long.compareUnsigned(cursor.ms, id.ms());
+        return byMs != 0 ? byMs : Long.compareUnsigned(cursor.seq, id.seq());
+    }
+
+    private static String[] fieldNames(String[] fields) {
+        String[] names = new String[fields.length / 2];
+        for (int i = 0; i < names.length; i++) names[i] = fields[i * 2];
+        return names;
+    }
+
+    private static class Block {
+        final long masterMs;
+        final long masterSeq;
+        // Field names of the block's first entry; entries with the same names store only their values
+        final String[] masterFields;
+        byte[] data = new byte[256];
+        int size;
+        // Offset of the first live entry: exact trimming inside a block only moves it
+        int start;
+        // Live entries, and entries ever appended (which decides when the block is full)
+        int count;
+        int entries;
+
+        Block(long masterMs, long masterSeq, String[] masterFields) {
+            this.masterMs = masterMs;
+            this.masterSeq = masterSeq;
+            this.masterFields = masterFields;
+        }
+
+        // The index key: trimming never changes it, entries are always >= it
+        StreamId firstId() {
+            return new StreamId(masterMs, masterSeq);
+        }
+
+        // Entry layout: ms delta, seq (a delta too when ms is unchanged), flags, then either
+        // value... for SAME_FIELDS or pair count and field, value... - varint lengths before every string
+        void append(StreamId id, String[] fields) {
+            long msDelta = id.ms() - masterMs;
+            boolean sameFields = hasMasterFields(fields);
+            writeVarLong(msDelta);
+            writeVarLong(msDelta == 0 ? id.seq() - masterSeq : id.seq());
+            ensureCapacity(1);
+            data[size++] = (byte) (sameFields ? SAME_FIELDS : 0);
+            if (sameFields) {
+                for (int i = 1; i < fields.length; i += 2) writeString(fields[i]);
+            } else {
+                writeVarLong(fields.length / 2);
+                for (String field : fields) writeString(field);
+            }
+            count++;
+            entries++;
+        }
+
+        private boolean hasMasterFields(String[] fields) {
+            if (fields.length != masterFields.length * 2) return false;
+            for (int i = 0; i < masterFields.length; i++) {
+                if (!masterFields[i].equals(fields[i * 2])) return false;
+            }
+            return true;
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (size + bytes > data.length) data = Arrays.copyOf(data, Math.max(size + bytes, data.length * 2));
+        }
+
+        private void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+    }
+
+    // Walks a block's live entries; next() decodes only the ID, entry() the fields of the current one
+    private static class Cursor {
+        final Block block;
+        int pos;
+        long ms;
+        long seq;
+        private int payload;
+
+        Cursor(Block block) {
+            this.block = block;
+            this.pos = block.start;
+        }
+
+        boolean next() {
+            if (pos >= block.size) return false;
+            long msDelta = readVarLong();
+            long seqValue = readVarLong();
+            ms = block.masterMs + msDelta;
+            seq = msDelta == 0 ? block.masterSeq + seqValue : seqValue;
+            payload = pos;
+            // Skip the strings so the next call starts at the following entry
+            boolean sameFields = (block.data[pos++] & SAME_FIELDS) != 0;
+            long strings = sameFields ? block.masterFields.length : readVarLong() * 2;
+            // Only a corrupt block fails these, see checkBlock
+            if (strings < 0 || strings > block.size - pos) throw new IllegalStateException("Corrupt stream entry");
+            for (long i = 0; i < strings; i++) {
+                int length = (int) readVarLong();
+                if (length < 0 || length > block.size - pos) throw new IllegalStateException("Corrupt stream entry");
+                pos += length;
+            }
+            return true;
+        }
+
+        Entry entry() {
+            int end = pos;
+            pos = payload;
+            boolean sameFields = (block.data[pos++] & SAME_FIELDS) != 0;
+            String[] fields;
+            if (sameFields) {
+                fields = new String[block.masterFields.length * 2];
+                for (int i = 0; i < fields.length; i += 2) {
+                    fields[i] = block.masterFields[i / 2];
+                    fields[i + 1] = readString();
+                }
+            } else {
+                fields = new String[(int) readVarLong() * 2];
+                for (int i = 0; i < fields.length; i++) fields[i] = readString();
+            }
+            pos = end;
+            return new Entry(new StreamId(ms, seq), fields);
+        }
+
+        private long readVarLong() {
+            byte[] data = block.data;
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+
+        private String readString() {
+            int length = (int) readVarLong();
+            String value = new String(block.data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Master-side link to one replica. Command threads only enqueue; a dedicated sender thread
+ * writes to the socket so a slow replica never stalls the clients producing the stream.
+ * The queue is bounded by the replica class of client-output-buffer-limit, as PubSubSubscriber's is by the
+ * pubsub class: a replica that falls that far behind is dropped and resyncs when it reconnects.
+ */
+public class ReplicaConnection {
+    private final OutputStream outputStream;
+    private final LinkedBlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final Thread sender;
+    private volatile long ackOffset = -1;
+    private volatile boolean closed = false;
+    private volatile long softLimitSince = 0;
+    // The resync reply and snapshot, written before the queue and not counted against the limits
+    private byte[][] sync;
+
+    public ReplicaConnection(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        this.sender = new Thread(this::drain, "replica-sender");
+        this.sender.setDaemon(true);
+    }
+
+    public void start(byte[]... sync) {
+        this.sync = sync;
+        sender.start();
+    }
+
+    public void send(byte[] data) {
+        if (closed) return;
+        long pending = pendingBytes.addAndGet(data.length);
+        queue.add(data);
+        if (ServerConfig.replicaHardLimit > 0 && pending > ServerConfig.replicaHardLimit) {
+            disconnect("hard", pending);
+        } else if (ServerConfig.replicaSoftLimit > 0 && pending > ServerConfig.replicaSoftLimit) {
+            long now = System.currentTimeMillis();
+            if (softLimitSince == 0) {
+                softLimitSince = now;
+            } else if (now - softLimitSince > ServerConfig.replicaSoftSeconds * 1000) {
+                disconnect("soft", pending);
+            }
+        } else {
+            softLimitSince = 0;
+        }
+    }
+
+    private void disconnect(String limit, long pending) {
+        System.err.println("Disconnecting replica over the " + limit + " output buffer limit (" + pending + " bytes pending)");
+        close();
+    }
+
+    private void drain() {
+        try {
+            for (byte[] data : sync) {
+                outputStream.write(data);
+            }
+            outputStream.flush();
+            sync = null;
+            while (!closed) {
+                byte[] data = queue.take();
+                outputStream.write(data);
+                pendingBytes.addAndGet(-data.length);
+                if (queue.isEmpty()) outputStream.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Replica link lost: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        sender.interrupt();
+        queue.clear();
+        try {
+            outputStream.close();
+        } catch (IOException e) {
+            System.err.println("Error closing replica link: " + e.getMessage());
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public boolean usesStream(OutputStream stream) {
+        return outputStream == stream;
+    }
+
+    public long getAckOffset() {
+        return ackOffset;
+    }
+
+    public void setAckOffset(long ackOffset) {
+        this.ackOffset = ackOffset;
+    }
+
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Circular buffer holding the tail of the replication stream.
+ * Offsets count every byte ever appended, so a byte at offset o lives at index o % capacity.
+ */
+public class ReplicationBacklog {
+    private final byte[] buffer;
+    private long endOffset;
+    private int historyLength = 0;
+
+    public ReplicationBacklog(int capacity, long startOffset) {
+        this.buffer = new byte[capacity];
+        this.endOffset = startOffset;
+    }
+
+    public void append(byte[] data) {
+        int length = data.length;
+        int skip = Math.max(0, length - buffer.length);
+        long offset = endOffset + skip;
+        int remaining = length - skip;
+        int source = skip;
+        while (remaining > 0) {
+            int index = (int) (offset % buffer.length);
+            int chunk = Math.min(remaining, buffer.length - index);
+            System.arraycopy(data, source, buffer, index, chunk);
+            offset += chunk;
+            source += chunk;
+            remaining -= chunk;
+        }
+        endOffset += length;
+        historyLength = (int) Math.min((long) historyLength + length, buffer.length);
+    }
+
+    public long getStartOffset() {
+        return endOffset - historyLength;
+    }
+
+    public long getEndOffset() {
+        return endOffset;
+    }
+
+    public int getHistoryLength() {
+        return historyLength;
+    }
+
+    public int getCapacity() {
+        return buffer.length;
+    }
+
+    // Returns every byte from offset to the end of the stream, or null if offset is no longer covered
+    public byte[] copyFrom(long offset) {
+        if (offset < getStartOffset() || offset > endOffset) {
+            return null;
+        }
+        byte[] data = new byte[(int) (endOffset - offset)];
+        int copied = 0;
+        while (copied < data.length) {
+            int index = (int) ((offset + copied) % buffer.length);
+            int chunk = Math.min(data.length - copied, buffer.length - index);
+            System.arraycopy(buffer, index, data, copied, chunk);
+            copied += chunk;
+        }
+        return data;
+    }
+}
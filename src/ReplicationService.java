@@ -0,0 +1,235 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ReplicationService {
+    private static final long PING_PERIOD_MS = 10_000;
+    private static final byte[] PING = encodeCommand(new String[]{"PING"});
+    private static final byte[] MULTI = encodeCommand(new String[]{"MULTI"});
+    private static final byte[] EXEC = encodeCommand(new String[]{"EXEC"});
+    private static final SecureRandom random = new SecureRandom();
+
+    private final List<ReplicaConnection> replicas = new CopyOnWriteArrayList<>();
+    // While a snapshot (SAVE, BGSAVE or a full resync) runs, writers hold the read side from dispatch to
+    // propagation and the snapshot holds the write side, so it sees no half-applied write and a full resync's
+    // offset lines up exactly with the stream. With no snapshot running writers skip the lock altogether.
+    private final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+    private final AtomicInteger snapshotsRunning = new AtomicInteger();
+    private volatile String replicationId = newReplicationId();
+    private volatile ReplicationBacklog backlog;
+    private volatile MasterConnection masterConnection;
+    private Thread pingThread;
+
+    // Callers hold the stripes of the keys they write; returns whether endWrite must be called
+    public boolean beginWrite() {
+        if (snapshotsRunning.get() == 0) return false;
+        snapshotLock.readLock().lock();
+        return true;
+    }
+
+    public void endWrite() {
+        snapshotLock.readLock().unlock();
+    }
+
+    // Writers that checked snapshotsRunning before it was raised skipped the lock, but they still hold their
+    // key stripes: passing through every stripe waits them out before the write side is taken.
+    // The caller must hold no stripes.
+    public void beginSnapshot() {
+        snapshotsRunning.incrementAndGet();
+        KeyLocks.lock(KeyLocks.ALL);
+        KeyLocks.unlock(KeyLocks.ALL);
+        snapshotLock.writeLock().lock();
+    }
+
+    public void endSnapshot() {
+        snapshotLock.writeLock().unlock();
+        snapshotsRunning.decrementAndGet();
+    }
+
+    // Appends a write command to the backlog and every replica; free until the first replica attaches
+    public void propagate(String[] command) {
+        if (backlog == null) return;
+        byte[] data = encodeCommand(command);
+        synchronized (this) {
+            feed(data);
+        }
+    }
+
+    // An EXEC's writes go out as one MULTI ... EXEC block so replicas apply them atomically too
+    public void propagateTransaction(List<String[]> commands) {
+        if (backlog == null || commands.isEmpty()) return;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes(MULTI);
+        for (String[] command : commands) {
+            out.writeBytes(encodeCommand(command));
+        }
+        out.writeBytes(EXEC);
+        byte[] data = out.toByteArray();
+        synchronized (this) {
+            feed(data);
+        }
+    }
+
+    private void feed(byte[] data) {
+        backlog.append(data);
+        for (ReplicaConnection replica : replicas) {
+            if (replica.isClosed()) {
+                replicas.remove(replica);
+            } else {
+                replica.send(data);
+            }
+        }
+    }
+
+    // PSYNC <replid> <offset>: offset is the next byte the replica needs, "? -1" asks for a full copy
+    public void handlePsync(String requestedId, long offset, OutputStream outputStream) throws IOException {
+        ReplicaConnection replica = new ReplicaConnection(outputStream);
+        synchronized (this) {
+            if (backlog != null && requestedId.equals(replicationId)) {
+                byte[] missing = backlog.copyFrom(offset);
+                if (missing != null) {
+                    attach(replica, "+CONTINUE\r\n".getBytes(StandardCharsets.US_ASCII), missing);
+                    System.out.println("Partial resync accepted from offset " + offset + " (" + missing.length + " bytes)");
+                    return;
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+        beginSnapshot();
+        try {
+            try (ObjectOutputStream oos = new ObjectOutputStream(snapshot)) {
+                KeyPersistenceService.writeSnapshot(oos);
+            }
+            synchronized (this) {
+                if (backlog == null) {
+                    backlog = new ReplicationBacklog(ServerConfig.replBacklogSize, 0);
+                }
+                long snapshotOffset = backlog.getEndOffset();
+                String header = "+FULLRESYNC " + replicationId + " " + snapshotOffset + "\r\n$" + snapshot.size() + "\r\n";
+                attach(replica, header.getBytes(StandardCharsets.US_ASCII), snapshot.toByteArray());
+            }
+        } finally {
+            endSnapshot();
+        }
+        LatencyMonitor.addSampleIfNeeded("replication-snapshot", System.currentTimeMillis() - start);
+        System.out.println("Full resync started: " + snapshot.size() + " bytes snapshot");
+    }
+
+    private void attach(ReplicaConnection replica, byte[]... sync) {
+        replicas.add(replica);
+        replica.start(sync);
+        if (pingThread == null) {
+            pingThread = new Thread(this::pingReplicas, "replication-ping");
+            pingThread.setDaemon(true);
+            pingThread.start();
+        }
+    }
+
+    // PINGs go through the stream so replicas notice a silent master and offsets keep advancing
+    private void pingReplicas() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(PING_PERIOD_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            synchronized (this) {
+                if (backlog != null && !replicas.isEmpty()) {
+                    feed(PING);
+                }
+            }
+        }
+    }
+
+    public void acknowledge(OutputStream outputStream, long offset) {
+        for (ReplicaConnection replica : replicas) {
+            if (replica.usesStream(outputStream)) {
+                replica.setAckOffset(offset);
+            }
+        }
+    }
+
+    public synchronized void replicaOf(String host, int port, CommandExecutor commandExecutor) {
+        if (masterConnection != null) {
+            masterConnection.stop();
+        }
+        disconnectReplicas();
+        masterConnection = new MasterConnection(host, port, commandExecutor, this);
+        masterConnection.start();
+        System.out.println("Replicating from " + host + ":" + port);
+    }
+
+    public synchronized void becomeMaster() {
+        if (masterConnection == null) return;
+        masterConnection.stop();
+        masterConnection = null;
+        disconnectReplicas();
+        System.out.println("Replication stopped, now a master");
+    }
+
+    // The dataset was replaced, so our own replicas must start over with a new history
+    synchronized void onFullResyncLoaded() {
+        disconnectReplicas();
+    }
+
+    private void disconnectReplicas() {
+        for (ReplicaConnection replica : replicas) {
+            replica.close();
+        }
+        replicas.clear();
+        replicationId = newReplicationId();
+        backlog = null;
+    }
+
+    public boolean isReplica() {
+        return masterConnection != null;
+    }
+
+    public MasterConnection getMasterConnection() {
+        return masterConnection;
+    }
+
+    public String getReplicationId() {
+        return replicationId;
+    }
+
+    public List<ReplicaConnection> getReplicas() {
+        return replicas;
+    }
+
+    public ReplicationBacklog getBacklog() {
+        return backlog;
+    }
+
+    static byte[] encodeCommand(String[] command) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 * command.length);
+        out.writeBytes(("*" + command.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        for (String argument : command) {
+            byte[] bytes = argument.getBytes(StandardCharsets.UTF_8);
+            out.writeBytes(("$" + bytes.length + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeBytes(bytes);
+            out.writeBytes(new byte[]{'\r', '\n'});
+        }
+        return out.toByteArray();
+    }
+
+    private static String newReplicationId() {
+        byte[] bytes = new byte[20];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class ServerConfig {
+    private static final String[] PARAMETERS = {
+            "port", "slowlog-log-slower-than", "slowlog-max-len", "latency-monitor-threshold", "metrics-port",
+            "repl-backlog-size", "cluster-enabled", "cluster-announce-ip", "client-output-buffer-limit",
+            "notify-keyspace-events", "tracking-table-max-keys"
+    };
+    private static final Set<String> STARTUP_ONLY = Set.of(
+            "port", "metrics-port", "repl-backlog-size", "replicaof", "cluster-enabled", "cluster-announce-ip"
+    );
+    static volatile int port = 6379;
+    static volatile long slowlogLogSlowerThan = 10000;
+    static volatile int slowlogMaxLen = 128;
+    static volatile long latencyMonitorThreshold = 0;
+    static volatile int metricsPort = 0;
+    static volatile int replBacklogSize = 1024 * 1024;
+    // "host port" given on the command line; REPLICAOF changes the role at runtime instead
+    static volatile String replicaOf = null;
+    static volatile boolean clusterEnabled = false;
+    static volatile String clusterAnnounceIp = "127.0.0.1";
+    // client-output-buffer-limit <class> <hard bytes> <soft bytes> <soft seconds>, for the pubsub and replica
+    // classes; 0 disables a limit
+    static volatile long pubsubHardLimit = 32 * 1024 * 1024;
+    static volatile long pubsubSoftLimit = 8 * 1024 * 1024;
+    static volatile long pubsubSoftSeconds = 60;
+    static volatile long replicaHardLimit = 256 * 1024 * 1024;
+    static volatile long replicaSoftLimit = 64 * 1024 * 1024;
+    static volatile long replicaSoftSeconds = 60;
+    // notify-keyspace-events as given, and parsed into NOTIFY_* flags
+    static final int NOTIFY_KEYSPACE = 1;
+    static final int NOTIFY_KEYEVENT = 1 << 1;
+    static final int NOTIFY_GENERIC = 1 << 2;
+    static final int NOTIFY_STRING = 1 << 3;
+    static final int NOTIFY_LIST = 1 << 4;
+    static final int NOTIFY_EXPIRED = 1 << 5;
+    static final int NOTIFY_STREAM = 1 << 6;
+    static volatile String notifyKeyspaceEvents = "";
+    static volatile int notifyKeyspaceEventFlags = 0;
+    static volatile long trackingTableMaxKeys = 1_000_000;
+
+    // Returns null when the parameter is unknown
+    public static String get(String name) {
+        return switch (name) {
+            case "port" -> String.valueOf(port);
+            case "slowlog-log-slower-than" -> String.valueOf(slowlogLogSlowerThan);
+            case "slowlog-max-len" -> String.valueOf(slowlogMaxLen);
+            case "latency-monitor-threshold" -> String.valueOf(latencyMonitorThreshold);
+            case "metrics-port" -> String.valueOf(metricsPort);
+            case "repl-backlog-size" -> String.valueOf(replBacklogSize);
+            case "cluster-enabled" -> clusterEnabled ? "yes" : "no";
+            case "cluster-announce-ip" -> clusterAnnounceIp;
+            case "client-output-buffer-limit" -> "pubsub " + pubsubHardLimit + " " + pubsubSoftLimit + " " + pubsubSoftSeconds
+                    + " replica " + replicaHardLimit + " " + replicaSoftLimit + " " + replicaSoftSeconds;
+            case "notify-keyspace-events" -> notifyKeyspaceEvents;
+            case "tracking-table-max-keys" -> String.valueOf(trackingTableMaxKeys);
+            default -> null;
+        };
+    }
+
+    public static Map<String, String> getMatching(String pattern) {
+        Map<String, String> matches = new LinkedHashMap<>();
+        for (String name : PARAMETERS) {
+            if (GlobPattern.matches(pattern, name)) {
+                matches.put(name, get(name));
+            }
+        }
+        return matches;
+    }
+
+    // Returns an error message, or null when the value was applied
+    public static String set(String name, String value) {
+        if (STARTUP_ONLY.contains(name)) {
+            return "ERR CONFIG SET failed (possibly related to argument '" + name + "') - can't set immutable config";
+        }
+        try {
+            switch (name) {
+                case "slowlog-log-slower-than" -> slowlogLogSlowerThan = Long.parseLong(value);
+                case "slowlog-max-len" -> {
+                    int maxLen = Integer.parseInt(value);
+                    if (maxLen < 0) return "ERR slowlog-max-len must be positive";
+                    slowlogMaxLen = maxLen;
+                }
+                case "latency-monitor-threshold" -> {
+                    long threshold = Long.parseLong(value);
+                    if (threshold < 0) return "ERR latency-monitor-threshold must be positive";
+                    latencyMonitorThreshold = threshold;
+                }
+                case "client-output-buffer-limit" -> {
+                    String[] parts = value.trim().split("\\s+");
+                    if (parts.length == 0 || parts.length % 4 != 0) {
+                        return "ERR client-output-buffer-limit expects <pubsub|replica> <hard> <soft> <soft-seconds>...";
+                    }
+                    // Everything is checked before anything is applied
+                    for (int i = 0; i < parts.length; i += 4) {
+                        String type = parts[i].toLowerCase();
+                        if (!type.equals("pubsub") && !type.equals("replica") && !type.equals("slave")) {
+                            return "ERR Invalid client class specified in buffer limit configuration.";
+                        }
+                        if (Long.parseLong(parts[i + 1]) < 0 || Long.parseLong(parts[i + 2]) < 0 || Long.parseLong(parts[i + 3]) < 0) {
+                            return "ERR client-output-buffer-limit values must be positive";
+                        }
+                    }
+                    for (int i = 0; i < parts.length; i += 4) {
+                        long hard = Long.parseLong(parts[i + 1]);
+                        long soft = Long.parseLong(parts[i + 2]);
+                        long seconds = Long.parseLong(parts[i + 3]);
+                        if (parts[i].equalsIgnoreCase("pubsub")) {
+                            pubsubHardLimit = hard;
+                            pubsubSoftLimit = soft;
+                            pubsubSoftSeconds = seconds;
+                        } else {
+                            replicaHardLimit = hard;
+                            replicaSoftLimit = soft;
+                            replicaSoftSeconds = seconds;
+                        }
+                    }
+                }
+                case "notify-keyspace-events" -> {
+                    int flags = parseKeyspaceEventFlags(value);
+                    if (flags < 0) return "ERR Invalid event class character. Use 'K', 'E', 'g', '$', 'l', 'x' or 'A'";
+                    notifyKeyspaceEvents = value;
+                    notifyKeyspaceEventFlags = flags;
+                }
+                case "tracking-table-max-keys" -> {
+                    long maxKeys = Long.parseLong(value);
+                    if (maxKeys < 0) return "ERR tracking-table-max-keys must be positive";
+                    trackingTableMaxKeys = maxKeys;
+                }
+                default -> {
+                    return "ERR Unsupported CONFIG parameter: " + name;
+                }
+            }
+            return null;
+        } catch (NumberFormatException e) {
+            return "ERR Invalid argument '" + value + "' for CONFIG SET '" + name + "'";
+        }
+    }
+
+    // K/E pick the keyspace and keyevent channels, g$lxt the event classes, A all classes; -1 if invalid.
+    // Nothing is published unless both a channel type and a class are given.
+    private static int parseKeyspaceEventFlags(String value) {
+        int flags = 0;
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case 'K' -> flags |= NOTIFY_KEYSPACE;
+                case 'E' -> flags |= NOTIFY_KEYEVENT;
+                case 'g' -> flags |= NOTIFY_GENERIC;
+                case '$' -> flags |= NOTIFY_STRING;
+                case 'l' -> flags |= NOTIFY_LIST;
+                case 'x' -> flags |= NOTIFY_EXPIRED;
+                case 't' -> flags |= NOTIFY_STREAM;
+                case 'A' -> flags |= NOTIFY_GENERIC | NOTIFY_STRING | NOTIFY_LIST | NOTIFY_EXPIRED | NOTIFY_STREAM;
+                default -> {
+                    return -1;
+                }
+            }
+        }
+        boolean channel = (flags & (NOTIFY_KEYSPACE | NOTIFY_KEYEVENT)) != 0;
+        boolean classes = (flags & ~(NOTIFY_KEYSPACE | NOTIFY_KEYEVENT)) != 0;
+        return channel && classes ? flags : 0;
+    }
+
+    // Applies "--name value..." arguments from the command line, including startup-only parameters
+    public static void applyArguments(String[] args) {
+        int i = 0;
+        while (i < args.length) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected --<parameter> but got '" + args[i] + "'");
+            }
+            String name = args[i++].substring(2).toLowerCase();
+            StringBuilder value = new StringBuilder();
+            while (i < args.length && !args[i].startsWith("--")) {
+                if (!value.isEmpty()) value.append(' ');
+                value.append(args[i++]);
+            }
+            if (value.isEmpty()) {
+                throw new IllegalArgumentException("Missing value for '--" + name + "'");
+            }
+            String error = STARTUP_ONLY.contains(name)
+                    ? setStartupParameter(name, value.toString())
+                    : set(name, value.toString());
+            if (error != null) {
+                throw new IllegalArgumentException(error);
+            }
+        }
+    }
+
+    private static String setStartupParameter(String name, String value) {
+        try {
+            switch (name) {
+                case "port" -> port = Integer.parseInt(value);
+                case "metrics-port" -> metricsPort = Integer.parseInt(value);
+                case "repl-backlog-size" -> {
+                    int size = Integer.parseInt(value);
+                    if (size < 16 * 1024) return "ERR repl-backlog-size must be at least 16384";
+                    replBacklogSize = size;
+                }
+                case "replicaof" -> {
+                    if (value.split(" ").length != 2) return "ERR replicaof expects <host> <port>";
+                    replicaOf = value;
+                }
+                case "cluster-enabled" -> {
+                    if (!value.equals("yes") && !value.equals("no")) return "ERR cluster-enabled must be yes or no";
+                    clusterEnabled = value.equals("yes");
+                }
+                case "cluster-announce-ip" -> clusterAnnounceIp = value;
+            }
+            return null;
+        } catch (NumberFormatException e) {
+            return "ERR Invalid argument '" + value + "' for '" + name + "'";
+        }
+    }
+}
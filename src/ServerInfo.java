@@ -0,0 +1,174 @@
+import java.util.List;
+
+public class ServerInfo {
+    private static final List<String> DEFAULT_SECTIONS =
+            List.of("server", "clients", "memory", "persistence", "stats", "replication", "cluster", "keyspace");
+    private final ReplicationService replicationService;
+    private final ClusterState clusterState;
+    private final PubSub pubSub;
+    private final ClientTracking clientTracking;
+    private final StreamWaiters streamWaiters;
+
+    public ServerInfo(ReplicationService replicationService, ClusterState clusterState, PubSub pubSub, ClientTracking clientTracking,
+                      StreamWaiters streamWaiters) {
+        this.replicationService = replicationService;
+        this.clusterState = clusterState;
+        this.pubSub = pubSub;
+        this.clientTracking = clientTracking;
+        this.streamWaiters = streamWaiters;
+    }
+
+    // Builds the INFO reply; "all"/"everything" adds commandstats to the default sections
+    public String generate(String section) {
+        StringBuilder sb = new StringBuilder();
+        if (section == null || section.equals("default")) {
+            for (String name : DEFAULT_SECTIONS) appendSection(sb, name);
+        } else if (section.equals("all") || section.equals("everything")) {
+            for (String name : DEFAULT_SECTIONS) appendSection(sb, name);
+            appendSection(sb, "commandstats");
+        } else {
+            appendSection(sb, section);
+        }
+        return sb.toString();
+    }
+
+    private void appendSection(StringBuilder sb, String section) {
+        switch (section) {
+            case "server" -> server(sb);
+            case "clients" -> clients(sb);
+            case "memory" -> memory(sb);
+            case "persistence" -> persistence(sb);
+            case "stats" -> stats(sb);
+            case "replication" -> replication(sb);
+            case "cluster" -> cluster(sb);
+            case "keyspace" -> keyspace(sb);
+            case "commandstats" -> commandStats(sb);
+            default -> {
+                return;
+            }
+        }
+        sb.append("\r\n");
+    }
+
+    private void server(StringBuilder sb) {
+        long uptimeSeconds = (System.currentTimeMillis() - ServerStats.startTimeMillis) / 1000;
+        sb.append("# Server\r\n");
+        line(sb, "redis_mode", ServerConfig.clusterEnabled ? "cluster" : "standalone");
+        line(sb, "java_version", System.getProperty("java.version"));
+        line(sb, "process_id", ProcessHandle.current().pid());
+        line(sb, "tcp_port", ServerConfig.port);
+        line(sb, "uptime_in_seconds", uptimeSeconds);
+        line(sb, "uptime_in_days", uptimeSeconds / 86400);
+    }
+
+    private void clients(StringBuilder sb) {
+        sb.append("# Clients\r\n");
+        line(sb, "connected_clients", ServerStats.connectedClients.get());
+        line(sb, "blocked_clients", streamWaiters.blockedClients());
+        line(sb, "tracking_clients", clientTracking.trackingClientCount());
+    }
+
+    private void memory(StringBuilder sb) {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        sb.append("# Memory\r\n");
+        line(sb, "used_memory", used);
+        line(sb, "used_memory_human", humanBytes(used));
+        line(sb, "heap_committed", runtime.totalMemory());
+        line(sb, "maxmemory", runtime.maxMemory());
+        line(sb, "maxmemory_human", humanBytes(runtime.maxMemory()));
+        line(sb, "lazyfree_pending_objects", LazyFreeService.pendingObjects.get());
+    }
+
+    private void persistence(StringBuilder sb) {
+        sb.append("# Persistence\r\n");
+        line(sb, "rdb_changes_since_last_save", RedisServer.numberOfKeysChanged);
+        line(sb, "rdb_bgsave_in_progress", KeyPersistenceService.saveInProgress ? 1 : 0);
+        line(sb, "rdb_last_save_time", KeyPersistenceService.lastSaveTime / 1000);
+        line(sb, "rdb_last_bgsave_status", KeyPersistenceService.lastSaveSucceeded ? "ok" : "err");
+        line(sb, "rdb_last_save_time_ms", KeyPersistenceService.lastSaveDurationMillis);
+    }
+
+    private void stats(StringBuilder sb) {
+        sb.append("# Stats\r\n");
+        line(sb, "total_connections_received", ServerStats.totalConnectionsReceived.sum());
+        line(sb, "total_commands_processed", ServerStats.totalCommandsProcessed.sum());
+        line(sb, "instantaneous_ops_per_sec", ServerStats.getInstantaneousOpsPerSec());
+        line(sb, "expired_keys", ServerStats.expiredKeys.sum());
+        line(sb, "lazyfreed_objects", LazyFreeService.freedObjects.sum());
+        line(sb, "keyspace_hits", ServerStats.keyspaceHits.sum());
+        line(sb, "keyspace_misses", ServerStats.keyspaceMisses.sum());
+        line(sb, "pubsub_channels", pubSub.channelCount());
+        line(sb, "pubsub_patterns", pubSub.patternCount());
+        line(sb, "client_output_buffer_limit_disconnections", PubSub.outputBufferDisconnections.sum());
+        line(sb, "tracking_total_keys", clientTracking.trackedKeyCount());
+        line(sb, "tracking_total_prefixes", clientTracking.prefixCount());
+    }
+
+    private void replication(StringBuilder sb) {
+        sb.append("# Replication\r\n");
+        MasterConnection master = replicationService.getMasterConnection();
+        if (master == null) {
+            line(sb, "role", "master");
+        } else {
+            line(sb, "role", "slave");
+            line(sb, "master_host", master.getHost());
+            line(sb, "master_port", master.getPort());
+            line(sb, "master_link_status", master.isLinkUp() ? "up" : "down");
+            long lastIo = master.getLastInteraction();
+            line(sb, "master_last_io_seconds_ago", lastIo == 0 ? -1 : (System.currentTimeMillis() - lastIo) / 1000);
+            line(sb, "slave_repl_offset", master.getOffset());
+        }
+        int index = 0;
+        List<ReplicaConnection> replicas = replicationService.getReplicas();
+        line(sb, "connected_slaves", replicas.size());
+        for (ReplicaConnection replica : replicas) {
+            line(sb, "slave" + index++, "offset=" + replica.getAckOffset() + ",pending_bytes=" + replica.getPendingBytes());
+        }
+        ReplicationBacklog backlog = replicationService.getBacklog();
+        line(sb, "master_replid", replicationService.getReplicationId());
+        line(sb, "master_repl_offset", backlog == null ? 0 : backlog.getEndOffset());
+        line(sb, "repl_backlog_active", backlog == null ? 0 : 1);
+        line(sb, "repl_backlog_size", ServerConfig.replBacklogSize);
+        line(sb, "repl_backlog_first_byte_offset", backlog == null ? 0 : backlog.getStartOffset());
+        line(sb, "repl_backlog_histlen", backlog == null ? 0 : backlog.getHistoryLength());
+    }
+
+    private void cluster(StringBuilder sb) {
+        sb.append("# Cluster\r\n");
+        line(sb, "cluster_enabled", ServerConfig.clusterEnabled ? 1 : 0);
+        if (ServerConfig.clusterEnabled) {
+            line(sb, "cluster_slots_assigned", clusterState.countAssignedSlots());
+        }
+    }
+
+    private void keyspace(StringBuilder sb) {
+        sb.append("# Keyspace\r\n");
+        long keys = KeyspaceScan.size();
+        if (keys > 0) {
+            line(sb, "db0", "keys=" + keys + ",expires=" + RedisServer.keyExpiryTimes.size());
+        }
+    }
+
+    private void commandStats(StringBuilder sb) {
+        sb.append("# Commandstats\r\n");
+        for (CommandInfo info : CommandTable.all()) {
+            long calls = info.getCalls();
+            if (calls == 0) continue;
+            long usec = info.getMicroseconds();
+            line(sb, "cmdstat_" + info.getName().toLowerCase(),
+                    "calls=" + calls + ",usec=" + usec + ",usec_per_call=" + String.format("%.2f", (double) usec / calls));
+        }
+    }
+
+    private static void line(StringBuilder sb, String field, Object value) {
+        sb.append(field).append(':').append(value).append("\r\n");
+    }
+
+    private static String humanBytes(long bytes) {
+        if (bytes < 1024) return bytes + "B";
+        if (bytes < 1024 * 1024) return String.format("%.2fK", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.2fM", bytes / (1024.0 * 1024));
+        return String.format("%.2fG", bytes / (1024.0 * 1024 * 1024));
+    }
+}
@@ -0,0 +1,250 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * In-process microbenchmarks for the server hot paths.
+ * Reports average time and allocated bytes per operation (the equivalent of JMH's -prof gc alloc.rate.norm).
+ * Run with: java -Xmx4g -cp target/classes ServerMicrobenchmark [filter] [maxExpiryKeys]
+ */
+class ServerMicrobenchmark {
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASUREMENT_ITERATIONS = 10;
+    private static final com.sun.management.ThreadMXBean threadMXBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final ServerRESPResponse serverRESPResponse = new ServerRESPResponse();
+    private final ExpiredKeyHandler expiredKeyHandler = new ExpiredKeyHandler();
+    private final KeyPersistenceService keyPersistenceService = new KeyPersistenceService();
+    private final CommandExecutor commandExecutor = new CommandExecutor(expiredKeyHandler, serverRESPResponse, keyPersistenceService,
+            new ReplicationService(), new ClusterState());
+    private final ClientHandler clientHandler = new ClientHandler(commandExecutor);
+    private final ClientSession session = new ClientSession();
+    private final ByteArrayOutputStream sink = new ByteArrayOutputStream(1 << 16);
+    private final String filter;
+    private long blackhole;
+
+    interface Operation {
+        void run(int index) throws Exception;
+    }
+
+    private ServerMicrobenchmark(String filter) {
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 ? args[0] : "";
+        long maxExpiryKeys = args.length > 1 ? Long.parseLong(args[1]) : 10_000_000L;
+
+        ServerMicrobenchmark benchmark = new ServerMicrobenchmark(filter);
+        System.out.printf("%-32s %10s %14s %10s %14s%n", "Benchmark", "(keys)", "ns/op", "stddev", "B/op");
+        benchmark.respParsing();
+        benchmark.replyEncoding();
+        benchmark.commandExecution();
+        benchmark.streams(100_000);
+        benchmark.sketches();
+        benchmark.bitmaps(128 << 20);
+        for (int keys = 10_000; keys <= maxExpiryKeys; keys *= 10) {
+            benchmark.expirySampling(keys);
+        }
+        benchmark.persistence(100_000);
+        System.out.println("(blackhole " + benchmark.blackhole + ")");
+    }
+
+    private void respParsing() throws Exception {
+        int commands = 10_000;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < commands; i++) {
+            sb.append("*3\r\n$3\r\nSET\r\n$").append(String.valueOf(i).length() + 4).append("\r\nkey:").append(i)
+                    .append("\r\n$5\r\nvalue\r\n");
+        }
+        byte[] requests = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+        // One operation parses a whole batch so the reader setup is amortized across the pipelined requests
+        measure("resp.parse.set", "-", commands, 1, i -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(requests)));
+            for (int c = 0; c < commands; c++) {
+                blackhole += clientHandler.readCommand(reader, sink).length;
+            }
+        });
+    }
+
+    private void replyEncoding() throws Exception {
+        measure("resp.encode.simpleString", "-", 1, 100_000, i -> {
+            sink.reset();
+            serverRESPResponse.sendSimpleString(sink, "OK");
+        });
+        measure("resp.encode.integer", "-", 1, 100_000, i -> {
+            sink.reset();
+            serverRESPResponse.sendInteger(sink, i);
+        });
+        measure("resp.encode.bulkString", "-", 1, 100_000, i -> {
+            sink.reset();
+            serverRESPResponse.sendBulkString(sink, "value-of-a-typical-cache-entry");
+        });
+    }
+
+    private void commandExecution() throws Exception {
+        String[][] sets = commands("SET", 1024, "value");
+        String[][] gets = commands("GET", 1024, null);
+        String[][] incrs = commands("INCR", 1024, null);
+        String[][] lpushes = commands("LPUSH", 1024, "element");
+
+        clearKeyspace();
+        measure("executor.set", "1024", 1, 100_000, i -> execute(sets[i & 1023]));
+        measure("executor.get", "1024", 1, 100_000, i -> execute(gets[i & 1023]));
+        clearKeyspace();
+        measure("executor.incr", "1024", 1, 100_000, i -> execute(incrs[i & 1023]));
+        measure("executor.lpush", "1024", 1, 100_000, i -> {
+            if (i == 0) RedisServer.listDataStore.clear();
+            execute(lpushes[i & 1023]);
+        });
+        clearKeyspace();
+    }
+
+    private void streams(int entries) throws Exception {
+        clearKeyspace();
+        // XADD rewrites "*" in place, so every call gets a fresh array
+        measure("executor.xadd", "-", 1, entries, i -> execute(new String[]{"XADD", "events", "*", "type", "click", "user", "u" + (i & 1023)}));
+        if (RedisServer.streamDataStore.get("events") == null) {
+            // Filtered out above, but XRANGE still needs the stream
+            for (int i = 0; i < entries; i++) execute(new String[]{"XADD", "events", "*", "type", "click", "user", "u" + (i & 1023)});
+        }
+        StreamId middle = RedisServer.streamDataStore.get("events").range(StreamId.MIN, StreamId.MAX, entries / 2).get(entries / 2 - 1).id();
+        String[] range = {"XRANGE", "events", middle.toString(), "+", "COUNT", "100"};
+        measure("executor.xrange.count100", String.valueOf(entries), 100, 10_000, i -> execute(range));
+        clearKeyspace();
+    }
+
+    private void sketches() throws Exception {
+        String[][] pfadds = new String[4096][];
+        String[][] bfadds = new String[4096][];
+        for (int i = 0; i < 4096; i++) {
+            pfadds[i] = new String[]{"PFADD", "visitors", "user:" + i};
+            bfadds[i] = new String[]{"BF.ADD", "seen", "user:" + i};
+        }
+        clearKeyspace();
+        execute(new String[]{"BF.RESERVE", "seen", "0.01", "1000000"});
+        measure("executor.pfadd", "-", 1, 100_000, i -> execute(pfadds[i & 4095]));
+        measure("executor.pfcount", "-", 1, 100_000, i -> execute(new String[]{"PFCOUNT", "visitors"}));
+        measure("executor.bf.add", "-", 1, 100_000, i -> execute(bfadds[i & 4095]));
+        clearKeyspace();
+    }
+
+    // BITCOUNT and BITOP walk the whole value a word at a time, so their ns/op over bytes is the scan bandwidth
+    private void bitmaps(int bytes) throws Exception {
+        clearKeyspace();
+        String offset = String.valueOf(bytes * 8L - 1);
+        execute(new String[]{"SETBIT", "flags", offset, "1"});
+        execute(new String[]{"SETBIT", "other", offset, "1"});
+        measure("executor.setbit", "-", 1, 100_000, i -> execute(new String[]{"SETBIT", "flags", String.valueOf(i * 7919L % (bytes * 8L)), "1"}));
+        String param = (bytes >> 20) + "MB";
+        measure("executor.bitcount", param, 1, 5, i -> execute(new String[]{"BITCOUNT", "flags"}));
+        measure("executor.bitpos", param, 1, 5, i -> execute(new String[]{"BITPOS", "other", "1"}));
+        measure("executor.bitop.and", param, 1, 5, i -> execute(new String[]{"BITOP", "AND", "both", "flags", "other"}));
+        clearKeyspace();
+    }
+
+    private void expirySampling(int keys) throws Exception {
+        clearKeyspace();
+        long expiresAt = System.currentTimeMillis() + 3_600_000L;
+        for (int i = 0; i < keys; i++) {
+            String key = "key:" + i;
+            RedisServer.dataStore.put(key, "value");
+            RedisServer.keyExpiryTimes.put(key, expiresAt);
+        }
+        // Nothing has expired, so every call is exactly one sampling round
+        int ops = Math.max(1, 1_000_000 / keys);
+        measure("expire.sampleRound", String.valueOf(keys), 1, ops, i -> {
+            if (expiredKeyHandler.sampleAndExpireKeys()) blackhole++;
+        });
+        clearKeyspace();
+    }
+
+    private void persistence(int keys) throws Exception {
+        clearKeyspace();
+        for (int i = 0; i < keys; i++) {
+            RedisServer.dataStore.put("key:" + i, "value:" + i);
+        }
+        File file = File.createTempFile("bench", ".rdb");
+        file.deleteOnExit();
+        String filename = file.getPath();
+
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<String> results = new ArrayList<>();
+        try {
+            results.add(measureQuietly("persistence.save", String.valueOf(keys), 1, 1,
+                    i -> keyPersistenceService.saveDataToFile(filename)));
+            results.add(measureQuietly("persistence.load", String.valueOf(keys), 1, 1, i -> {
+                RedisServer.dataStore.clear();
+                KeyPersistenceService.loadDataFromFile(filename);
+            }));
+        } finally {
+            System.setOut(stdout);
+        }
+        results.forEach(System.out::println);
+        clearKeyspace();
+    }
+
+    private void execute(String[] command) throws IOException {
+        sink.reset();
+        commandExecutor.executeCommand(session, command, sink);
+    }
+
+    private static String[][] commands(String name, int keys, String value) {
+        String[][] commands = new String[keys][];
+        for (int i = 0; i < keys; i++) {
+            commands[i] = value == null ? new String[]{name, "key:" + i} : new String[]{name, "key:" + i, value};
+        }
+        return commands;
+    }
+
+    private static void clearKeyspace() {
+        RedisServer.dataStore.clear();
+        RedisServer.listDataStore.clear();
+        RedisServer.streamDataStore.clear();
+        RedisServer.hyperLogLogDataStore.clear();
+        RedisServer.bloomFilterDataStore.clear();
+        RedisServer.bitmapDataStore.clear();
+        RedisServer.keyExpiryTimes.clear();
+    }
+
+    private void measure(String name, String param, int opsPerCall, int calls, Operation operation) throws Exception {
+        String result = measureQuietly(name, param, opsPerCall, calls, operation);
+        if (result != null) System.out.println(result);
+    }
+
+    // Runs warmup and measurement iterations of `calls` invocations each, normalizing to `calls * opsPerCall` operations
+    private String measureQuietly(String name, String param, int opsPerCall, int calls, Operation operation) throws Exception {
+        if (!name.contains(filter)) return null;
+
+        long threadId = Thread.currentThread().getId();
+        for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++) {
+            for (int i = 0; i < calls; i++) operation.run(i);
+        }
+
+        double[] nsPerOp = new double[MEASUREMENT_ITERATIONS];
+        long allocatedBytes = 0;
+        for (int iteration = 0; iteration < MEASUREMENT_ITERATIONS; iteration++) {
+            long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) operation.run(i);
+            long elapsed = System.nanoTime() - start;
+            allocatedBytes += threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+            nsPerOp[iteration] = (double) elapsed / ((long) calls * opsPerCall);
+        }
+
+        double mean = 0;
+        for (double value : nsPerOp) mean += value;
+        mean /= nsPerOp.length;
+        double variance = 0;
+        for (double value : nsPerOp) variance += (value - mean) * (value - mean);
+        double stddev = Math.sqrt(variance / (nsPerOp.length - 1));
+        double bytesPerOp = (double) allocatedBytes / ((long) MEASUREMENT_ITERATIONS * calls * opsPerCall);
+
+        return String.format("%-32s %10s %14.1f %10.1f %14.1f", name, param, mean, stddev, bytesPerOp);
+    }
+}
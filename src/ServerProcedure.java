@@ -0,0 +1,14 @@
+import java.util.List;
+
+/**
+ * A server-side procedure invoked with FCALL name numkeys key... arg...
+ * It runs next to the data with the stripes of its declared keys locked, so compound read-modify-write
+ * logic costs one round trip and needs no WATCH. Commands go through {@link ProcedureContext#call}, which
+ * only accepts the declared keys. The return value becomes the reply: null, String, Number, Boolean or a
+ * List of those. Implementations need a public no-argument constructor to be loaded with FUNCTION LOAD.
+ */
+public interface ServerProcedure {
+    String getName();
+
+    Object call(ProcedureContext context, List<String> keys, List<String> args) throws ProcedureException;
+}
@@ -21,7 +21,21 @@ public class ServerRESPResponse {
         out.write("\r\n".getBytes());
     }
 
+    public void sendBulkString(OutputStream out, byte[] data) throws IOException {
+        out.write(('$' + String.valueOf(data.length) + "\r\n").getBytes());
+        out.write(data);
+        out.write("\r\n".getBytes());
+    }
+
     public void sendNullBulkString(OutputStream out) throws IOException {
         out.write("$-1\r\n".getBytes());
     }
+
+    public void sendNullArray(OutputStream out) throws IOException {
+        out.write("*-1\r\n".getBytes());
+    }
+
+    public void sendArrayHeader(OutputStream out, int count) throws IOException {
+        out.write(('*' + String.valueOf(count) + "\r\n").getBytes());
+    }
 }
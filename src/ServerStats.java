@@ -0,0 +1,38 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+public class ServerStats {
+    static final long startTimeMillis = System.currentTimeMillis();
+    static final LongAdder totalCommandsProcessed = new LongAdder();
+    static final LongAdder totalConnectionsReceived = new LongAdder();
+    static final AtomicInteger connectedClients = new AtomicInteger();
+    static final LongAdder expiredKeys = new LongAdder();
+    static final LongAdder keyspaceHits = new LongAdder();
+    static final LongAdder keyspaceMisses = new LongAdder();
+
+    private static final long OPS_SAMPLE_INTERVAL_MS = 100;
+    private static long lastSampleTime = startTimeMillis;
+    private static long lastSampleCommands = 0;
+    private static long instantaneousOpsPerSec = 0;
+
+    // Sampled lazily on read instead of from a cron thread, so the rate covers the time since the previous sample
+    public static synchronized long getInstantaneousOpsPerSec() {
+        long now = System.currentTimeMillis();
+        long elapsed = now - lastSampleTime;
+        if (elapsed >= OPS_SAMPLE_INTERVAL_MS) {
+            long commands = totalCommandsProcessed.sum();
+            instantaneousOpsPerSec = (commands - lastSampleCommands) * 1000 / elapsed;
+            lastSampleTime = now;
+            lastSampleCommands = commands;
+        }
+        return instantaneousOpsPerSec;
+    }
+
+    public static void reset() {
+        totalCommandsProcessed.reset();
+        totalConnectionsReceived.reset();
+        expiredKeys.reset();
+        keyspaceHits.reset();
+        keyspaceMisses.reset();
+    }
+}
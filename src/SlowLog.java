@@ -0,0 +1,92 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class SlowLog {
+    private static final int MAX_ARGS = 32;
+    private static final int MAX_ARG_LENGTH = 128;
+
+    record Entry(long id, long timestampSeconds, long durationMicros, String[] arguments) {
+    }
+
+    private Entry[] entries = new Entry[ServerConfig.slowlogMaxLen];
+    private int head = 0;
+    private int size = 0;
+    private long nextId = 0;
+
+    // Called after every command; only commands over the threshold take the lock
+    public void recordIfSlow(String[] command, long durationMicros) {
+        long threshold = ServerConfig.slowlogLogSlowerThan;
+        if (threshold < 0 || durationMicros < threshold) {
+            return;
+        }
+        add(command, durationMicros);
+    }
+
+    private synchronized void add(String[] command, long durationMicros) {
+        resizeIfNeeded();
+        if (entries.length == 0) {
+            return;
+        }
+        Entry entry = new Entry(nextId++, System.currentTimeMillis() / 1000, durationMicros, truncate(command));
+        head = (head + entries.length - 1) % entries.length;
+        entries[head] = entry;
+        size = Math.min(size + 1, entries.length);
+    }
+
+    // Newest entries first
+    public synchronized List<Entry> get(int count) {
+        resizeIfNeeded();
+        int n = count < 0 ? size : Math.min(count, size);
+        List<Entry> result = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            result.add(entries[(head + i) % entries.length]);
+        }
+        return result;
+    }
+
+    public synchronized int length() {
+        resizeIfNeeded();
+        return size;
+    }
+
+    public synchronized void reset() {
+        entries = new Entry[ServerConfig.slowlogMaxLen];
+        head = 0;
+        size = 0;
+    }
+
+    // Applies a CONFIG SET slowlog-max-len, keeping the newest entries
+    private void resizeIfNeeded() {
+        int maxLen = ServerConfig.slowlogMaxLen;
+        if (maxLen == entries.length) {
+            return;
+        }
+        Entry[] resized = new Entry[maxLen];
+        int kept = Math.min(size, maxLen);
+        for (int i = 0; i < kept; i++) {
+            resized[i] = entries[(head + i) % entries.length];
+        }
+        entries = resized;
+        head = 0;
+        size = kept;
+    }
+
+    private static String[] truncate(String[] command) {
+        int argc = Math.min(command.length, MAX_ARGS);
+        String[] arguments = new String[argc];
+        for (int i = 0; i < argc; i++) {
+            if (i == MAX_ARGS - 1 && command.length > MAX_ARGS) {
+                arguments[i] = "... (" + (command.length - MAX_ARGS + 1) + " more arguments)";
+            } else if (command[i] == null) {
+                // SLOWLOG GET replies with bulk strings, which cannot be null
+                arguments[i] = "";
+            } else if (command[i].length() > MAX_ARG_LENGTH) {
+                arguments[i] = command[i].substring(0, MAX_ARG_LENGTH) + "... ("
+                        + (command[i].length() - MAX_ARG_LENGTH) + " more bytes)";
+            } else {
+                arguments[i] = command[i];
+            }
+        }
+        return arguments;
+    }
+}
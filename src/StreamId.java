@@ -0,0 +1,54 @@
+/**
+ * A stream entry ID, "ms-seq": the append time in milliseconds and a sequence number within that millisecond.
+ * Both parts are unsigned 64-bit values as in Redis, so MAX is all ones and comparison is unsigned.
+ */
+public record StreamId(long ms, long seq) implements Comparable<StreamId> {
+    static final StreamId MIN = new StreamId(0, 0);
+    static final StreamId MAX = new StreamId(-1L, -1L);
+
+    // "ms-seq", or just "ms" with the given sequence; throws NumberFormatException on anything else
+    static StreamId parse(String value, long defaultSeq) {
+        int dash = value.indexOf('-');
+        if (dash < 0) {
+            return new StreamId(Long.parseUnsignedLong(value), defaultSeq);
+        }
+        return new StreamId(Long.parseUnsignedLong(value.substring(0, dash)), Long.parseUnsignedLong(value.substring(dash + 1)));
+    }
+
+    // XRANGE start: "-" is the smallest ID, "(" excludes the ID itself; returns null past the largest ID
+    static StreamId parseRangeStart(String value) {
+        if (value.equals("-")) return MIN;
+        if (value.startsWith("(")) return parse(value.substring(1), 0).next();
+        return parse(value, 0);
+    }
+
+    // XRANGE end: "+" is the largest ID, "(" excludes the ID itself; returns null before the smallest ID
+    static StreamId parseRangeEnd(String value) {
+        if (value.equals("+")) return MAX;
+        if (value.startsWith("(")) return parse(value.substring(1), -1L).previous();
+        return parse(value, -1L);
+    }
+
+    // The smallest ID after this one, null if this is MAX
+    StreamId next() {
+        if (seq != -1L) return new StreamId(ms, seq + 1);
+        return ms == -1L ? null : new StreamId(ms + 1, 0);
+    }
+
+    // The largest ID before this one, null if this is MIN
+    StreamId previous() {
+        if (seq != 0) return new StreamId(ms, seq - 1);
+        return ms == 0 ? null : new StreamId(ms - 1, -1L);
+    }
+
+    @Override
+    public int compareTo(StreamId other) {
+        int byMs = Long.compareUnsigned(ms, other.ms);
+        return byMs != 0 ? byMs : Long.compareUnsigned(seq, other.seq);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toUnsignedString(ms) + "-" + Long.toUnsignedString(seq);
+    }
+}
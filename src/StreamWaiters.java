@@ -0,0 +1,68 @@
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Clients blocked in XREAD BLOCK, by stream key. A waiter registers before its first read attempt, so an XADD
+ * landing between that read and the wait still wakes it; it then waits without holding any key lock.
+ */
+public class StreamWaiters {
+    static class Waiter {
+        private final List<String> keys;
+        private boolean signalled;
+
+        Waiter(List<String> keys) {
+            this.keys = keys;
+        }
+
+        synchronized void signal() {
+            signalled = true;
+            notifyAll();
+        }
+
+        // Returns early when signalled; a signal that came before the call is not lost
+        synchronized void await(long millis) throws InterruptedException {
+            if (!signalled) wait(millis);
+            signalled = false;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final AtomicInteger blockedClients = new AtomicInteger();
+
+    Waiter register(List<String> keys) {
+        Waiter waiter = new Waiter(keys);
+        for (String key : keys) {
+            waiters.compute(key, (k, set) -> {
+                if (set == null) set = ConcurrentHashMap.newKeySet();
+                set.add(waiter);
+                return set;
+            });
+        }
+        blockedClients.incrementAndGet();
+        return waiter;
+    }
+
+    void unregister(Waiter waiter) {
+        blockedClients.decrementAndGet();
+        for (String key : waiter.keys) {
+            waiters.computeIfPresent(key, (k, set) -> {
+                set.remove(waiter);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    // XADD: wakes everyone blocked on the key to read again
+    void signal(String key) {
+        Set<Waiter> blocked = waiters.get(key);
+        if (blocked != null) {
+            for (Waiter waiter : blocked) waiter.signal();
+        }
+    }
+
+    int blockedClients() {
+        return blockedClients.get();
+    }
+}
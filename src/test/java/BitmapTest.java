@@ -0,0 +1,126 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BitmapTest extends ServerTestBase {
+
+    @Test
+    void setbitGrowsTheStringAndReturnsTheOldBit() throws Exception {
+        assertEquals(":0\r\n", exec("SETBIT", "b", "7", "1"));
+        assertEquals(":1\r\n", exec("SETBIT", "b", "7", "1"));
+        assertEquals(":1\r\n", exec("GETBIT", "b", "7"));
+        assertEquals(":0\r\n", exec("GETBIT", "b", "1000"));
+        assertEquals("$1\r\n\u0001\r\n", exec("GET", "b"));
+
+        exec("SETBIT", "b", "23", "1");
+        assertEquals("$3\r\n\u0001\u0000\u0001\r\n", exec("GET", "b"));
+        assertEquals("-ERR bit offset is not an integer or out of range\r\n", exec("SETBIT", "b", "4294967296", "1"));
+        assertEquals("-ERR bit offset is not an integer or out of range\r\n", exec("SETBIT", "b", "-1", "1"));
+    }
+
+    @Test
+    void stringsAndBitmapsAreOneType() throws Exception {
+        exec("SET", "s", "foobar");
+        assertEquals(":1\r\n", exec("GETBIT", "s", "1"));
+        exec("SETBIT", "s", "7", "1");
+        assertEquals(bulk("goobar"), exec("GET", "s"));
+
+        // "1" is 00110001
+        exec("SETBIT", "n", "2", "1");
+        exec("SETBIT", "n", "3", "1");
+        exec("SETBIT", "n", "7", "1");
+        assertEquals(":2\r\n", exec("INCR", "n"));
+        assertEquals(bulk("2"), exec("GET", "n"));
+    }
+
+    @Test
+    void bitcountRangesInBytesAndBits() throws Exception {
+        exec("SET", "s", "foobar");
+        assertEquals(":26\r\n", exec("BITCOUNT", "s"));
+        assertEquals(":4\r\n", exec("BITCOUNT", "s", "0", "0"));
+        assertEquals(":6\r\n", exec("BITCOUNT", "s", "1", "1"));
+        assertEquals(":17\r\n", exec("BITCOUNT", "s", "5", "30", "BIT"));
+        assertEquals(":7\r\n", exec("BITCOUNT", "s", "-2", "-1"));
+        assertEquals(":0\r\n", exec("BITCOUNT", "s", "4", "2"));
+        assertEquals(":0\r\n", exec("BITCOUNT", "missing"));
+
+        // Across the 64-bit words the bitmap is packed in
+        for (int offset : new int[]{0, 63, 64, 127, 128, 1000}) {
+            exec("SETBIT", "w", String.valueOf(offset), "1");
+        }
+        assertEquals(":6\r\n", exec("BITCOUNT", "w"));
+        assertEquals(":4\r\n", exec("BITCOUNT", "w", "63", "128", "BIT"));
+        assertEquals(":2\r\n", exec("BITCOUNT", "w", "8", "15"));
+    }
+
+    @Test
+    void bitposFindsBitsWithinRanges() throws Exception {
+        for (int offset = 8; offset < 20; offset++) {
+            exec("SETBIT", "b", String.valueOf(offset), "1");
+        }
+        // b is 00 FF F0
+        assertEquals(":8\r\n", exec("BITPOS", "b", "1"));
+        assertEquals(":16\r\n", exec("BITPOS", "b", "1", "2"));
+        assertEquals(":16\r\n", exec("BITPOS", "b", "1", "2", "-1", "BYTE"));
+        assertEquals(":8\r\n", exec("BITPOS", "b", "1", "7", "15", "BIT"));
+        assertEquals(":20\r\n", exec("BITPOS", "b", "0", "1"));
+        assertEquals(":-1\r\n", exec("BITPOS", "b", "1", "3"));
+        assertEquals("-ERR The bit argument must be 1 or 0.\r\n", exec("BITPOS", "b", "2"));
+
+        assertEquals(":0\r\n", exec("BITPOS", "missing", "0"));
+        assertEquals(":-1\r\n", exec("BITPOS", "missing", "1"));
+    }
+
+    @Test
+    void bitposForAClearBitInAllOnes() throws Exception {
+        for (int offset = 0; offset < 72; offset++) {
+            exec("SETBIT", "ones", String.valueOf(offset), "1");
+        }
+        // Without an end the string is taken as padded with zeros, with one the range is all there is
+        assertEquals(":72\r\n", exec("BITPOS", "ones", "0"));
+        assertEquals(":-1\r\n", exec("BITPOS", "ones", "0", "0", "-1"));
+        assertEquals(":64\r\n", exec("BITPOS", "ones", "1", "8"));
+    }
+
+    @Test
+    void bitopCombinesStringsOfDifferentLengths() throws Exception {
+        exec("SET", "a", "foobar");
+        exec("SET", "b", "abcdef");
+        assertEquals(":6\r\n", exec("BITOP", "AND", "and", "a", "b"));
+        assertEquals(bulk("`bc`ab"), exec("GET", "and"));
+
+        exec("SET", "short", "ab");
+        assertEquals(":6\r\n", exec("BITOP", "OR", "or", "short", "a", "missing"));
+        assertEquals(bulk("goobar"), exec("GET", "or"));
+        exec("BITOP", "AND", "and2", "short", "a");
+        assertEquals("$6\r\n" + "`b" + "\u0000".repeat(4) + "\r\n", exec("GET", "and2"));
+        exec("BITOP", "XOR", "xor", "a", "a");
+        assertEquals(":0\r\n", exec("BITCOUNT", "xor"));
+        assertEquals(":6\r\n", exec("BITOP", "NOT", "not", "a"));
+        assertEquals(":22\r\n", exec("BITCOUNT", "not"));
+    }
+
+    @Test
+    void bitopOfOnlyMissingKeysDeletesTheDestination() throws Exception {
+        exec("SET", "dest", "v");
+        assertEquals(":0\r\n", exec("BITOP", "OR", "dest", "missing1", "missing2"));
+        assertEquals(":0\r\n", exec("EXISTS", "dest"));
+
+        assertEquals("-ERR BITOP NOT must be called with a single source key.\r\n", exec("BITOP", "NOT", "d", "a", "b"));
+        exec("RPUSH", "l", "x");
+        assertTrue(exec("BITOP", "AND", "d", "l").startsWith("-WRONGTYPE"));
+        assertTrue(exec("SETBIT", "l", "0", "1").startsWith("-WRONGTYPE"));
+    }
+
+    @Test
+    void dumpAndRestoreKeepTheBits() throws Exception {
+        for (int offset : new int[]{1, 64, 999}) {
+            exec("SETBIT", "b", String.valueOf(offset), "1");
+        }
+        String payload = (String) parse(exec("DUMP", "b"));
+        assertEquals("+OK\r\n", exec("RESTORE", "copy", "0", payload));
+        assertEquals(exec("GET", "b"), exec("GET", "copy"));
+        assertEquals(":3\r\n", exec("BITCOUNT", "copy"));
+    }
+}
@@ -0,0 +1,51 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BloomFilterTest extends ServerTestBase {
+
+    @Test
+    void neverForgetsAMemberAndKeepsFalsePositivesNearTheRate() throws Exception {
+        assertEquals("+OK\r\n", exec("BF.RESERVE", "bf", "0.01", "1000"));
+        // Five times the capacity: the filter scales out in layers with tighter rates
+        for (int i = 0; i < 5000; i++) {
+            exec("BF.ADD", "bf", "member:" + i);
+        }
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(":1\r\n", exec("BF.EXISTS", "bf", "member:" + i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 20_000; i++) {
+            if (exec("BF.EXISTS", "bf", "stranger:" + i).equals(":1\r\n")) falsePositives++;
+        }
+        assertTrue(falsePositives < 20_000 * 0.02, falsePositives + " false positives");
+    }
+
+    @Test
+    void addReportsNewItemsAndCreatesDefaultFilters() throws Exception {
+        assertEquals(":1\r\n", exec("BF.ADD", "bf", "a"));
+        assertEquals(":0\r\n", exec("BF.ADD", "bf", "a"));
+        assertEquals(":0\r\n", exec("BF.EXISTS", "missing", "a"));
+        assertEquals("-ERR item exists\r\n", exec("BF.RESERVE", "bf", "0.01", "100"));
+    }
+
+    @Test
+    void nonScalingFilterRefusesItemsOnceFull() throws Exception {
+        exec("BF.RESERVE", "bf", "0.01", "10", "NONSCALING");
+        String reply = "";
+        for (int i = 0; i < 100 && !reply.startsWith("-"); i++) {
+            reply = exec("BF.ADD", "bf", "item:" + i);
+        }
+        assertTrue(reply.startsWith("-ERR"), reply);
+    }
+
+    @Test
+    void rejectsBadParametersAndOtherTypes() throws Exception {
+        assertEquals("-ERR (0 < error rate range < 1)\r\n", exec("BF.RESERVE", "bf", "1.5", "100"));
+        assertEquals("-ERR (capacity should be larger than 0)\r\n", exec("BF.RESERVE", "bf", "0.01", "0"));
+        assertEquals("-ERR bad error rate, capacity or expansion\r\n", exec("BF.RESERVE", "bf", "0.01", "100", "EXPANSION", "0"));
+        exec("SET", "s", "v");
+        assertTrue(exec("BF.ADD", "s", "a").startsWith("-WRONGTYPE"));
+    }
+}
@@ -0,0 +1,135 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class ClusterTest extends ServerTestBase {
+    private static final String OTHER_NODE = "127.0.0.1:7002";
+
+    @BeforeEach
+    void enableCluster() {
+        ServerConfig.clusterEnabled = true;
+    }
+
+    @AfterEach
+    void disableCluster() {
+        ServerConfig.clusterEnabled = false;
+    }
+
+    @Test
+    void redirectsKeysOfSlotsOwnedElsewhere() throws Exception {
+        int slot = HashSlot.keySlot("k");
+        assertEquals("-CLUSTERDOWN Hash slot not served\r\n", exec("GET", "k"));
+
+        clusterState.setSlot(slot, "NODE", OTHER_NODE);
+        assertEquals("-MOVED " + slot + " " + OTHER_NODE + "\r\n", exec("GET", "k"));
+
+        clusterState.setSlot(slot, "NODE", clusterState.getMyself());
+        assertEquals("+OK\r\n", exec("SET", "k", "v"));
+        assertEquals("+PONG\r\n", exec("PING"));
+    }
+
+    @Test
+    void multiKeyCommandsNeedOneSlot() throws Exception {
+        exec("CLUSTER", "ADDSLOTSRANGE", "0", String.valueOf(HashSlot.SLOT_COUNT - 1));
+        assertEquals("-CROSSSLOT Keys in request don't hash to the same slot\r\n", exec("DEL", "a", "b"));
+        assertEquals(HashSlot.keySlot("{user}a"), HashSlot.keySlot("{user}b"));
+        assertEquals(":0\r\n", exec("DEL", "{user}a", "{user}b"));
+    }
+
+    @Test
+    void migratingSlotSendsMissingKeysToTheTarget() throws Exception {
+        int slot = HashSlot.keySlot("present");
+        clusterState.setSlot(slot, "NODE", clusterState.getMyself());
+        exec("SET", "present", "v");
+        clusterState.setSlot(slot, "MIGRATING", OTHER_NODE);
+
+        assertEquals(bulk("v"), exec("GET", "present"));
+        int missingSlot = HashSlot.keySlot("missing");
+        clusterState.setSlot(missingSlot, "NODE", clusterState.getMyself());
+        clusterState.setSlot(missingSlot, "MIGRATING", OTHER_NODE);
+        assertEquals("-ASK " + missingSlot + " " + OTHER_NODE + "\r\n", exec("GET", "missing"));
+    }
+
+    @Test
+    void importingSlotServesOnlyTheCommandAfterAsking() throws Exception {
+        int slot = HashSlot.keySlot("k");
+        clusterState.setSlot(slot, "NODE", OTHER_NODE);
+        clusterState.setSlot(slot, "IMPORTING", OTHER_NODE);
+
+        assertEquals("-MOVED " + slot + " " + OTHER_NODE + "\r\n", exec("SET", "k", "v"));
+        assertEquals("+OK\r\n", exec("ASKING"));
+        assertEquals("+OK\r\n", exec("SET", "k", "v"));
+        assertEquals("-MOVED " + slot + " " + OTHER_NODE + "\r\n", exec("GET", "k"));
+    }
+
+    @Test
+    void migrateMovesTheKeyAndDeletesIt() throws Exception {
+        ServerConfig.clusterEnabled = false;
+        CountDownLatch restore = new CountDownLatch(0);
+        try (ServerSocket target = stubTarget(restore)) {
+            exec("SET", "k", "v");
+            assertEquals("+OK\r\n", exec("MIGRATE", "127.0.0.1", String.valueOf(target.getLocalPort()), "k", "0", "1000"));
+            assertFalse(RedisServer.dataStore.containsKey("k"));
+        }
+        assertEquals("+NOKEY\r\n", exec("MIGRATE", "127.0.0.1", "1", "k", "0", "1000"));
+    }
+
+    @Test
+    void migrateKeepsAKeyWrittenDuringTheRoundTrip() throws Exception {
+        ServerConfig.clusterEnabled = false;
+        CountDownLatch restore = new CountDownLatch(1);
+        try (ServerSocket target = stubTarget(restore)) {
+            exec("SET", "k", "v");
+            CompletableFuture<String> migrate = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return exec(new ClientSession(), "MIGRATE", "127.0.0.1", String.valueOf(target.getLocalPort()), "k", "0", "5000");
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            // Would block on the key's stripe if MIGRATE still held it while waiting on the target
+            Thread.sleep(100);
+            assertEquals("+OK\r\n", exec("SET", "k", "w"));
+            restore.countDown();
+
+            assertEquals("-TRYAGAIN Key was modified during the migration\r\n", migrate.get(5, TimeUnit.SECONDS));
+            assertEquals("w", RedisServer.dataStore.get("k"));
+        }
+    }
+
+    // Answers +OK to every command, holding back the reply to the second (the RESTORE after ASKING) until released
+    private static ServerSocket stubTarget(CountDownLatch restore) throws IOException {
+        ServerSocket serverSocket = new ServerSocket(0);
+        Thread thread = new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                OutputStream out = socket.getOutputStream();
+                int commands = 0;
+                for (String line; (line = in.readLine()) != null; ) {
+                    if (!line.startsWith("*")) continue;
+                    if (++commands == 2) restore.await();
+                    out.write("+OK\r\n".getBytes(StandardCharsets.US_ASCII));
+                }
+            } catch (IOException | InterruptedException e) {
+                // The test closed the socket
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return serverSocket;
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HyperLogLogTest extends ServerTestBase {
+
+    @Test
+    void estimatesStayWithinTheErrorBound() throws Exception {
+        // Sparse at first, dense past a few thousand registers; 0.81% standard error, checked at four sigma
+        for (int cardinality : new int[]{100, 1000, 20_000, 200_000}) {
+            String key = "h" + cardinality;
+            addAll(key, 0, cardinality);
+            long count = (Long) parse(exec("PFCOUNT", key));
+            assertTrue(Math.abs(count - cardinality) <= Math.max(2, cardinality * 0.0324), key + " counted " + count);
+        }
+        assertFalse(RedisServer.hyperLogLogDataStore.get("h100").isDense());
+        assertTrue(RedisServer.hyperLogLogDataStore.get("h200000").isDense());
+    }
+
+    @Test
+    void addsReportRegisterChangesAndRepeatsChangeNothing() throws Exception {
+        assertEquals(":1\r\n", exec("PFADD", "h", "a", "b"));
+        assertEquals(":0\r\n", exec("PFADD", "h", "a", "b"));
+        assertEquals(":1\r\n", exec("PFADD", "empty"));
+        assertEquals(":0\r\n", exec("PFCOUNT", "empty"));
+        assertEquals(":0\r\n", exec("PFCOUNT", "missing"));
+    }
+
+    @Test
+    void mergeAndMultiKeyCountGiveTheUnion() throws Exception {
+        addAll("a", 0, 6000);
+        addAll("b", 4000, 10_000);
+        long union = (Long) parse(exec("PFCOUNT", "a", "b"));
+        assertEquals("+OK\r\n", exec("PFMERGE", "u", "a", "b"));
+        assertEquals(union, parse(exec("PFCOUNT", "u")));
+        assertTrue(Math.abs(union - 10_000) <= 324, "union counted " + union);
+        // Sources are left as they were
+        assertTrue(Math.abs((Long) parse(exec("PFCOUNT", "a")) - 6000) <= 200);
+    }
+
+    @Test
+    void readsAsAStringAndSurvivesDumpAndRestore() throws Exception {
+        addAll("h", 0, 5000);
+        exec("RPUSH", "l", "a");
+        assertTrue(exec("PFADD", "l", "x").startsWith("-WRONGTYPE"));
+        assertTrue(exec("PFCOUNT", "h", "l").startsWith("-WRONGTYPE"));
+
+        byte[] encoding = RedisServer.hyperLogLogDataStore.get("h").toBytes();
+        assertTrue(exec("GET", "h").startsWith("$" + encoding.length + "\r\n"));
+
+        String payload = (String) parse(exec("DUMP", "h"));
+        assertEquals("+OK\r\n", exec("RESTORE", "copy", "0", payload));
+        assertEquals(exec("PFCOUNT", "h"), exec("PFCOUNT", "copy"));
+        String damaged = payload.substring(0, payload.length() - 12) + "////////////";
+        assertTrue(exec("RESTORE", "damaged", "0", damaged).startsWith("-"));
+    }
+
+    private void addAll(String key, int from, int to) throws Exception {
+        for (int start = from; start < to; start += 1000) {
+            List<String> command = new ArrayList<>(List.of("PFADD", key));
+            for (int i = start; i < Math.min(to, start + 1000); i++) {
+                command.add("element:" + i);
+            }
+            exec(command.toArray(new String[0]));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyspaceEventsTest extends ServerTestBase {
+    private static final String INVALIDATE = "*3\r\n" + bulk("message") + bulk("__redis__:invalidate");
+
+    private final ClientSession listener = new ClientSession();
+    private final ByteArrayOutputStream listenerOutput = new ByteArrayOutputStream();
+    private final ClientSession reader = new ClientSession();
+    private final ClientSession writer = new ClientSession();
+
+    @AfterEach
+    void disableNotifications() throws Exception {
+        exec("CONFIG", "SET", "notify-keyspace-events", "");
+        commandExecutor.closeSession(listener);
+        commandExecutor.closeSession(reader);
+    }
+
+    @Test
+    void notifiesKeyspaceAndKeyeventChannels() throws Exception {
+        exec("CONFIG", "SET", "notify-keyspace-events", "KEA");
+        listen("PSUBSCRIBE", "__key*__:*");
+
+        exec(writer, "SET", "k", "v");
+        exec(writer, "DEL", "missing");
+        exec(writer, "RPUSH", "l", "a");
+
+        String events = awaitListener(bulk("__keyevent@0__:rpush") + bulk("l"));
+        assertTrue(events.contains(bulk("__keyspace@0__:k") + bulk("set")), events);
+        assertTrue(events.contains(bulk("__keyevent@0__:set") + bulk("k")), events);
+        // Writes that changed nothing raise nothing
+        assertFalse(events.contains("missing"), events);
+    }
+
+    @Test
+    void trackedReadersAreInvalidatedOnceUntilTheyReadAgain() throws Exception {
+        listen("SUBSCRIBE", "__redis__:invalidate");
+        assertEquals("+OK\r\n", exec(reader, "CLIENT", "TRACKING", "ON", "REDIRECT", String.valueOf(listener.id)));
+        exec(writer, "SET", "k", "1");
+        exec(reader, "GET", "k");
+
+        exec(writer, "SET", "k", "2");
+        exec(writer, "SET", "k", "3");
+        exec(writer, "SET", "untracked", "v");
+        exec(reader, "GET", "k");
+        exec(writer, "DEL", "k");
+
+        String messages = awaitListener(INVALIDATE + "*1\r\n" + bulk("k") + INVALIDATE + "*1\r\n" + bulk("k"));
+        // One for the first write after each read
+        assertEquals(3, messages.split(Pattern.quote(INVALIDATE), -1).length, messages);
+        assertFalse(messages.contains("untracked"), messages);
+    }
+
+    @Test
+    void broadcastFollowsPrefixesAndNoLoopSkipsOwnWrites() throws Exception {
+        listen("SUBSCRIBE", "__redis__:invalidate");
+        exec(reader, "CLIENT", "TRACKING", "ON", "REDIRECT", String.valueOf(listener.id), "BCAST", "PREFIX", "user:", "NOLOOP");
+
+        exec(reader, "SET", "user:own", "v");
+        exec(writer, "SET", "order:1", "v");
+        exec(writer, "SET", "user:1", "v");
+
+        String messages = awaitListener(INVALIDATE + "*1\r\n" + bulk("user:1"));
+        assertFalse(messages.contains("user:own"), messages);
+        assertFalse(messages.contains("order:1"), messages);
+    }
+
+    private void listen(String... command) throws IOException {
+        commandExecutor.openSession(listener);
+        commandExecutor.openSession(reader);
+        listener.connection = () -> { };
+        commandExecutor.executeCommand(listener, command, listenerOutput);
+    }
+
+    private String awaitListener(String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!listenerOutput.toString(StandardCharsets.ISO_8859_1).contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        String output = listenerOutput.toString(StandardCharsets.ISO_8859_1);
+        assertTrue(output.contains(expected), output);
+        return output;
+    }
+}
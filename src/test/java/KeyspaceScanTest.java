@@ -0,0 +1,102 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeyspaceScanTest extends ServerTestBase {
+
+    @Test
+    void returnsEveryKeyPresentForTheWholeScan() throws Exception {
+        Set<String> stable = new HashSet<>();
+        for (int i = 0; i < 300; i++) {
+            exec("SET", "s:" + i, "v");
+            exec("RPUSH", "l:" + i, "v");
+            exec("PFADD", "h:" + i, "v");
+            stable.addAll(List.of("s:" + i, "l:" + i, "h:" + i));
+        }
+
+        CompletableFuture<Void> churn = CompletableFuture.runAsync(() -> {
+            try {
+                ClientSession other = new ClientSession();
+                for (int i = 0; i < 2000; i++) {
+                    exec(other, "SET", "tmp:" + i, "v");
+                    if (i % 2 == 0) exec(other, "DEL", "tmp:" + (i / 2));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Set<String> seen = scanAll(null, null, 7);
+        churn.get();
+
+        assertTrue(seen.containsAll(stable));
+    }
+
+    @Test
+    void filtersByPatternAndType() throws Exception {
+        exec("SET", "user:1", "v");
+        exec("SETBIT", "user:2", "7", "1");
+        exec("PFADD", "user:3", "a");
+        exec("RPUSH", "user:4", "a");
+        exec("SET", "other", "v");
+
+        assertEquals(Set.of("user:1", "user:2", "user:3", "user:4"), scanAll("user:*", null, 2));
+        // Bitmaps and HyperLogLogs are strings to clients
+        assertEquals(Set.of("user:1", "user:2", "user:3", "other"), scanAll(null, "string", 2));
+        assertEquals(Set.of("user:4"), scanAll(null, "list", 2));
+        assertEquals(5L, parse(exec("DBSIZE")));
+        assertEquals(Set.of("user:3"), new HashSet<>(list(exec("KEYS", "*:3"))));
+    }
+
+    @Test
+    void evictedAndUnknownCursorsResume() throws Exception {
+        Set<String> all = new HashSet<>();
+        for (int i = 0; i < 50; i++) {
+            exec("SET", "k" + i, "v");
+            all.add("k" + i);
+        }
+        List<Object> first = list(exec("SCAN", "0", "COUNT", "1"));
+        // More open cursors than the server keeps evicts the first one
+        for (int i = 0; i < 1100; i++) {
+            exec("SCAN", "0", "COUNT", "1");
+        }
+        Set<String> seen = new HashSet<>(strings(first.get(1)));
+        seen.addAll(scanFrom((String) first.get(0), null, null, 1000));
+        assertEquals(all, seen);
+
+        assertEquals(all, scanFrom("123456789", null, null, 1000));
+    }
+
+    private Set<String> scanAll(String pattern, String type, int count) throws Exception {
+        return scanFrom("0", pattern, type, count);
+    }
+
+    private Set<String> scanFrom(String cursor, String pattern, String type, int count) throws Exception {
+        Set<String> seen = new HashSet<>();
+        do {
+            List<String> command = new ArrayList<>(List.of("SCAN", cursor, "COUNT", String.valueOf(count)));
+            if (pattern != null) command.addAll(List.of("MATCH", pattern));
+            if (type != null) command.addAll(List.of("TYPE", type));
+            List<Object> reply = list(exec(command.toArray(new String[0])));
+            cursor = (String) reply.get(0);
+            seen.addAll(strings(reply.get(1)));
+        } while (!cursor.equals("0"));
+        return seen;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(String reply) {
+        return (List<Object>) parse(reply);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> strings(Object elements) {
+        return (List<String>) elements;
+    }
+}
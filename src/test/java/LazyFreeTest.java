@@ -0,0 +1,42 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class LazyFreeTest extends ServerTestBase {
+
+    @Test
+    void unlinkRemovesKeysOfEveryType() throws Exception {
+        List<String> push = new ArrayList<>(List.of("RPUSH", "big"));
+        for (int i = 0; i < 10 * LazyFreeService.LAZYFREE_THRESHOLD; i++) {
+            push.add(String.valueOf(i));
+        }
+        exec(push.toArray(new String[0]));
+        exec("SET", "s", "v", "EX", "100");
+        exec("XADD", "x", "*", "f", "v");
+        exec("PFADD", "h", "a");
+
+        assertEquals(":4\r\n", exec("UNLINK", "big", "s", "x", "h", "missing"));
+        assertEquals(":0\r\n", exec("EXISTS", "big", "s", "x", "h"));
+        assertNull(RedisServer.keyExpiryTimes.get("s"));
+        // The key is free for a new value right away, whatever the worker still holds
+        assertEquals(":1\r\n", exec("RPUSH", "big", "again"));
+    }
+
+    @Test
+    void flushallAsyncEmptiesTheKeyspaceAtOnce() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            exec("SET", "k" + i, "v");
+        }
+        exec("RPUSH", "l", "a", "b");
+
+        assertEquals("+OK\r\n", exec("FLUSHALL", "ASYNC"));
+        assertEquals(":0\r\n", exec("DBSIZE"));
+        assertEquals("$-1\r\n", exec("GET", "k1"));
+        assertEquals("+OK\r\n", exec("SET", "k1", "w"));
+        assertEquals(bulk("w"), exec("GET", "k1"));
+    }
+}
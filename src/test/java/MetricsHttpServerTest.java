@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsHttpServerTest extends ServerTestBase {
+    private final MetricsHttpServer metricsHttpServer = new MetricsHttpServer();
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @AfterEach
+    void stopServer() {
+        metricsHttpServer.stop();
+    }
+
+    @Test
+    void servesTheTextExpositionFormat() throws Exception {
+        exec("SET", "a", "1");
+        exec("RPUSH", "l", "x");
+        exec("PFADD", "h", "x");
+        URI uri = start();
+
+        HttpResponse<String> response = httpClient.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+
+        String body = response.body();
+        assertTrue(body.contains("# TYPE redis_command_duration_seconds histogram\n"), body);
+        assertTrue(body.contains("redis_command_duration_seconds_bucket{cmd=\"set\",le=\"+Inf\"} "), body);
+        assertTrue(body.contains("redis_keyspace_keys{type=\"string\"} 1\n"), body);
+        assertTrue(body.contains("redis_keyspace_keys{type=\"list\"} 1\n"), body);
+        for (String line : body.split("\n")) {
+            assertTrue(line.startsWith("# HELP ") || line.startsWith("# TYPE ") || line.matches("[a-z_]+(\\{.*})? \\S+"), line);
+        }
+    }
+
+    @Test
+    void refusesOtherMethods() throws Exception {
+        URI uri = start();
+        HttpResponse<String> response = httpClient.send(
+                HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(405, response.statusCode());
+    }
+
+    private URI start() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        metricsHttpServer.start(port);
+        return URI.create("http://127.0.0.1:" + port + "/metrics");
+    }
+}
@@ -0,0 +1,56 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ProcedureTest extends ServerTestBase {
+
+    // Sets each declared key to the argument at the same position, then the undeclared key given as last argument
+    static class SetProcedure implements ServerProcedure {
+        @Override
+        public String getName() {
+            return "setall";
+        }
+
+        @Override
+        public Object call(ProcedureContext context, List<String> keys, List<String> args) throws ProcedureException {
+            for (int i = 0; i < keys.size(); i++) {
+                context.call("SET", keys.get(i), args.get(i));
+            }
+            if (args.size() > keys.size()) {
+                context.call("SET", args.get(args.size() - 1), "x");
+            }
+            return (long) keys.size();
+        }
+    }
+
+    @Test
+    void rateLimitCountsRequestsInTheWindow() throws Exception {
+        assertEquals(List.of(1L, 1L), parse(exec("FCALL", "ratelimit", "1", "rl", "2", "60000")));
+        assertEquals(List.of(1L, 2L), parse(exec("FCALL", "ratelimit", "1", "rl", "2", "60000")));
+        assertEquals(List.of(0L, 3L), parse(exec("FCALL", "ratelimit", "1", "rl", "2", "60000")));
+        assertEquals("-ERR Function not found\r\n", exec("FCALL", "nosuch", "0"));
+        assertEquals("-ERR Number of keys can't be greater than number of args\r\n", exec("FCALL", "ratelimit", "2", "rl"));
+    }
+
+    @Test
+    void proceduresOnlyTouchDeclaredKeys() throws Exception {
+        commandExecutor.registerProcedure(new SetProcedure());
+        assertEquals(":2\r\n", exec("FCALL", "setall", "2", "a", "b", "1", "2"));
+        assertEquals(bulk("2"), exec("GET", "b"));
+
+        assertEquals("-ERR Procedure accessed a key that was not declared: 'c'\r\n",
+                exec("FCALL", "setall", "1", "a", "3", "c"));
+        assertNull(RedisServer.dataStore.get("c"));
+    }
+
+    @Test
+    void readOnlyCallsCannotWrite() throws Exception {
+        commandExecutor.registerProcedure(new SetProcedure());
+        assertEquals("-ERR Write commands are not allowed from read-only procedures\r\n",
+                exec("FCALL_RO", "setall", "1", "a", "1"));
+        assertEquals("$-1\r\n", exec("GET", "a"));
+    }
+}
@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PubSubTest extends ServerTestBase {
+    private final CountDownLatch closed = new CountDownLatch(1);
+
+    @AfterEach
+    void restoreLimits() throws Exception {
+        exec("CONFIG", "SET", "client-output-buffer-limit", "pubsub 33554432 8388608 60");
+    }
+
+    @Test
+    void deliversToChannelAndPatternSubscribers() throws Exception {
+        ByteArrayOutputStream channelClient = new ByteArrayOutputStream();
+        ByteArrayOutputStream patternClient = new ByteArrayOutputStream();
+        execAs(subscriber(), channelClient, "SUBSCRIBE", "news");
+        execAs(subscriber(), patternClient, "PSUBSCRIBE", "n*");
+
+        assertEquals(":2\r\n", exec("PUBLISH", "news", "hello"));
+        assertEquals(":0\r\n", exec("PUBLISH", "other", "hello"));
+
+        awaitOutput(channelClient, "*3\r\n" + bulk("subscribe") + bulk("news") + ":1\r\n"
+                + "*3\r\n" + bulk("message") + bulk("news") + bulk("hello"));
+        awaitOutput(patternClient, "*4\r\n" + bulk("pmessage") + bulk("n*") + bulk("news") + bulk("hello"));
+    }
+
+    @Test
+    void lastUnsubscribeRetiresTheSubscriber() throws Exception {
+        ClientSession client = subscriber();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        execAs(client, output, "SUBSCRIBE", "a", "b");
+        assertTrue(execAs(client, new ByteArrayOutputStream(), "GET", "k").isEmpty());
+
+        execAs(client, output, "UNSUBSCRIBE");
+        awaitOutput(output, "*3\r\n" + bulk("unsubscribe") + bulk("b") + ":0\r\n");
+        assertNull(client.subscriber);
+        assertEquals("$-1\r\n", execAs(client, new ByteArrayOutputStream(), "GET", "k"));
+        assertEquals(":0\r\n", exec("PUBLISH", "a", "m"));
+    }
+
+    @Test
+    void slowSubscriberIsDisconnectedOverTheHardLimit() throws Exception {
+        exec("CONFIG", "SET", "client-output-buffer-limit", "pubsub 4096 0 0");
+        long disconnections = PubSub.outputBufferDisconnections.sum();
+        // Never accepts a byte until the connection is closed, like a client that stopped reading
+        OutputStream stalled = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    closed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw new IOException("closed");
+            }
+        };
+        execAs(subscriber(), stalled, "SUBSCRIBE", "c");
+
+        String message = "x".repeat(100);
+        for (int i = 0; i < 100 && closed.getCount() > 0; i++) {
+            exec("PUBLISH", "c", message);
+        }
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(disconnections + 1, PubSub.outputBufferDisconnections.sum());
+    }
+
+    private ClientSession subscriber() {
+        ClientSession client = new ClientSession();
+        client.connection = closed::countDown;
+        return client;
+    }
+
+    private String execAs(ClientSession client, OutputStream output, String... command) throws IOException {
+        commandExecutor.executeCommand(client, command, output);
+        return output instanceof ByteArrayOutputStream bytes ? bytes.toString(StandardCharsets.ISO_8859_1) : "";
+    }
+
+    // Subscribers are written by the shared writer threads
+    private static void awaitOutput(ByteArrayOutputStream output, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!output.toString(StandardCharsets.ISO_8859_1).contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(output.toString(StandardCharsets.ISO_8859_1).contains(expected), output.toString(StandardCharsets.ISO_8859_1));
+    }
+}
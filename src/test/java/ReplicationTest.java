@@ -0,0 +1,105 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationTest extends ServerTestBase {
+
+    @AfterEach
+    void detachReplicas() {
+        replicationService.getReplicas().forEach(ReplicaConnection::close);
+        replicationService.becomeMaster();
+    }
+
+    @Test
+    void fullResyncThenStreamsWritesWithAbsoluteExpiry() throws Exception {
+        ByteArrayOutputStream link = psync("?", -1);
+        awaitOutput(link, "+FULLRESYNC " + replicationService.getReplicationId() + " 0\r\n$");
+
+        exec("SET", "k", "v", "EX", "100");
+        String stream = awaitOutput(link, bulk("PXAT"));
+        assertTrue(stream.contains("*5\r\n" + bulk("SET") + bulk("k") + bulk("v") + bulk("PXAT")), stream);
+        assertTrue(stream.endsWith(bulk(String.valueOf(RedisServer.keyExpiryTimes.get("k")))), stream);
+    }
+
+    @Test
+    void partialResyncContinuesFromTheRequestedOffset() throws Exception {
+        awaitOutput(psync("?", -1), "+FULLRESYNC");
+        exec("SET", "a", "1");
+        long offset = replicationService.getBacklog().getEndOffset();
+        exec("SET", "b", "2");
+
+        String missing = "*3\r\n" + bulk("SET") + bulk("b") + bulk("2");
+        ByteArrayOutputStream link = psync(replicationService.getReplicationId(), offset);
+        assertEquals("+CONTINUE\r\n" + missing, awaitOutput(link, missing));
+    }
+
+    @Test
+    void unknownHistoryOrTrimmedOffsetFallsBackToFullResync() throws Exception {
+        int backlogSize = ServerConfig.replBacklogSize;
+        ServerConfig.replBacklogSize = 16;
+        try {
+            awaitOutput(psync("?", -1), "+FULLRESYNC");
+            exec("SET", "key", "a value longer than the backlog");
+
+            awaitOutput(psync("0123456789012345678901234567890123456789", 0), "+FULLRESYNC");
+            awaitOutput(psync(replicationService.getReplicationId(), 0), "+FULLRESYNC");
+        } finally {
+            ServerConfig.replBacklogSize = backlogSize;
+        }
+    }
+
+    @Test
+    void transactionsReplicateAsOneBlock() throws Exception {
+        ByteArrayOutputStream link = psync("?", -1);
+        exec("MULTI");
+        exec("SET", "n", "1");
+        exec("INCR", "n");
+        exec("GET", "n");
+        exec("EXEC");
+
+        String block = "*1\r\n" + bulk("MULTI") + "*3\r\n" + bulk("SET") + bulk("n") + bulk("1")
+                + "*2\r\n" + bulk("INCR") + bulk("n") + "*1\r\n" + bulk("EXEC");
+        assertTrue(awaitOutput(link, bulk("EXEC")).endsWith(block));
+    }
+
+    @Test
+    void replicasLeaveExpiryToTheMaster() throws Exception {
+        // Nothing listens on port 1, the link just keeps retrying
+        replicationService.replicaOf("127.0.0.1", 1, commandExecutor);
+        String deadline = String.valueOf(System.currentTimeMillis() + 20);
+        commandExecutor.executeReplicated(new String[]{"SET", "k", "v", "PXAT", deadline});
+        Thread.sleep(50);
+
+        assertEquals("$-1\r\n", exec("GET", "k"));
+        assertTrue(RedisServer.dataStore.containsKey("k"));
+        assertTrue(exec("SET", "k", "w").startsWith("-READONLY"));
+
+        commandExecutor.executeReplicated(new String[]{"DEL", "k"});
+        assertFalse(RedisServer.dataStore.containsKey("k"));
+    }
+
+    private ByteArrayOutputStream psync(String replicationId, long offset) throws IOException {
+        ByteArrayOutputStream link = new ByteArrayOutputStream();
+        commandExecutor.executeCommand(new ClientSession(), new String[]{"PSYNC", replicationId, String.valueOf(offset)}, link);
+        return link;
+    }
+
+    // Replica links are written by their own sender threads
+    private static String awaitOutput(ByteArrayOutputStream link, String expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        String output = link.toString(StandardCharsets.ISO_8859_1);
+        while (!output.contains(expected) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            output = link.toString(StandardCharsets.ISO_8859_1);
+        }
+        assertTrue(output.contains(expected), output);
+        return output;
+    }
+}
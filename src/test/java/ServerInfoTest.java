@@ -0,0 +1,55 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerInfoTest extends ServerTestBase {
+
+    @Test
+    void commandstatsCountEveryCall() throws Exception {
+        exec("DECR", "counter");
+        long before = calls("decr");
+        exec("DECR", "counter");
+        exec("DECR", "counter");
+        exec("decr", "counter");
+        assertEquals(before + 3, calls("decr"));
+
+        // Only asked for by name or with "all"
+        assertFalse(info().contains("# Commandstats"));
+        assertTrue(info("all").contains("cmdstat_decr:calls="));
+    }
+
+    @Test
+    void keyspaceSectionCountsKeysAndExpiries() throws Exception {
+        assertEquals("# Keyspace\r\n\r\n", info("keyspace"));
+        exec("SET", "a", "1");
+        exec("SET", "b", "1", "EX", "100");
+        exec("RPUSH", "l", "x");
+        assertEquals("# Keyspace\r\ndb0:keys=3,expires=1\r\n\r\n", info("keyspace"));
+    }
+
+    @Test
+    void defaultSectionsDescribeTheServer() throws Exception {
+        String info = info();
+        for (String section : new String[]{"# Server", "# Clients", "# Memory", "# Persistence", "# Stats", "# Replication"}) {
+            assertTrue(info.contains(section + "\r\n"), section);
+        }
+        assertTrue(info.contains("role:master\r\n"), info);
+        assertEquals("", info("nosuchsection"));
+    }
+
+    private long calls(String command) throws Exception {
+        for (String line : info("commandstats").split("\r\n")) {
+            if (line.startsWith("cmdstat_" + command + ":calls=")) {
+                return Long.parseLong(line.substring(line.indexOf('=') + 1, line.indexOf(',')));
+            }
+        }
+        return 0;
+    }
+
+    private String info(String... section) throws Exception {
+        String[] command = section.length == 0 ? new String[]{"INFO"} : new String[]{"INFO", section[0]};
+        return (String) parse(exec(command));
+    }
+}
@@ -0,0 +1,81 @@
+import org.junit.jupiter.api.BeforeEach;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs commands through a CommandExecutor the way ClientHandler does and returns the raw RESP replies.
+ * The keyspace lives in RedisServer's static maps, so it is emptied around every test.
+ */
+abstract class ServerTestBase {
+    protected final ReplicationService replicationService = new ReplicationService();
+    protected final ClusterState clusterState = new ClusterState();
+    protected final CommandExecutor commandExecutor = new CommandExecutor(new ExpiredKeyHandler(), new ServerRESPResponse(),
+            new KeyPersistenceService(), replicationService, clusterState);
+    protected final ClientSession session = new ClientSession();
+
+    @BeforeEach
+    void clearKeyspace() {
+        RedisServer.dataStore.clear();
+        RedisServer.listDataStore.clear();
+        RedisServer.streamDataStore.clear();
+        RedisServer.hyperLogLogDataStore.clear();
+        RedisServer.bloomFilterDataStore.clear();
+        RedisServer.bitmapDataStore.clear();
+        RedisServer.keyExpiryTimes.clear();
+    }
+
+    protected String exec(String... command) throws IOException {
+        return exec(session, command);
+    }
+
+    protected String exec(ClientSession session, String... command) throws IOException {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        commandExecutor.executeCommand(session, command, reply);
+        return reply.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    protected static String bulk(String value) {
+        return "$" + value.length() + "\r\n" + value + "\r\n";
+    }
+
+    // Decodes one reply: simple strings, errors and bulk strings as String, integers as Long, arrays as List
+    protected static Object parse(String reply) {
+        return parse(reply, new int[1]);
+    }
+
+    private static Object parse(String reply, int[] position) {
+        int end = reply.indexOf("\r\n", position[0]);
+        char type = reply.charAt(position[0]);
+        String line = reply.substring(position[0] + 1, end);
+        position[0] = end + 2;
+        switch (type) {
+            case '+', '-' -> {
+                return line;
+            }
+            case ':' -> {
+                return Long.parseLong(line);
+            }
+            case '$' -> {
+                int length = Integer.parseInt(line);
+                if (length < 0) return null;
+                String value = reply.substring(position[0], position[0] + length);
+                position[0] += length + 2;
+                return value;
+            }
+            case '*' -> {
+                int count = Integer.parseInt(line);
+                if (count < 0) return null;
+                List<Object> elements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    elements.add(parse(reply, position));
+                }
+                return elements;
+            }
+            default -> throw new IllegalArgumentException("Not a RESP reply: " + reply);
+        }
+    }
+}
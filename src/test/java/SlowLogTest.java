@@ -0,0 +1,40 @@
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlowLogTest extends ServerTestBase {
+
+    @AfterEach
+    void restoreThreshold() throws Exception {
+        exec("CONFIG", "SET", "slowlog-log-slower-than", "10000");
+    }
+
+    @Test
+    void recordsOnlyCommandsOverTheThreshold() throws Exception {
+        exec("CONFIG", "SET", "slowlog-log-slower-than", "1000000");
+        exec("SET", "k", "v");
+        assertEquals(":0\r\n", exec("SLOWLOG", "LEN"));
+
+        exec("CONFIG", "SET", "slowlog-log-slower-than", "0");
+        exec("GET", "k");
+        assertEquals(":2\r\n", exec("SLOWLOG", "LEN"));
+        assertEquals("+OK\r\n", exec("SLOWLOG", "RESET"));
+        // RESET is itself logged once it returns
+        assertEquals(":1\r\n", exec("SLOWLOG", "LEN"));
+    }
+
+    @Test
+    void keepsTheArgumentsRewrittenForReplicas() throws Exception {
+        exec("CONFIG", "SET", "slowlog-log-slower-than", "0");
+        exec("SET", "k", "v", "EX", "100");
+        exec("XADD", "s", "MAXLEN", "~", "5", "*", "f", "v");
+
+        String entries = exec("SLOWLOG", "GET", "2");
+        assertTrue(entries.contains("*5\r\n" + bulk("SET") + bulk("k") + bulk("v") + bulk("EX") + bulk("100")), entries);
+        assertTrue(entries.contains(bulk("~") + bulk("5") + bulk("*")), entries);
+        assertFalse(entries.contains("PXAT"), entries);
+    }
+}
@@ -0,0 +1,113 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StreamTest extends ServerTestBase {
+
+    @Test
+    void rangesDecodeEntriesAcrossBlocks() throws Exception {
+        // Enough entries for several blocks, with field names that change now and then
+        for (int i = 1; i <= 3 * RedisStream.BLOCK_MAX_ENTRIES; i++) {
+            String field = i % 7 == 0 ? "other" : "f";
+            assertEquals(bulk(i + "-0"), exec("XADD", "s", i + "-0", field, "v" + i, "n", String.valueOf(i)));
+        }
+        assertEquals(":300\r\n", exec("XLEN", "s"));
+
+        List<Object> range = list(exec("XRANGE", "s", "95-0", "205-0"));
+        assertEquals(111, range.size());
+        assertEquals(List.of("95-0", List.of("f", "v95", "n", "95")), range.get(0));
+        assertEquals(List.of("98-0", List.of("other", "v98", "n", "98")), range.get(3));
+        assertEquals(List.of("205-0", List.of("f", "v205", "n", "205")), range.get(110));
+
+        List<Object> reversed = list(exec("XREVRANGE", "s", "+", "-", "COUNT", "2"));
+        assertEquals(List.of("300-0", "299-0"), List.of(entryId(reversed.get(0)), entryId(reversed.get(1))));
+    }
+
+    @Test
+    void largeValuesStartNewBlocks() throws Exception {
+        String large = "x".repeat(RedisStream.BLOCK_MAX_BYTES / 2);
+        for (int i = 1; i <= 10; i++) {
+            exec("XADD", "s", i + "-1", "payload", large + i);
+        }
+        List<Object> range = list(exec("XRANGE", "s", "-", "+"));
+        assertEquals(10, range.size());
+        assertEquals(List.of("7-1", List.of("payload", large + 7)), range.get(6));
+    }
+
+    @Test
+    void idsOnlyMoveForward() throws Exception {
+        exec("XADD", "s", "5-5", "f", "v");
+        assertTrue(exec("XADD", "s", "5-5", "f", "v").startsWith("-ERR"));
+        assertTrue(exec("XADD", "s", "4-9", "f", "v").startsWith("-ERR"));
+        assertEquals(bulk("5-6"), exec("XADD", "s", "5-*", "f", "v"));
+
+        // Trimming the stream empty keeps its last ID
+        exec("XTRIM", "s", "MAXLEN", "0");
+        assertTrue(exec("XADD", "s", "5-6", "f", "v").startsWith("-ERR"));
+    }
+
+    @Test
+    void exactTrimKeepsTheNewestEntriesAndApproximateTrimDropsWholeBlocks() throws Exception {
+        for (int i = 1; i <= 350; i++) {
+            exec("XADD", "s", i + "-0", "f", "v");
+        }
+        assertEquals(":0\r\n", exec("XTRIM", "s", "MAXLEN", "~", "300"));
+        assertEquals(":100\r\n", exec("XTRIM", "s", "MAXLEN", "~", "200"));
+        assertEquals(":250\r\n", exec("XLEN", "s"));
+
+        assertEquals(":130\r\n", exec("XTRIM", "s", "MAXLEN", "120"));
+        assertEquals("231-0", entryId(list(exec("XRANGE", "s", "-", "+", "COUNT", "1")).get(0)));
+
+        exec("XADD", "s", "MAXLEN", "10", "351-0", "f", "v");
+        assertEquals(":10\r\n", exec("XLEN", "s"));
+    }
+
+    @Test
+    void blockedReadWakesOnAppend() throws Exception {
+        exec("XADD", "s", "1-0", "f", "old");
+        CompletableFuture<String> read = CompletableFuture.supplyAsync(() -> {
+            try {
+                return exec(new ClientSession(), "XREAD", "BLOCK", "5000", "STREAMS", "s", "$");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(read.isDone());
+        exec("XADD", "s", "2-0", "f", "new");
+
+        assertEquals(List.of(List.of("s", List.of(List.of("2-0", List.of("f", "new"))))),
+                parse(read.get(5, TimeUnit.SECONDS)));
+        assertEquals("*-1\r\n", exec("XREAD", "BLOCK", "50", "STREAMS", "s", "$"));
+    }
+
+    @Test
+    void dumpAndRestoreKeepEntriesAndRejectDamagedPayloads() throws Exception {
+        for (int i = 1; i <= 150; i++) {
+            exec("XADD", "s", i + "-0", "f", "v" + i);
+        }
+        String payload = (String) parse(exec("DUMP", "s"));
+        assertEquals("+OK\r\n", exec("RESTORE", "copy", "0", payload));
+        assertEquals(exec("XRANGE", "s", "-", "+"), exec("XRANGE", "copy", "-", "+"));
+
+        String damaged = payload.substring(0, payload.length() / 2) + "AAAAAAAA" + payload.substring(payload.length() / 2 + 8);
+        assertTrue(exec("RESTORE", "damaged", "0", damaged).startsWith("-"));
+        assertEquals(":0\r\n", exec("EXISTS", "damaged"));
+    }
+
+    private static String entryId(Object entry) {
+        return (String) ((List<?>) entry).get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> list(String reply) {
+        return (List<Object>) parse(reply);
+    }
+}
@@ -0,0 +1,86 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionTest extends ServerTestBase {
+    private final ClientSession other = new ClientSession();
+
+    @Test
+    void execRunsTheQueuedCommandsInOrder() throws Exception {
+        assertEquals("+OK\r\n", exec("MULTI"));
+        assertEquals("+QUEUED\r\n", exec("SET", "n", "1"));
+        assertEquals("+QUEUED\r\n", exec("INCR", "n"));
+        // Nothing runs before EXEC
+        assertEquals("$-1\r\n", exec(other, "GET", "n"));
+
+        assertEquals("*2\r\n+OK\r\n:2\r\n", exec("EXEC"));
+        assertEquals(bulk("2"), exec(other, "GET", "n"));
+    }
+
+    @Test
+    void watchedKeyChangedByAnotherClientAbortsExec() throws Exception {
+        exec("SET", "k", "1");
+        exec("WATCH", "k");
+        exec(other, "SET", "k", "2");
+        exec("MULTI");
+        exec("SET", "k", "3");
+
+        assertEquals("*-1\r\n", exec("EXEC"));
+        assertEquals(bulk("2"), exec("GET", "k"));
+        // EXEC unwatches, so the next transaction goes through
+        exec("MULTI");
+        exec("SET", "k", "3");
+        assertEquals("*1\r\n+OK\r\n", exec("EXEC"));
+    }
+
+    @Test
+    void watchAbortsOnCreationDeletionAndFlush() throws Exception {
+        exec("WATCH", "created");
+        exec(other, "RPUSH", "created", "a");
+        exec("MULTI");
+        assertEquals("*-1\r\n", exec("EXEC"));
+
+        exec("WATCH", "created");
+        exec(other, "DEL", "created");
+        exec("MULTI");
+        assertEquals("*-1\r\n", exec("EXEC"));
+
+        exec("WATCH", "missing");
+        exec(other, "FLUSHALL");
+        exec("MULTI");
+        assertEquals("*-1\r\n", exec("EXEC"));
+
+        exec("WATCH", "untouched");
+        exec(other, "SET", "elsewhere", "v");
+        exec("MULTI");
+        assertEquals("*0\r\n", exec("EXEC"));
+    }
+
+    @Test
+    void queuingErrorsDiscardTheTransaction() throws Exception {
+        exec("MULTI");
+        assertTrue(exec("NOSUCHCOMMAND").startsWith("-ERR"));
+        exec("SET", "k", "v");
+        assertEquals("-EXECABORT Transaction discarded because of previous errors.\r\n", exec("EXEC"));
+        assertEquals("$-1\r\n", exec("GET", "k"));
+
+        exec("MULTI");
+        assertTrue(exec("SUBSCRIBE", "c").startsWith("-"));
+        assertEquals("+OK\r\n", exec("DISCARD"));
+        assertEquals("-ERR DISCARD without MULTI\r\n", exec("DISCARD"));
+    }
+
+    @Test
+    void runtimeErrorsDoNotRollBack() throws Exception {
+        exec("RPUSH", "l", "a");
+        exec("MULTI");
+        exec("INCR", "l");
+        exec("SET", "k", "v");
+        String reply = exec("EXEC");
+
+        assertTrue(reply.startsWith("*2\r\n-WRONGTYPE"), reply);
+        assertTrue(reply.endsWith("+OK\r\n"), reply);
+        assertEquals(bulk("v"), exec("GET", "k"));
+    }
+}